@@ -21,6 +21,7 @@ import griffon.annotations.core.Nonnull;
 import griffon.core.storage.ObjectFactory;
 import org.hibernate.SessionFactory;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,4 +34,12 @@ public interface Hibernate5Factory extends ObjectFactory<SessionFactory> {
 
     @Nonnull
     Map<String, Object> getConfigurationFor(@Nonnull String sessionFactoryName);
+
+    /**
+     * @return the settings of the {@code sharding} block, empty if there is none
+     */
+    @Nonnull
+    default Map<String, Object> getShardingConfiguration() {
+        return Collections.emptyMap();
+    }
 }
@@ -20,6 +20,11 @@ package griffon.plugins.hibernate5;
 import griffon.annotations.core.Nonnull;
 import griffon.annotations.core.Nullable;
 import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception;
+import org.hibernate.query.Query;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * @author Andres Almiray
@@ -34,6 +39,82 @@ public interface Hibernate5Handler {
     <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback)
         throws RuntimeHibernate5Exception;
 
+    @Nullable
+    <R> R withHbm5Session(@Nonnull Propagation propagation, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull Propagation propagation, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5Session(@Nonnull TransactionOptions options, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull TransactionOptions options, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5TenantSession(@Nonnull String tenantId, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5TenantSession(@Nonnull String sessionFactoryName, @Nonnull String tenantId, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nonnull
+    <R> CompletableFuture<R> withHbm5SessionAsync(@Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nonnull
+    <R> CompletableFuture<R> withHbm5SessionAsync(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5ReadOnlySession(@Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5ReadOnlySession(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5Shard(@Nonnull Object shardKey, @Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nonnull
+    <R> List<R> withHbm5AllShards(@Nonnull Hibernate5Callback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5StatelessSession(@Nonnull Hibernate5StatelessCallback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    @Nullable
+    <R> R withHbm5StatelessSession(@Nonnull String sessionFactoryName, @Nonnull Hibernate5StatelessCallback<R> callback)
+        throws RuntimeHibernate5Exception;
+
+    <E> long saveHbm5Batch(@Nonnull Iterable<E> entities)
+        throws RuntimeHibernate5Exception;
+
+    <E> long saveHbm5Batch(@Nonnull String sessionFactoryName, @Nonnull Iterable<E> entities)
+        throws RuntimeHibernate5Exception;
+
+    <E> long saveHbm5Batch(@Nonnull Stream<E> entities)
+        throws RuntimeHibernate5Exception;
+
+    <E> long saveHbm5Batch(@Nonnull String sessionFactoryName, @Nonnull Stream<E> entities)
+        throws RuntimeHibernate5Exception;
+
+    @Nonnull
+    <E> Stream<E> streamHbm5Query(@Nonnull Hibernate5Callback<Query<E>> queryFactory)
+        throws RuntimeHibernate5Exception;
+
+    @Nonnull
+    <E> Stream<E> streamHbm5Query(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<Query<E>> queryFactory)
+        throws RuntimeHibernate5Exception;
+
     void closeHbm5Session();
 
     void closeHbm5Session(@Nonnull String sessionFactoryName);
@@ -0,0 +1,35 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+
+/**
+ * Decides whether a failed session block may be run again in a new session and transaction.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public interface Hibernate5RetryClassifier {
+    /**
+     * @param sessionFactoryName the name of the SessionFactory the block ran on
+     * @param failure            the exception thrown by the block, its callback or the commit
+     * @return {@code true} if the failure is transient, such as a deadlock or a lost connection
+     */
+    boolean isRetryable(@Nonnull String sessionFactoryName, @Nonnull Throwable failure);
+}
@@ -0,0 +1,38 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+
+import java.util.List;
+
+/**
+ * Picks the shard, one of the configured SessionFactories, that holds the data of a shard key.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public interface Hibernate5ShardStrategy {
+    /**
+     * @param shardKey the key passed to {@code withHbm5Shard}
+     * @param shards   the names of the SessionFactories that make up the shards, in configuration order
+     * @return one of {@code shards}
+     */
+    @Nonnull
+    String shardFor(@Nonnull Object shardKey, @Nonnull List<String> shards);
+}
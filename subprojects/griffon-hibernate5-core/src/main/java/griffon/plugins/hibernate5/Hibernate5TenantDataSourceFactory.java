@@ -0,0 +1,38 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+
+import javax.sql.DataSource;
+
+/**
+ * Creates the DataSource of a tenant of a SessionFactory that keeps each tenant in its own database.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public interface Hibernate5TenantDataSourceFactory {
+    @Nonnull
+    DataSource create(@Nonnull String sessionFactoryName, @Nonnull String tenantId);
+
+    /**
+     * Releases the resources of a DataSource evicted from the tenant cache. None of its connections are in use.
+     */
+    void destroy(@Nonnull String sessionFactoryName, @Nonnull String tenantId, @Nonnull DataSource dataSource);
+}
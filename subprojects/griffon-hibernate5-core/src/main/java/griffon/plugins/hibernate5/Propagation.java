@@ -0,0 +1,40 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5;
+
+/**
+ * Defines how a session block relates to a session already bound to the current thread
+ * for the same SessionFactory.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public enum Propagation {
+    /**
+     * Joins the session and transaction bound to the current thread, starting new ones if there are none.
+     */
+    REQUIRED,
+    /**
+     * Always starts a new session and transaction, suspending the ones bound to the current thread until it completes.
+     */
+    REQUIRES_NEW,
+    /**
+     * Joins the session and transaction bound to the current thread, failing if there are none.
+     */
+    MANDATORY
+}
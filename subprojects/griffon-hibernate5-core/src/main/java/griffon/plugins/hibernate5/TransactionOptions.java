@@ -0,0 +1,236 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+
+import java.sql.Connection;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings applied to the session, transaction and connection of a single session block. Unset values keep the
+ * defaults of the SessionFactory. Options only take effect when the block opens its own session; a block that joins
+ * the session bound to the current thread runs with the options of the outer block.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public final class TransactionOptions {
+    public static final TransactionOptions DEFAULTS = builder().build();
+
+    /**
+     * JDBC transaction isolation levels.
+     */
+    public enum Isolation {
+        READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+        READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+        REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+        SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+        private final int level;
+
+        Isolation(int level) {
+            this.level = level;
+        }
+
+        /**
+         * @return the matching {@code java.sql.Connection.TRANSACTION_*} constant
+         */
+        public int getLevel() {
+            return level;
+        }
+    }
+
+    private final Propagation propagation;
+    private final Isolation isolation;
+    private final int timeout;
+    private final int queryTimeout;
+    private final FlushMode flushMode;
+    private final CacheMode cacheMode;
+    private final boolean readOnly;
+    private final String tenantId;
+
+    private TransactionOptions(@Nonnull Builder builder) {
+        this.propagation = builder.propagation;
+        this.isolation = builder.isolation;
+        this.timeout = builder.timeout;
+        this.queryTimeout = builder.queryTimeout;
+        this.flushMode = builder.flushMode;
+        this.cacheMode = builder.cacheMode;
+        this.readOnly = builder.readOnly;
+        this.tenantId = builder.tenantId;
+    }
+
+    @Nonnull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Nonnull
+    public Builder toBuilder() {
+        return new Builder()
+            .propagation(propagation)
+            .isolation(isolation)
+            .timeout(timeout)
+            .queryTimeout(queryTimeout)
+            .flushMode(flushMode)
+            .cacheMode(cacheMode)
+            .readOnly(readOnly)
+            .tenantId(tenantId);
+    }
+
+    @Nonnull
+    public Propagation getPropagation() {
+        return propagation;
+    }
+
+    @Nullable
+    public Isolation getIsolation() {
+        return isolation;
+    }
+
+    /**
+     * @return transaction timeout in seconds, zero if there is none
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return timeout in seconds applied to every query of the session, zero if there is none
+     */
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    @Nullable
+    public FlushMode getFlushMode() {
+        return flushMode;
+    }
+
+    @Nullable
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @return the tenant of a multi-tenant SessionFactory the session works on, {@code null} for the default one
+     */
+    @Nullable
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionOptions[" +
+            "propagation=" + propagation +
+            ", isolation=" + isolation +
+            ", timeout=" + timeout +
+            ", queryTimeout=" + queryTimeout +
+            ", flushMode=" + flushMode +
+            ", cacheMode=" + cacheMode +
+            ", readOnly=" + readOnly +
+            ", tenantId=" + tenantId +
+            ']';
+    }
+
+    public static final class Builder {
+        private Propagation propagation = Propagation.REQUIRED;
+        private Isolation isolation;
+        private int timeout;
+        private int queryTimeout;
+        private FlushMode flushMode;
+        private CacheMode cacheMode;
+        private boolean readOnly;
+        private String tenantId;
+
+        private Builder() {
+        }
+
+        @Nonnull
+        public Builder propagation(@Nonnull Propagation propagation) {
+            this.propagation = requireNonNull(propagation, "Argument 'propagation' must not be null");
+            return this;
+        }
+
+        @Nonnull
+        public Builder isolation(@Nullable Isolation isolation) {
+            this.isolation = isolation;
+            return this;
+        }
+
+        /**
+         * @param seconds transaction timeout, zero for none
+         */
+        @Nonnull
+        public Builder timeout(int seconds) {
+            this.timeout = Math.max(0, seconds);
+            return this;
+        }
+
+        /**
+         * @param seconds query timeout, zero for none
+         */
+        @Nonnull
+        public Builder queryTimeout(int seconds) {
+            this.queryTimeout = Math.max(0, seconds);
+            return this;
+        }
+
+        @Nonnull
+        public Builder flushMode(@Nullable FlushMode flushMode) {
+            this.flushMode = flushMode;
+            return this;
+        }
+
+        @Nonnull
+        public Builder cacheMode(@Nullable CacheMode cacheMode) {
+            this.cacheMode = cacheMode;
+            return this;
+        }
+
+        /**
+         * Loads entities without snapshots, never flushes and marks the connection as read-only.
+         */
+        @Nonnull
+        public Builder readOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        @Nonnull
+        public Builder tenantId(@Nullable String tenantId) {
+            this.tenantId = tenantId;
+            return this;
+        }
+
+        @Nonnull
+        public TransactionOptions build() {
+            return new TransactionOptions(this);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5.events;
+
+import griffon.annotations.core.Nonnull;
+import griffon.core.event.Event;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class Hibernate5NPlusOneQueryEvent extends Event {
+    private final String name;
+    private final String callSite;
+    private final String sql;
+    private final int count;
+    private final int statementCount;
+
+    public Hibernate5NPlusOneQueryEvent(@Nonnull String name, @Nonnull String callSite, @Nonnull String sql, int count, int statementCount) {
+        this.name = requireNonBlank(name, "Argument 'name' must not be blank");
+        this.callSite = requireNonBlank(callSite, "Argument 'callSite' must not be blank");
+        this.sql = requireNonBlank(sql, "Argument 'sql' must not be blank");
+        this.count = count;
+        this.statementCount = statementCount;
+    }
+
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    @Nonnull
+    public String getCallSite() {
+        return callSite;
+    }
+
+    @Nonnull
+    public String getSql() {
+        return sql;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    @Nonnull
+    public static Hibernate5NPlusOneQueryEvent of(@Nonnull String name, @Nonnull String callSite, @Nonnull String sql, int count, int statementCount) {
+        return new Hibernate5NPlusOneQueryEvent(name, callSite, sql, count, statementCount);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5.exceptions;
+
+import griffon.annotations.core.Nonnull;
+import griffon.exceptions.GriffonException;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * Signals that a session block executed the same query more often than the configured N+1 threshold allows.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class Hibernate5NPlusOneQueryException extends GriffonException {
+    private final String sessionFactoryName;
+    private final String callSite;
+    private final String sql;
+    private final int count;
+
+    public Hibernate5NPlusOneQueryException(@Nonnull String sessionFactoryName, @Nonnull String callSite, @Nonnull String sql, int count) {
+        super(format(sessionFactoryName, callSite, sql, count));
+        this.sessionFactoryName = sessionFactoryName;
+        this.callSite = callSite;
+        this.sql = sql;
+        this.count = count;
+    }
+
+    @Nonnull
+    private static String format(@Nonnull String sessionFactoryName, @Nonnull String callSite, @Nonnull String sql, int count) {
+        requireNonBlank(sessionFactoryName, "sessionFactoryName");
+        return "Possible N+1 query on hibernate '" + sessionFactoryName + "' at " + callSite + ": executed " + count + " times: " + sql;
+    }
+
+    @Nonnull
+    public String getHibernate5Name() {
+        return sessionFactoryName;
+    }
+
+    @Nonnull
+    public String getCallSite() {
+        return callSite;
+    }
+
+    @Nonnull
+    public String getSql() {
+        return sql;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -18,6 +18,7 @@
 package org.codehaus.griffon.runtime.hibernate5;
 
 import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
 import griffon.core.GriffonApplication;
 import griffon.core.env.Metadata;
 import griffon.core.injection.Injector;
@@ -25,8 +26,10 @@ import griffon.plugins.datasource.DataSourceFactory;
 import griffon.plugins.datasource.DataSourceStorage;
 import griffon.plugins.hibernate5.Hibernate5Bootstrap;
 import griffon.plugins.hibernate5.Hibernate5Factory;
+import griffon.plugins.hibernate5.Hibernate5RetryClassifier;
 import griffon.plugins.hibernate5.events.Hibernate5ConfigurationAvailableEvent;
 import griffon.plugins.hibernate5.events.Hibernate5ConnectEndEvent;
+import griffon.plugins.hibernate5.events.Hibernate5ConnectFailedEvent;
 import griffon.plugins.hibernate5.events.Hibernate5ConnectStartEvent;
 import griffon.plugins.hibernate5.events.Hibernate5DisconnectEndEvent;
 import griffon.plugins.hibernate5.events.Hibernate5DisconnectStartEvent;
@@ -34,22 +37,48 @@ import griffon.plugins.monitor.MBeanManager;
 import griffon.util.CollectionUtils;
 import org.codehaus.griffon.runtime.core.storage.AbstractObjectFactory;
 import org.codehaus.griffon.runtime.datasource.DefaultDataSourceFactory;
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegionFactory;
+import org.codehaus.griffon.runtime.hibernate5.cache.RegionSnapshot;
 import org.codehaus.griffon.runtime.hibernate5.internal.HibernateConfigurationHelper;
+import org.codehaus.griffon.runtime.hibernate5.internal.JdbcUtils;
+import org.codehaus.griffon.runtime.hibernate5.internal.NamedThreadFactory;
+import org.codehaus.griffon.runtime.hibernate5.monitor.SecondLevelCacheMonitor;
 import org.codehaus.griffon.runtime.hibernate5.monitor.SessionFactoryMonitor;
+import org.codehaus.griffon.runtime.hibernate5.monitor.SessionFactoryStatistics;
+import org.codehaus.griffon.runtime.hibernate5.monitor.SlowQueryLogMonitor;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.TenantConnectionProvider;
+import org.hibernate.MultiTenancyStrategy;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.boot.spi.SessionFactoryOptions;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.metamodel.EmbeddableType;
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 
 import static griffon.util.ConfigUtils.getConfigValue;
 import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
 import static griffon.util.GriffonNameUtils.requireNonBlank;
 import static java.util.Objects.requireNonNull;
 
@@ -57,8 +86,12 @@ import static java.util.Objects.requireNonNull;
  * @author Andres Almiray
  */
 public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFactory> implements Hibernate5Factory {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultHibernate5Factory.class);
     private static final String ERROR_SESSION_FACTORY_NAME_BLANK = "Argument 'sessionFactoryName' must not be blank";
+    private static final ThreadFactory CACHE_SNAPSHOT_THREAD_FACTORY = new NamedThreadFactory("hibernate5-cache-snapshot");
+    private static final long CACHE_RESTORE_STOP_TIMEOUT = 10_000L;
     private final Set<String> sessionFactoryNames = new LinkedHashSet<>();
+    private final Map<String, Object> shardingConfiguration;
 
     @Inject
     private DataSourceFactory dataSourceFactory;
@@ -84,6 +117,9 @@ public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFacto
             Map<String, Object> sessionFactories = configuration.get(getPluralKey());
             sessionFactoryNames.addAll(sessionFactories.keySet());
         }
+
+        Map<String, Object> sharding = configuration.containsKey(ShardRouter.KEY_SHARDING) ? configuration.get(ShardRouter.KEY_SHARDING) : null;
+        shardingConfiguration = sharding != null ? sharding : Collections.<String, Object>emptyMap();
     }
 
     @Nonnull
@@ -99,6 +135,12 @@ public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFacto
         return narrowConfig(sessionFactoryName);
     }
 
+    @Nonnull
+    @Override
+    public Map<String, Object> getShardingConfiguration() {
+        return shardingConfiguration;
+    }
+
     @Nonnull
     @Override
     protected String getSingleKey() {
@@ -117,31 +159,161 @@ public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFacto
         Map<String, Object> config = narrowConfig(name);
         event(Hibernate5ConnectStartEvent.of(name, config));
 
+        SessionFactory sessionFactory;
+        try {
+            sessionFactory = buildSessionFactory(name, config);
+        } catch (RuntimeException e) {
+            event(Hibernate5ConnectFailedEvent.of(name, config, e));
+            throw e;
+        }
+
+        event(Hibernate5ConnectEndEvent.of(name, config, sessionFactory));
+        loadCacheSnapshot(name, sessionFactory);
+        return sessionFactory;
+    }
+
+    private void loadCacheSnapshot(@Nonnull String name, @Nonnull SessionFactory sessionFactory) {
+        RecordingSessionFactory recordingSessionFactory = RecordingSessionFactory.find(sessionFactory);
+        BoundedRegionFactory regionFactory = recordingSessionFactory != null ? recordingSessionFactory.getRegionFactory() : null;
+        RegionSnapshot snapshot = regionFactory != null ? regionFactory.getSnapshot() : null;
+        if (snapshot == null) {
+            if (regionFactory != null) {
+                regionFactory.finishRestore();
+            }
+            return;
+        }
+
+        // sessions may be used right away, cached values show up as they are read
+        regionFactory.startRestore(CACHE_SNAPSHOT_THREAD_FACTORY.newThread(() -> {
+            try {
+                int count = snapshot.load(regionFactory, mappedTypes(sessionFactory));
+                LOG.debug("Restored {} cache entries of '{}' from {}", count, name, snapshot.getFile());
+            } catch (InterruptedIOException e) {
+                LOG.debug("Stopped restoring cache snapshot {} of '{}'", snapshot.getFile(), name);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Could not restore cache snapshot {} of '{}'", snapshot.getFile(), name, e);
+            }
+        }));
+    }
+
+    @Nonnull
+    private static Collection<Class<?>> mappedTypes(@Nonnull SessionFactory sessionFactory) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        for (EntityPersister persister : sessionFactory.unwrap(SessionFactoryImplementor.class).getMetamodel().entityPersisters().values()) {
+            types.add(persister.getMappedClass());
+            types.add(persister.getIdentifierType().getReturnedClass());
+        }
+        for (EmbeddableType<?> embeddable : sessionFactory.getMetamodel().getEmbeddables()) {
+            types.add(embeddable.getJavaType());
+        }
+        return types;
+    }
+
+    @Nonnull
+    private SessionFactory buildSessionFactory(@Nonnull String name, @Nonnull Map<String, Object> config) {
         Configuration configuration = createConfiguration(config, name);
         createSchema(name, config, configuration);
 
-        SessionFactory sessionFactory = new RecordingSessionFactory(configuration.buildSessionFactory());
+        RecordingSessionFactory recordingSessionFactory = new RecordingSessionFactory(configuration.buildSessionFactory());
+        Object statementInspector = configuration.getProperties().get(Environment.STATEMENT_INSPECTOR);
+        recordingSessionFactory.setSlowQueryLog(DelegatingStatementInspector.find(statementInspector, SlowQueryLog.class));
+        recordingSessionFactory.setNPlusOneDetector(DelegatingStatementInspector.find(statementInspector, NPlusOneDetector.class));
+        Object regionFactory = configuration.getProperties().get(Environment.CACHE_REGION_FACTORY);
+        if (regionFactory instanceof BoundedRegionFactory) {
+            recordingSessionFactory.setRegionFactory((BoundedRegionFactory) regionFactory);
+        }
+        recordingSessionFactory.setRetryPolicy(createRetryPolicy(config));
+        Object tenantConnectionProvider = configuration.getProperties().get(Environment.MULTI_TENANT_CONNECTION_PROVIDER);
+        if (tenantConnectionProvider instanceof TenantConnectionProvider) {
+            recordingSessionFactory.setTenantConnectionProvider((TenantConnectionProvider) tenantConnectionProvider);
+        }
+        SessionFactory sessionFactory = recordingSessionFactory;
 
         if (getConfigValueAsBoolean(config, "jmx", true)) {
             sessionFactory = new JMXAwareSessionFactory(sessionFactory);
             registerMBeans(name, (JMXAwareSessionFactory) sessionFactory);
         }
 
-        Session session = null;
-        try {
-            session = openSession(name, sessionFactory);
-            for (Object o : injector.getInstances(Hibernate5Bootstrap.class)) {
-                ((Hibernate5Bootstrap) o).init(name, session);
+        if (canOpenSession(sessionFactory)) {
+            Session session = null;
+            try {
+                session = openSession(name, sessionFactory);
+                for (Object o : injector.getInstances(Hibernate5Bootstrap.class)) {
+                    ((Hibernate5Bootstrap) o).init(name, session);
+                }
+            } finally {
+                if (session != null) {
+
+                    session.close();
+                }
             }
-        } finally {
-            if (session != null) {
+        } else {
+            LOG.debug("Skipping bootstraps of '{}' as it has no default tenant", name);
+        }
+
+        return sessionFactory;
+    }
+
+    /**
+     * A multi-tenant SessionFactory needs a default tenant to open a session without one.
+     */
+    private static boolean canOpenSession(@Nonnull SessionFactory sessionFactory) {
+        SessionFactoryOptions options = sessionFactory.getSessionFactoryOptions();
+        return options.getMultiTenancyStrategy() == MultiTenancyStrategy.NONE || options.getCurrentTenantIdentifierResolver() != null;
+    }
+
+    @Nullable
+    private RetryPolicy createRetryPolicy(@Nonnull Map<String, Object> config) {
+        int maxAttempts = getConfigValueAsInt(config, RetryPolicy.KEY_RETRY_ATTEMPTS, 1);
+        if (maxAttempts <= 1) {
+            return null;
+        }
+
+        Hibernate5RetryClassifier classifier;
+        Object value = getConfigValue(config, RetryPolicy.KEY_RETRY_CLASSIFIER, null);
+        if (value instanceof Hibernate5RetryClassifier) {
+            classifier = (Hibernate5RetryClassifier) value;
+        } else if (value instanceof Class || value instanceof String) {
+            classifier = newRetryClassifier(value);
+        } else {
+            classifier = new SqlStateRetryClassifier(getRetrySqlStates(config),
+                getConfigValueAsBoolean(config, RetryPolicy.KEY_RETRY_TIMEOUTS, false));
+        }
 
-                session.close();
+        return new RetryPolicy(maxAttempts,
+            getConfigValueAsLong(config, RetryPolicy.KEY_RETRY_DELAY, RetryPolicy.DEFAULT_RETRY_DELAY),
+            getConfigValueAsLong(config, RetryPolicy.KEY_RETRY_MAX_DELAY, RetryPolicy.DEFAULT_RETRY_MAX_DELAY),
+            classifier);
+    }
+
+    @Nonnull
+    private static List<String> getRetrySqlStates(@Nonnull Map<String, Object> config) {
+        Object value = getConfigValue(config, RetryPolicy.KEY_RETRY_SQL_STATES, null);
+        if (value == null) {
+            return SqlStateRetryClassifier.DEFAULT_SQL_STATES;
+        }
+        if (!(value instanceof Collection)) {
+            throw new IllegalArgumentException("Invalid value for " + RetryPolicy.KEY_RETRY_SQL_STATES + ", expected a list of SQLState prefixes but got " + value);
+        }
+
+        List<String> sqlStates = new ArrayList<>();
+        for (Object sqlState : (Collection<?>) value) {
+            if (!(sqlState instanceof CharSequence)) {
+                throw new IllegalArgumentException("Invalid value for " + RetryPolicy.KEY_RETRY_SQL_STATES + ", expected a SQLState prefix but got " + sqlState);
             }
+            sqlStates.add(sqlState.toString());
         }
+        return sqlStates;
+    }
 
-        event(Hibernate5ConnectEndEvent.of(name, config, sessionFactory));
-        return sessionFactory;
+    @Nonnull
+    private Hibernate5RetryClassifier newRetryClassifier(@Nonnull Object type) {
+        try {
+            Class<?> classifierClass = type instanceof Class ? (Class<?>) type : getApplication().getApplicationClassLoader().get().loadClass(String.valueOf(type));
+            return (Hibernate5RetryClassifier) classifierClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot instantiate retry classifier " + type, e);
+        }
     }
 
     @Override
@@ -150,19 +322,33 @@ public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFacto
         Map<String, Object> config = narrowConfig(name);
         event(Hibernate5DisconnectStartEvent.of(name, config, instance));
 
-        Session session = null;
-        try {
-            session = openSession(name, instance);
-            for (Object o : injector.getInstances(Hibernate5Bootstrap.class)) {
-                ((Hibernate5Bootstrap) o).destroy(name, session);
-            }
-        } finally {
-            if (session != null) {
-                session.close();
+        RecordingSessionFactory recordingSessionFactory = RecordingSessionFactory.find(instance);
+        BoundedRegionFactory regionFactory = recordingSessionFactory != null ? recordingSessionFactory.getRegionFactory() : null;
+        if (regionFactory != null && !regionFactory.cancelRestore(CACHE_RESTORE_STOP_TIMEOUT)) {
+            LOG.warn("Restoring the cache snapshot of '{}' did not stop within {} ms", name, CACHE_RESTORE_STOP_TIMEOUT);
+        }
+
+        if (canOpenSession(instance)) {
+            Session session = null;
+            try {
+                session = openSession(name, instance);
+                for (Object o : injector.getInstances(Hibernate5Bootstrap.class)) {
+                    ((Hibernate5Bootstrap) o).destroy(name, session);
+                }
+            } finally {
+                if (session != null) {
+                    session.close();
+                }
             }
         }
 
+        if (recordingSessionFactory != null && recordingSessionFactory.getTenantConnectionProvider() != null) {
+            recordingSessionFactory.getTenantConnectionProvider().stop();
+        }
         closeDataSource(name);
+        for (String replicaName : getReplicaNames(config)) {
+            closeDataSource(replicaName);
+        }
 
         if (getConfigValueAsBoolean(config, "jmx", true)) {
             unregisterMBeans((JMXAwareSessionFactory) instance);
@@ -175,6 +361,16 @@ public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFacto
         RecordingSessionFactory recordingSessionFactory = (RecordingSessionFactory) sessionFactory.getDelegate();
         SessionFactoryMonitor sessionFactoryMonitor = new SessionFactoryMonitor(metadata, recordingSessionFactory, name);
         sessionFactory.addObjectName(mBeanManager.registerMBean(sessionFactoryMonitor, false).getCanonicalName());
+        SessionFactoryStatistics sessionFactoryStatistics = new SessionFactoryStatistics(metadata, sessionFactory.getStatistics(), name);
+        sessionFactory.addObjectName(mBeanManager.registerMBean(sessionFactoryStatistics, false).getCanonicalName());
+        if (recordingSessionFactory.getSlowQueryLog() != null) {
+            SlowQueryLogMonitor slowQueryLogMonitor = new SlowQueryLogMonitor(metadata, recordingSessionFactory.getSlowQueryLog(), name);
+            sessionFactory.addObjectName(mBeanManager.registerMBean(slowQueryLogMonitor, false).getCanonicalName());
+        }
+        if (recordingSessionFactory.getRegionFactory() != null) {
+            SecondLevelCacheMonitor secondLevelCacheMonitor = new SecondLevelCacheMonitor(metadata, recordingSessionFactory.getRegionFactory(), sessionFactory.getStatistics(), name);
+            sessionFactory.addObjectName(mBeanManager.registerMBean(secondLevelCacheMonitor, false).getCanonicalName());
+        }
     }
 
     private void unregisterMBeans(@Nonnull JMXAwareSessionFactory sessionFactory) {
@@ -187,13 +383,16 @@ public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFacto
     @Nonnull
     @SuppressWarnings("ConstantConditions")
     protected Configuration createConfiguration(@Nonnull Map<String, Object> config, @Nonnull String dataSourceName) {
-        DataSource dataSource = getDataSource(dataSourceName);
+        DataSource dataSource = createRoutingDataSource(config, dataSourceName, getDataSource(dataSourceName));
         griffon.core.Configuration dataSourcesConfiguration = ((DefaultDataSourceFactory) dataSourceFactory).getConfiguration();
-        Map<String, Object> configurationMap = null;
-        if (dataSourcesConfiguration.containsKey("dataSources"))
-            configurationMap = dataSourcesConfiguration.get("dataSources");
-        if (configurationMap == null)
-            configurationMap = new HashMap<>();
+        // copy, as session factories may be configured concurrently during a parallel startup
+        Map<String, Object> configurationMap = new HashMap<>();
+        if (dataSourcesConfiguration.containsKey("dataSources")) {
+            Map<String, Object> dataSources = dataSourcesConfiguration.get("dataSources");
+            if (dataSources != null) {
+                configurationMap.putAll(dataSources);
+            }
+        }
         configurationMap.put("default", dataSourcesConfiguration.get("dataSource"));
 
         HibernateConfigurationHelper configHelper = new HibernateConfigurationHelper(getApplication(), config, dataSourceName, dataSource, configurationMap);
@@ -205,26 +404,72 @@ public class DefaultHibernate5Factory extends AbstractObjectFactory<SessionFacto
         return configuration;
     }
 
+    @Nonnull
+    private DataSource createRoutingDataSource(@Nonnull Map<String, Object> config, @Nonnull String dataSourceName, @Nonnull DataSource primary) {
+        Collection<String> replicaNames = getReplicaNames(config);
+        if (replicaNames.isEmpty()) {
+            return primary;
+        }
+        if (getConfigValue(config, HibernateConfigurationHelper.PROVIDER_CLASS, null) != null) {
+            LOG.warn("Replicas of '{}' are ignored as connections are handed out by its {}", dataSourceName, HibernateConfigurationHelper.PROVIDER_CLASS);
+            return primary;
+        }
+
+        List<DataSource> replicas = new ArrayList<>();
+        for (String replicaName : replicaNames) {
+            replicas.add(getDataSource(replicaName));
+        }
+        RoutingDataSource.Balancing balancing = RoutingDataSource.Balancing.of(getConfigValueAsString(config, RoutingDataSource.KEY_REPLICA_BALANCING, RoutingDataSource.Balancing.ROUND_ROBIN.name()));
+        long readYourWrites = getConfigValueAsLong(config, RoutingDataSource.KEY_READ_YOUR_WRITES, RoutingDataSource.DEFAULT_READ_YOUR_WRITES);
+        return new RoutingDataSource(dataSourceName, primary, replicas, balancing, readYourWrites);
+    }
+
+    @Nonnull
+    private Collection<String> getReplicaNames(@Nonnull Map<String, Object> config) {
+        Collection<String> replicaNames = getConfigValue(config, RoutingDataSource.KEY_REPLICAS, Collections.<String>emptyList());
+        return replicaNames != null ? replicaNames : Collections.<String>emptyList();
+    }
+
     protected void createSchema(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull Configuration configuration) {
         configuration.setProperty("hibernate.hbm2ddl.auto", getConfigValue(config, "schema", "create-drop"));
     }
 
     protected void closeDataSource(@Nonnull String dataSourceName) {
-        DataSource dataSource = dataSourceStorage.get(dataSourceName);
-        if (dataSource != null) {
-            dataSourceFactory.destroy(dataSourceName, dataSource);
-            dataSourceStorage.remove(dataSourceName);
+        synchronized (dataSourceStorage) {
+            DataSource dataSource = dataSourceStorage.get(dataSourceName);
+            if (dataSource != null) {
+                dataSourceFactory.destroy(dataSourceName, dataSource);
+                dataSourceStorage.remove(dataSourceName);
+            }
         }
     }
 
     @Nonnull
     protected DataSource getDataSource(@Nonnull String dataSourceName) {
-        DataSource dataSource = dataSourceStorage.get(dataSourceName);
-        if (dataSource == null) {
-            dataSource = dataSourceFactory.create(dataSourceName);
-            dataSourceStorage.set(dataSourceName, dataSource);
+        // session factories sharing a DataSource may be built concurrently during a parallel startup
+        synchronized (dataSourceStorage) {
+            DataSource dataSource = dataSourceStorage.get(dataSourceName);
+            if (dataSource == null) {
+                dataSource = dataSourceFactory.create(dataSourceName);
+                dataSourceStorage.set(dataSourceName, dataSource);
+            }
+            return dataSource;
+        }
+    }
+
+    /**
+     * Resolves the maximum number of connections a SessionFactory can hold at once.
+     *
+     * @param sessionFactoryName the name of the SessionFactory
+     * @return the maximum size of its connection pool, or {@code -1} if it is unknown.
+     */
+    public int getConnectionPoolSize(@Nonnull String sessionFactoryName) {
+        Map<String, Object> config = getConfigurationFor(sessionFactoryName);
+        if (getConfigValue(config, HibernateConfigurationHelper.PROVIDER_CLASS, null) != null) {
+            // connections are handed out by the provider, not by the DataSource
+            return -1;
         }
-        return dataSource;
+        return JdbcUtils.getMaximumPoolSize(getDataSource(sessionFactoryName));
     }
 
     @Nonnull
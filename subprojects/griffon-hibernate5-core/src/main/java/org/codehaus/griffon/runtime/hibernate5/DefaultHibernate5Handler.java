@@ -19,19 +19,48 @@ package org.codehaus.griffon.runtime.hibernate5;
 
 import griffon.annotations.core.Nonnull;
 import griffon.annotations.core.Nullable;
+import griffon.core.env.Metadata;
 import griffon.plugins.hibernate5.Hibernate5Callback;
 import griffon.plugins.hibernate5.Hibernate5Factory;
 import griffon.plugins.hibernate5.Hibernate5Handler;
+import griffon.plugins.hibernate5.Hibernate5StatelessCallback;
 import griffon.plugins.hibernate5.Hibernate5Storage;
+import griffon.plugins.hibernate5.Propagation;
+import griffon.plugins.hibernate5.TransactionOptions;
 import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception;
+import griffon.plugins.monitor.MBeanManager;
+import org.codehaus.griffon.runtime.hibernate5.RecordingSessionFactory.Phase;
+import org.codehaus.griffon.runtime.hibernate5.internal.HibernateConfigurationHelper;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.SessionBuilder;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.query.Query;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
 import static griffon.util.GriffonNameUtils.requireNonBlank;
 import static java.util.Objects.requireNonNull;
 
@@ -42,14 +71,33 @@ public class DefaultHibernate5Handler implements Hibernate5Handler {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultHibernate5Handler.class);
     private static final String ERROR_SESSION_FACTORY_NAME_BLANK = "Argument 'sessionFactoryName' must not be blank";
     private static final String ERROR_CALLBACK_NULL = "Argument 'callback' must not be null";
+    private static final String ERROR_PROPAGATION_NULL = "Argument 'propagation' must not be null";
+    private static final String ERROR_OPTIONS_NULL = "Argument 'options' must not be null";
+    private static final String ERROR_SHARD_KEY_NULL = "Argument 'shardKey' must not be null";
+    private static final String ERROR_TENANT_ID_BLANK = "Argument 'tenantId' must not be blank";
+    private static final String ERROR_ENTITIES_NULL = "Argument 'entities' must not be null";
+    private static final String ERROR_QUERY_FACTORY_NULL = "Argument 'queryFactory' must not be null";
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_STREAM_FETCH_SIZE = 100;
+    private static final TransactionOptions READ_ONLY = TransactionOptions.builder().readOnly(true).build();
 
     private final Hibernate5Factory hibernate5Factory;
     private final Hibernate5Storage hibernate5Storage;
+    private final ConcurrentMap<String, FutureTask<SessionFactory>> initializers = new ConcurrentHashMap<>();
+    private final SessionFactoryExecutors sessionFactoryExecutors;
+    private final ThreadLocal<Map<String, BoundSession>> boundSessions = ThreadLocal.withInitial(HashMap::new);
+    private volatile ShardRouter shardRouter;
 
     @Inject
     public DefaultHibernate5Handler(@Nonnull Hibernate5Factory hibernate5Factory, @Nonnull Hibernate5Storage hibernate5Storage) {
         this.hibernate5Factory = requireNonNull(hibernate5Factory, "Argument 'hibernate5Factory' must not be null");
         this.hibernate5Storage = requireNonNull(hibernate5Storage, "Argument 'hibernate5Storage' must not be null");
+        this.sessionFactoryExecutors = new SessionFactoryExecutors(hibernate5Factory);
+    }
+
+    @Inject
+    public void setMBeanManager(@Nonnull MBeanManager mBeanManager, @Nonnull Metadata metadata) {
+        sessionFactoryExecutors.enableJmx(mBeanManager, metadata);
     }
 
     @Nullable
@@ -60,18 +108,477 @@ public class DefaultHibernate5Handler implements Hibernate5Handler {
 
     @Nullable
     @Override
-    @SuppressWarnings("ThrowFromFinallyBlock")
     public <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return doWithSession(sessionFactoryName, TransactionOptions.DEFAULTS, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5Session(@Nonnull Propagation propagation, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return withHbm5Session(DefaultHibernate5Factory.KEY_DEFAULT, propagation, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull Propagation propagation, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        requireNonNull(propagation, ERROR_PROPAGATION_NULL);
+        return doWithSession(sessionFactoryName, TransactionOptions.builder().propagation(propagation).build(), callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5Session(@Nonnull TransactionOptions options, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return withHbm5Session(DefaultHibernate5Factory.KEY_DEFAULT, options, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull TransactionOptions options, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return doWithSession(sessionFactoryName, options, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5TenantSession(@Nonnull String tenantId, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return withHbm5TenantSession(DefaultHibernate5Factory.KEY_DEFAULT, tenantId, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5TenantSession(@Nonnull String sessionFactoryName, @Nonnull String tenantId, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        requireNonBlank(tenantId, ERROR_TENANT_ID_BLANK);
+        return doWithSession(sessionFactoryName, TransactionOptions.builder().tenantId(tenantId).build(), callback);
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withHbm5SessionAsync(@Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return withHbm5SessionAsync(DefaultHibernate5Factory.KEY_DEFAULT, callback);
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withHbm5SessionAsync(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+        try {
+            return sessionFactoryExecutors.get(sessionFactoryName).submit(() -> withHbm5Session(sessionFactoryName, callback));
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<R> future = new CompletableFuture<>();
+            future.completeExceptionally(new RuntimeHibernate5Exception(sessionFactoryName, e));
+            return future;
+        }
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5ReadOnlySession(@Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return withHbm5ReadOnlySession(DefaultHibernate5Factory.KEY_DEFAULT, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5ReadOnlySession(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        return doWithSession(sessionFactoryName, READ_ONLY, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5Shard(@Nonnull Object shardKey, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        requireNonNull(shardKey, ERROR_SHARD_KEY_NULL);
+        return withHbm5Session(getShardRouter().shardFor(shardKey), callback);
+    }
+
+    @Nonnull
+    @Override
+    public <R> List<R> withHbm5AllShards(@Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+        List<String> shards = getShardRouter().getShards();
+        // waiting on the executors from one of their own threads deadlocks once all of their threads do the same
+        boolean inline = SessionFactoryExecutors.isRunningTask();
+        List<CompletableFuture<R>> futures = new ArrayList<>(shards.size());
+        for (String shard : shards) {
+            futures.add(inline ? withHbm5SessionInline(shard, callback) : withHbm5SessionAsync(shard, callback));
+        }
+
+        List<R> results = new ArrayList<>(shards.size());
+        RuntimeHibernate5Exception failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            // wait for every shard, so that no block is still running when the first failure is reported
+            try {
+                results.add(futures.get(i).join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (failure == null) {
+                    failure = cause instanceof RuntimeHibernate5Exception ? (RuntimeHibernate5Exception) cause :
+                        new RuntimeHibernate5Exception(shards.get(i), cause instanceof Exception ? (Exception) cause : e);
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    @Nonnull
+    private <R> CompletableFuture<R> withHbm5SessionInline(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            // a session of its own, as each shard commits independently
+            future.complete(withHbm5Session(sessionFactoryName, Propagation.REQUIRES_NEW, callback));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Nonnull
+    private ShardRouter getShardRouter() {
+        ShardRouter router = shardRouter;
+        if (router == null) {
+            synchronized (this) {
+                router = shardRouter;
+                if (router == null) {
+                    router = ShardRouter.create(hibernate5Factory.getShardingConfiguration(), hibernate5Factory.getSessionFactoryNames());
+                    shardRouter = router;
+                }
+            }
+        }
+        return router;
+    }
+
+    @Nullable
+    private <R> R doWithSession(@Nonnull String sessionFactoryName, @Nonnull TransactionOptions options, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
         requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
+        requireNonNull(options, ERROR_OPTIONS_NULL);
         requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        Propagation propagation = options.getPropagation();
+        BoundSession bound = boundSessions.get().get(sessionFactoryName);
+        if (bound != null && propagation != Propagation.REQUIRES_NEW) {
+            if (bound.options.isReadOnly() && !options.isReadOnly()) {
+                throw new RuntimeHibernate5Exception(sessionFactoryName, new IllegalStateException("Cannot join the read-only session bound to the current thread; use Propagation.REQUIRES_NEW instead"));
+            }
+            if (options.getTenantId() != null && !options.getTenantId().equals(bound.session.getTenantIdentifier())) {
+                throw new RuntimeHibernate5Exception(sessionFactoryName, new IllegalStateException("Cannot join the session of tenant '" + bound.session.getTenantIdentifier() + "' bound to the current thread; use Propagation.REQUIRES_NEW instead"));
+            }
+            String option = findConflictingOption(bound.options, options);
+            if (option != null) {
+                throw new RuntimeHibernate5Exception(sessionFactoryName, new IllegalStateException("Cannot apply " + option + " to the session bound to the current thread, which was opened with other options; use Propagation.REQUIRES_NEW instead"));
+            }
+            return joinSession(sessionFactoryName, bound, callback);
+        } else if (propagation == Propagation.MANDATORY) {
+            throw new RuntimeHibernate5Exception(sessionFactoryName, new IllegalStateException("No session is bound to the current thread"));
+        }
+
         SessionFactory sf = getSessionFactory(sessionFactoryName);
+        RecordingSessionFactory recorder = RecordingSessionFactory.find(sf);
+        RetryPolicy retryPolicy = recorder != null ? recorder.getRetryPolicy() : null;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return runInNewSession(sessionFactoryName, sf, recorder, callback, options, bound);
+            } catch (RuntimeHibernate5Exception e) {
+                Throwable failure = e.getCause() != null ? e.getCause() : e;
+                // the outcome of a failed commit is unknown, running the callback again could apply its writes twice
+                if (e instanceof CommitFailedException || retryPolicy == null || !retryPolicy.isRetryable(sessionFactoryName, failure)) {
+                    throw e;
+                }
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    recorder.recordRetriesExhausted();
+                    throw e;
+                }
+                LOG.debug("Retrying session '{}' after a transient failure, attempt {} of {}", sessionFactoryName, attempt + 1, retryPolicy.getMaxAttempts(), failure);
+                try {
+                    retryPolicy.backoff(attempt);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                recorder.recordRetry();
+            }
+        }
+    }
+
+    @Nullable
+    @SuppressWarnings("ThrowFromFinallyBlock")
+    private <R> R runInNewSession(@Nonnull String sessionFactoryName, @Nonnull SessionFactory sf, @Nullable RecordingSessionFactory recorder, @Nonnull Hibernate5Callback<R> callback, @Nonnull TransactionOptions options, @Nullable BoundSession bound) throws RuntimeHibernate5Exception {
+        boolean readOnly = options.isReadOnly();
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Executing statements on session '{}'", sessionFactoryName);
+            LOG.debug("Executing statements on {}session '{}'", readOnly ? "read-only " : "", sessionFactoryName);
         }
+        NPlusOneDetector nPlusOneDetector = recorder != null ? recorder.getNPlusOneDetector() : null;
+        long start = System.nanoTime();
+        boolean failed = true;
         Session session = null;
         Transaction transaction = null;
+        Integer previousIsolation = null;
+        boolean committing = false;
+        if (nPlusOneDetector != null) {
+            nPlusOneDetector.begin();
+        }
         try {
-            session = sf.openSession();
+            session = openSession(sf, options);
+            if (options.getIsolation() != null) {
+                previousIsolation = applyIsolation(session, options.getIsolation().getLevel());
+            }
+            transaction = session.beginTransaction();
+            R result;
+            boundSessions.get().put(sessionFactoryName, new BoundSession(session, transaction, options));
+            long phaseStart = System.nanoTime();
+            boolean phaseFailed = true;
+            try {
+                result = callback.handle(sessionFactoryName, session);
+                phaseFailed = false;
+            } finally {
+                restoreBoundSession(sessionFactoryName, bound);
+                recordLatency(recorder, Phase.CALLBACK, phaseStart, phaseFailed);
+            }
+            if (transaction.getRollbackOnly()) {
+                throw new IllegalStateException("Transaction was marked for rollback by a nested session block");
+            }
+            if (nPlusOneDetector != null) {
+                nPlusOneDetector.check();
+            }
+            phaseStart = System.nanoTime();
+            phaseFailed = true;
+            committing = true;
+            try {
+                transaction.commit();
+                phaseFailed = false;
+            } finally {
+                recordLatency(recorder, Phase.COMMIT, phaseStart, phaseFailed);
+            }
+            failed = false;
+            return result;
+        } catch (Exception e) {
+            long phaseStart = System.nanoTime();
+            boolean phaseFailed = false;
+            try {
+                if (transaction != null)
+                    transaction.rollback();
+            } catch (RuntimeException runtimeException) {
+                phaseFailed = true;
+                LOG.error("Failed to rollback", runtimeException);
+            }
+            if (transaction != null) {
+                recordLatency(recorder, Phase.ROLLBACK, phaseStart, phaseFailed);
+            }
+            if (committing) {
+                throw new CommitFailedException(sessionFactoryName, e);
+            }
+            throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+        } finally {
+            try {
+                if (session != null) {
+                    if (previousIsolation != null) {
+                        resetIsolation(session, previousIsolation);
+                    }
+                    if (readOnly) {
+                        resetReadOnlyConnection(session);
+                    }
+                    session.close();
+                }
+            } catch (Exception e) {
+                failed = true;
+                throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+            } finally {
+                recordLatency(recorder, Phase.SESSION, start, failed);
+                if (nPlusOneDetector != null) {
+                    nPlusOneDetector.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * A joined block runs with the settings of the outer one, so any option it sets must match them.
+     */
+    @Nullable
+    private static String findConflictingOption(@Nonnull TransactionOptions outer, @Nonnull TransactionOptions inner) {
+        if (inner.getIsolation() != null && inner.getIsolation() != outer.getIsolation()) {
+            return "isolation " + inner.getIsolation();
+        }
+        if (inner.getTimeout() > 0 && inner.getTimeout() != outer.getTimeout()) {
+            return "timeout " + inner.getTimeout();
+        }
+        if (inner.getQueryTimeout() > 0 && inner.getQueryTimeout() != outer.getQueryTimeout()) {
+            return "queryTimeout " + inner.getQueryTimeout();
+        }
+        if (inner.getFlushMode() != null && inner.getFlushMode() != outer.getFlushMode()) {
+            return "flushMode " + inner.getFlushMode();
+        }
+        if (inner.getCacheMode() != null && inner.getCacheMode() != outer.getCacheMode()) {
+            return "cacheMode " + inner.getCacheMode();
+        }
+        return null;
+    }
+
+    private static void recordLatency(@Nullable RecordingSessionFactory recorder, @Nonnull Phase phase, long startNanos, boolean failed) {
+        if (recorder != null) {
+            recorder.recordLatency(phase, System.nanoTime() - startNanos, failed);
+        }
+    }
+
+    @Nullable
+    private <R> R joinSession(@Nonnull String sessionFactoryName, @Nonnull BoundSession bound, @Nonnull Hibernate5Callback<R> callback) {
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Joining session '{}' bound to the current thread", sessionFactoryName);
+        }
+        try {
+            return callback.handle(sessionFactoryName, bound.session);
+        } catch (Exception e) {
+            // the outer block must not commit work that failed halfway, even if it swallows this exception
+            try {
+                if (bound.transaction.isActive()) {
+                    bound.transaction.markRollbackOnly();
+                }
+            } catch (RuntimeException runtimeException) {
+                LOG.error("Failed to mark transaction for rollback", runtimeException);
+            }
+            if (e instanceof RuntimeHibernate5Exception) {
+                throw (RuntimeHibernate5Exception) e;
+            }
+            throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+        }
+    }
+
+    private void restoreBoundSession(@Nonnull String sessionFactoryName, @Nullable BoundSession previous) {
+        Map<String, BoundSession> sessions = boundSessions.get();
+        if (previous != null) {
+            sessions.put(sessionFactoryName, previous);
+        } else {
+            sessions.remove(sessionFactoryName);
+            if (sessions.isEmpty()) {
+                boundSessions.remove();
+            }
+        }
+    }
+
+    /**
+     * Opens a session configured with the given options. Sessions that change the connection hold on to it until
+     * closed, so that the changes can be undone before it goes back to the pool.
+     */
+    @Nonnull
+    private Session openSession(@Nonnull SessionFactory sessionFactory, @Nonnull TransactionOptions options) {
+        Session session;
+        if (options.isReadOnly()) {
+            session = openReadOnlySession(sessionFactory, options.getTenantId());
+        } else if (options.getIsolation() != null || options.getTenantId() != null) {
+            SessionBuilder<?> builder = sessionFactory.withOptions();
+            if (options.getIsolation() != null) {
+                builder.connectionHandlingMode(PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_HOLD);
+            }
+            if (options.getTenantId() != null) {
+                builder.tenantIdentifier(options.getTenantId());
+            }
+            session = builder.openSession();
+        } else {
+            session = sessionFactory.openSession();
+        }
+
+        try {
+            if (options.getFlushMode() != null && !options.isReadOnly()) {
+                session.setHibernateFlushMode(options.getFlushMode());
+            }
+            if (options.getCacheMode() != null) {
+                session.setCacheMode(options.getCacheMode());
+            }
+            if (options.getQueryTimeout() > 0) {
+                session.setProperty(QueryHints.TIMEOUT_JPA, TimeUnit.SECONDS.toMillis(options.getQueryTimeout()));
+            }
+            if (options.getTimeout() > 0) {
+                session.getTransaction().setTimeout(options.getTimeout());
+            }
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * @return the isolation level the connection had before
+     */
+    private int applyIsolation(@Nonnull Session session, int isolation) {
+        return session.doReturningWork(connection -> {
+            int previous = connection.getTransactionIsolation();
+            if (previous != isolation) {
+                connection.setTransactionIsolation(isolation);
+            }
+            return previous;
+        });
+    }
+
+    private void resetIsolation(@Nonnull Session session, int isolation) {
+        try {
+            session.doWork(connection -> {
+                if (connection.getTransactionIsolation() != isolation) {
+                    connection.setTransactionIsolation(isolation);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to reset transaction isolation", e);
+        }
+    }
+
+    /**
+     * Opens a session that holds on to its connection until closed, so that the read-only flag set on the
+     * connection can be cleared before it goes back to the pool. Entities are loaded without snapshots and
+     * the session is never flushed. The connection comes from a replica if the SessionFactory has any.
+     */
+    @Nonnull
+    private Session openReadOnlySession(@Nonnull SessionFactory sessionFactory, @Nullable String tenantId) {
+        SessionBuilder<?> builder = sessionFactory.withOptions()
+            .connectionHandlingMode(PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_HOLD)
+            .flushMode(FlushMode.MANUAL);
+        if (tenantId != null) {
+            builder.tenantIdentifier(tenantId);
+        }
+        Session session = builder.openSession();
+        session.setDefaultReadOnly(true);
+        boolean routeToReplica = RoutingDataSource.routeToReplica(true);
+        try {
+            session.doWork(connection -> connection.setReadOnly(true));
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        } finally {
+            RoutingDataSource.routeToReplica(routeToReplica);
+        }
+        return session;
+    }
+
+    private void resetReadOnlyConnection(@Nonnull Session session) {
+        try {
+            session.doWork(connection -> connection.setReadOnly(false));
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to reset read-only connection", e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public <R> R withHbm5StatelessSession(@Nonnull Hibernate5StatelessCallback<R> callback) throws RuntimeHibernate5Exception {
+        return withHbm5StatelessSession(DefaultHibernate5Factory.KEY_DEFAULT, callback);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("ThrowFromFinallyBlock")
+    public <R> R withHbm5StatelessSession(@Nonnull String sessionFactoryName, @Nonnull Hibernate5StatelessCallback<R> callback) throws RuntimeHibernate5Exception {
+        requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+        SessionFactory sf = getSessionFactory(sessionFactoryName);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Executing statements on stateless session '{}'", sessionFactoryName);
+        }
+        StatelessSession session = null;
+        Transaction transaction = null;
+        try {
+            session = sf.openStatelessSession();
             transaction = session.beginTransaction();
             R result = callback.handle(sessionFactoryName, session);
             transaction.commit();
@@ -95,6 +602,138 @@ public class DefaultHibernate5Handler implements Hibernate5Handler {
         }
     }
 
+    @Override
+    public <E> long saveHbm5Batch(@Nonnull Iterable<E> entities) throws RuntimeHibernate5Exception {
+        return saveHbm5Batch(DefaultHibernate5Factory.KEY_DEFAULT, entities);
+    }
+
+    @Override
+    public <E> long saveHbm5Batch(@Nonnull Stream<E> entities) throws RuntimeHibernate5Exception {
+        return saveHbm5Batch(DefaultHibernate5Factory.KEY_DEFAULT, entities);
+    }
+
+    @Override
+    public <E> long saveHbm5Batch(@Nonnull String sessionFactoryName, @Nonnull Stream<E> entities) throws RuntimeHibernate5Exception {
+        requireNonNull(entities, ERROR_ENTITIES_NULL);
+        return saveHbm5Batch(sessionFactoryName, (Iterable<E>) entities::iterator);
+    }
+
+    @Override
+    @SuppressWarnings("ThrowFromFinallyBlock")
+    public <E> long saveHbm5Batch(@Nonnull String sessionFactoryName, @Nonnull Iterable<E> entities) throws RuntimeHibernate5Exception {
+        requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
+        requireNonNull(entities, ERROR_ENTITIES_NULL);
+        Map<String, Object> config = hibernate5Factory.getConfigurationFor(sessionFactoryName);
+        int batchSize = getConfigValueAsInt(config, HibernateConfigurationHelper.BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        int commitSize = getConfigValueAsInt(config, HibernateConfigurationHelper.BATCH_COMMIT_SIZE, 0);
+        SessionFactory sf = getSessionFactory(sessionFactoryName);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Saving batch on session '{}' (batch size {}, commit size {})", sessionFactoryName, batchSize, commitSize);
+        }
+
+        long start = System.nanoTime();
+        long count = 0;
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = sf.openSession();
+            session.setJdbcBatchSize(batchSize);
+            transaction = session.beginTransaction();
+            for (E entity : entities) {
+                session.save(entity);
+                count++;
+                boolean commit = commitSize > 0 && count % commitSize == 0;
+                if (commit || count % batchSize == 0) {
+                    // push pending inserts to the database and release them from the persistence context
+                    session.flush();
+                    session.clear();
+                }
+                if (commit) {
+                    transaction.commit();
+                    transaction = session.beginTransaction();
+                }
+            }
+            transaction.commit();
+        } catch (Exception e) {
+            try {
+                if (transaction != null)
+                    transaction.rollback();
+            } catch (RuntimeException runtimeException) {
+                LOG.error("Failed to rollback", runtimeException);
+            }
+            throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+        } finally {
+            try {
+                if (session != null) {
+                    session.close();
+                }
+            } catch (Exception e) {
+                throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+            }
+        }
+
+        RecordingSessionFactory recordingSessionFactory = RecordingSessionFactory.find(sf);
+        if (recordingSessionFactory != null) {
+            recordingSessionFactory.recordBatch(count, System.nanoTime() - start);
+        }
+        return count;
+    }
+
+    @Nonnull
+    @Override
+    public <E> Stream<E> streamHbm5Query(@Nonnull Hibernate5Callback<Query<E>> queryFactory) throws RuntimeHibernate5Exception {
+        return streamHbm5Query(DefaultHibernate5Factory.KEY_DEFAULT, queryFactory);
+    }
+
+    @Nonnull
+    @Override
+    public <E> Stream<E> streamHbm5Query(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<Query<E>> queryFactory) throws RuntimeHibernate5Exception {
+        requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
+        requireNonNull(queryFactory, ERROR_QUERY_FACTORY_NULL);
+        int fetchSize = getConfigValueAsInt(hibernate5Factory.getConfigurationFor(sessionFactoryName), HibernateConfigurationHelper.STREAM_FETCH_SIZE, DEFAULT_STREAM_FETCH_SIZE);
+        SessionFactory sf = getSessionFactory(sessionFactoryName);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Streaming query results on session '{}'", sessionFactoryName);
+        }
+
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = openReadOnlySession(sf, null);
+            transaction = session.beginTransaction();
+            Query<E> query = requireNonNull(queryFactory.handle(sessionFactoryName, session), "Argument 'queryFactory' must not return null");
+            if (query.getFetchSize() == null && fetchSize > 0) {
+                query.setFetchSize(fetchSize);
+            }
+            ScrollableResults results = query.setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY);
+            Session s = session;
+            return ScrollingQueryIterator.stream(sessionFactoryName, session, transaction, results, () -> closeReadOnlySession(sessionFactoryName, s));
+        } catch (Exception e) {
+            try {
+                if (transaction != null)
+                    transaction.rollback();
+            } catch (RuntimeException runtimeException) {
+                LOG.error("Failed to rollback", runtimeException);
+            }
+            if (session != null) {
+                closeReadOnlySession(sessionFactoryName, session);
+            }
+            throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+        }
+    }
+
+    private void closeReadOnlySession(@Nonnull String sessionFactoryName, @Nonnull Session session) {
+        try {
+            resetReadOnlyConnection(session);
+            session.close();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to close session '{}'", sessionFactoryName, e);
+        }
+    }
+
     @Override
     public void closeHbm5Session() {
         closeHbm5Session(DefaultHibernate5Factory.KEY_DEFAULT);
@@ -103,20 +742,82 @@ public class DefaultHibernate5Handler implements Hibernate5Handler {
     @Override
     public void closeHbm5Session(@Nonnull String sessionFactoryName) {
         requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
-        SessionFactory hibernate5 = hibernate5Storage.get(sessionFactoryName);
+        sessionFactoryExecutors.shutdown(sessionFactoryName);
+        // only the caller that takes the SessionFactory out of storage destroys it
+        SessionFactory hibernate5 = hibernate5Storage.remove(sessionFactoryName);
         if (hibernate5 != null) {
             hibernate5Factory.destroy(sessionFactoryName, hibernate5);
-            hibernate5Storage.remove(sessionFactoryName);
         }
     }
 
     @Nonnull
     private SessionFactory getSessionFactory(@Nonnull String sessionFactoryName) {
         SessionFactory sessionFactory = hibernate5Storage.get(sessionFactoryName);
-        if (sessionFactory == null) {
-            sessionFactory = hibernate5Factory.create(sessionFactoryName);
-            hibernate5Storage.set(sessionFactoryName, sessionFactory);
+        if (sessionFactory != null) {
+            return sessionFactory;
+        }
+
+        // single-flight: the first caller builds the SessionFactory, everyone else waits for its outcome
+        FutureTask<SessionFactory> initializer = new FutureTask<>(() -> {
+            SessionFactory sf = hibernate5Storage.get(sessionFactoryName);
+            if (sf == null) {
+                sf = hibernate5Factory.create(sessionFactoryName);
+                hibernate5Storage.set(sessionFactoryName, sf);
+            }
+            return sf;
+        });
+
+        FutureTask<SessionFactory> existing = initializers.putIfAbsent(sessionFactoryName, initializer);
+        if (existing == null) {
+            existing = initializer;
+            try {
+                initializer.run();
+            } finally {
+                initializers.remove(sessionFactoryName, initializer);
+            }
+        }
+
+        return awaitSessionFactory(sessionFactoryName, existing);
+    }
+
+    @Nonnull
+    private SessionFactory awaitSessionFactory(@Nonnull String sessionFactoryName, @Nonnull FutureTask<SessionFactory> initializer) {
+        try {
+            return initializer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeHibernate5Exception(sessionFactoryName, e);
+        }
+    }
+
+    /**
+     * Raised when committing the transaction of a session block fails, such blocks are never retried.
+     */
+    private static final class CommitFailedException extends RuntimeHibernate5Exception {
+        private static final long serialVersionUID = 1L;
+
+        private CommitFailedException(@Nonnull String sessionFactoryName, @Nonnull Exception cause) {
+            super(sessionFactoryName, cause);
+        }
+    }
+
+    private static final class BoundSession {
+        private final Session session;
+        private final Transaction transaction;
+        private final TransactionOptions options;
+
+        private BoundSession(@Nonnull Session session, @Nonnull Transaction transaction, @Nonnull TransactionOptions options) {
+            this.session = session;
+            this.transaction = transaction;
+            this.options = options;
         }
-        return sessionFactory;
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Base class for the plugin's {@code StatementInspector}s. Each one observes the SQL after the inspector it wraps,
+ * which allows several of them to be installed on the same SessionFactory together with one configured by the
+ * application.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public abstract class DelegatingStatementInspector implements StatementInspector {
+    private final StatementInspector delegate;
+
+    protected DelegatingStatementInspector(@Nullable StatementInspector delegate) {
+        this.delegate = delegate;
+    }
+
+    @Nullable
+    public StatementInspector getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        String inspected = delegate != null ? delegate.inspect(sql) : sql;
+        if (inspected != null) {
+            onStatement(inspected);
+        }
+        return inspected;
+    }
+
+    protected abstract void onStatement(@Nonnull String sql);
+
+    /**
+     * Walks a chain of inspectors looking for one of the given type.
+     */
+    @Nullable
+    public static <T extends StatementInspector> T find(@Nullable Object inspector, @Nonnull Class<T> type) {
+        Object current = inspector;
+        while (current != null) {
+            if (type.isInstance(current)) {
+                return type.cast(current);
+            }
+            current = current instanceof DelegatingStatementInspector ? ((DelegatingStatementInspector) current).getDelegate() : null;
+        }
+        return null;
+    }
+}
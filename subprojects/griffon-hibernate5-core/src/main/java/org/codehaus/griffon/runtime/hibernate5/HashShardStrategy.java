@@ -0,0 +1,64 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.Hibernate5ShardStrategy;
+
+import java.util.List;
+
+/**
+ * Spreads shard keys evenly over the shards with jump consistent hashing (Lamping and Veach). Adding a shard at
+ * the end of the list only moves the keys that now belong to it. Keys must hash the same way in every run, as
+ * strings, numbers, enums and UUIDs do.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class HashShardStrategy implements Hibernate5ShardStrategy {
+    @Nonnull
+    @Override
+    public String shardFor(@Nonnull Object shardKey, @Nonnull List<String> shards) {
+        return shards.get(jump(hash(shardKey), shards.size()));
+    }
+
+    private static long hash(@Nonnull Object shardKey) {
+        if (shardKey instanceof Long || shardKey instanceof Integer || shardKey instanceof Short || shardKey instanceof Byte) {
+            return ((Number) shardKey).longValue();
+        } else if (shardKey instanceof Enum) {
+            return ((Enum<?>) shardKey).name().hashCode();
+        }
+        return shardKey.hashCode();
+    }
+
+    private static int jump(long key, int buckets) {
+        // spread sequential keys before jumping, as the algorithm expects well mixed input
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+}
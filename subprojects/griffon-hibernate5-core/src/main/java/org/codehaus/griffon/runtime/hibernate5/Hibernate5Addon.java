@@ -19,6 +19,7 @@ package org.codehaus.griffon.runtime.hibernate5;
 
 import griffon.annotations.core.Nonnull;
 import griffon.annotations.inject.DependsOn;
+import griffon.core.Configuration;
 import griffon.core.GriffonApplication;
 import griffon.core.env.Metadata;
 import griffon.core.events.StartupStartEvent;
@@ -28,12 +29,21 @@ import griffon.plugins.hibernate5.Hibernate5Handler;
 import griffon.plugins.hibernate5.Hibernate5Storage;
 import griffon.plugins.monitor.MBeanManager;
 import org.codehaus.griffon.runtime.core.addon.AbstractGriffonAddon;
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegionFactory;
+import org.codehaus.griffon.runtime.hibernate5.cache.RegionSnapshot;
 import org.codehaus.griffon.runtime.hibernate5.monitor.Hibernate5StorageMonitor;
+import org.codehaus.griffon.runtime.hibernate5.monitor.SessionFactoryWarmupMonitor;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.application.event.EventHandler;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
@@ -45,6 +55,16 @@ import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
 @DependsOn("datasource")
 @Named("hibernate5")
 public class Hibernate5Addon extends AbstractGriffonAddon {
+    private static final Logger LOG = LoggerFactory.getLogger(Hibernate5Addon.class);
+    public static final String KEY_PARALLEL_STARTUP = "parallel_startup";
+    public static final String KEY_STARTUP_THREADS = "startup_threads";
+    public static final String KEY_STARTUP_TIMEOUT = "startup_timeout";
+    private static final long DEFAULT_STARTUP_TIMEOUT = 300_000L;
+    private static final long CACHE_RESTORE_TIMEOUT = 30_000L;
+
+    private SessionFactoryWarmup sessionFactoryWarmup;
+    private String sessionFactoryWarmupObjectName;
+
     @Inject
     private Hibernate5Handler hibernate5Handler;
 
@@ -60,30 +80,106 @@ public class Hibernate5Addon extends AbstractGriffonAddon {
     @Inject
     private Metadata metadata;
 
+    @Inject
+    @Named("hibernate5")
+    private Configuration configuration;
+
     @Override
     public void init(@Nonnull GriffonApplication application) {
         mbeanManager.registerMBean(new Hibernate5StorageMonitor(metadata, hibernate5Storage));
+
+        List<String> sessionFactoryNames = new ArrayList<>();
+        for (String sessionFactoryName : hibernate5Factory.getSessionFactoryNames()) {
+            Map<String, Object> config = hibernate5Factory.getConfigurationFor(sessionFactoryName);
+            if (getConfigValueAsBoolean(config, "connect_in_background", false)) {
+                sessionFactoryNames.add(sessionFactoryName);
+            }
+        }
+
+        if (!sessionFactoryNames.isEmpty()) {
+            sessionFactoryWarmup = new SessionFactoryWarmup(hibernate5Handler);
+            sessionFactoryWarmupObjectName = mbeanManager.registerMBean(new SessionFactoryWarmupMonitor(metadata, sessionFactoryWarmup), false).getCanonicalName();
+            sessionFactoryWarmup.start(sessionFactoryNames, getStartupThreads(sessionFactoryNames.size()));
+        }
     }
 
     @EventHandler
     public void handleStartupStartEvent(@Nonnull StartupStartEvent event) {
+        List<String> sessionFactoryNames = new ArrayList<>();
         for (String sessionFactoryName : hibernate5Factory.getSessionFactoryNames()) {
             Map<String, Object> config = hibernate5Factory.getConfigurationFor(sessionFactoryName);
             if (getConfigValueAsBoolean(config, "connect_on_startup", false)) {
-                hibernate5Handler.withHbm5Session(sessionFactoryName, new Hibernate5Callback<Void>() {
-                    @Override
-                    public Void handle(@Nonnull String sessionFactoryName, @Nonnull Session session) {
-                        return null;
-                    }
-                });
+                sessionFactoryNames.add(sessionFactoryName);
+            }
+        }
+
+        if (sessionFactoryNames.size() > 1 && configuration.getAsBoolean(KEY_PARALLEL_STARTUP, false)) {
+            connectInParallel(sessionFactoryNames);
+        } else {
+            for (String sessionFactoryName : sessionFactoryNames) {
+                connect(sessionFactoryName);
             }
         }
     }
 
     @Override
     public void onShutdown(@Nonnull GriffonApplication application) {
+        if (sessionFactoryWarmup != null) {
+            sessionFactoryWarmup.stop();
+        }
+        if (sessionFactoryWarmupObjectName != null) {
+            mbeanManager.unregisterMBean(sessionFactoryWarmupObjectName);
+            sessionFactoryWarmupObjectName = null;
+        }
         for (String sessionFactoryName : hibernate5Factory.getSessionFactoryNames()) {
+            storeCacheSnapshot(sessionFactoryName);
             hibernate5Handler.closeHbm5Session(sessionFactoryName);
         }
     }
+
+    private void storeCacheSnapshot(@Nonnull String sessionFactoryName) {
+        SessionFactory sessionFactory = hibernate5Storage.get(sessionFactoryName);
+        RecordingSessionFactory recordingSessionFactory = sessionFactory != null ? RecordingSessionFactory.find(sessionFactory) : null;
+        BoundedRegionFactory regionFactory = recordingSessionFactory != null ? recordingSessionFactory.getRegionFactory() : null;
+        RegionSnapshot snapshot = regionFactory != null ? regionFactory.getSnapshot() : null;
+        if (snapshot == null) {
+            return;
+        }
+
+        try {
+            // a snapshot taken while the previous one is still being restored would miss the remaining entries
+            if (!regionFactory.awaitRestore(CACHE_RESTORE_TIMEOUT)) {
+                regionFactory.cancelRestore(CACHE_RESTORE_TIMEOUT);
+                snapshot.delete();
+                LOG.warn("Discarded cache snapshot {} of '{}' as restoring it did not finish within {} ms", snapshot.getFile(), sessionFactoryName, CACHE_RESTORE_TIMEOUT);
+                return;
+            }
+            int count = snapshot.store(regionFactory);
+            LOG.debug("Stored {} cache entries of '{}' in {}", count, sessionFactoryName, snapshot.getFile());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not store cache snapshot {} of '{}'", snapshot.getFile(), sessionFactoryName, e);
+        }
+    }
+
+    private void connect(@Nonnull String sessionFactoryName) {
+        hibernate5Handler.withHbm5Session(sessionFactoryName, new Hibernate5Callback<Void>() {
+            @Override
+            public Void handle(@Nonnull String sessionFactoryName, @Nonnull Session session) {
+                return null;
+            }
+        });
+    }
+
+    private void connectInParallel(@Nonnull List<String> sessionFactoryNames) {
+        new SessionFactoryStartup(hibernate5Handler).connect(sessionFactoryNames,
+            getStartupThreads(sessionFactoryNames.size()),
+            configuration.getAsLong(KEY_STARTUP_TIMEOUT, DEFAULT_STARTUP_TIMEOUT));
+    }
+
+    private int getStartupThreads(int sessionFactoryCount) {
+        return Math.max(1, Math.min(sessionFactoryCount,
+            configuration.getAsInt(KEY_STARTUP_THREADS, Runtime.getRuntime().availableProcessors())));
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Values are counted in log-linear buckets: every power of two is
+ * split into {@code 8} sub-buckets, which keeps the relative error of a reported percentile under 12.5% while
+ * recording costs a couple of atomic increments. Counters are swapped out as a whole on {@link #reset()}, so a
+ * snapshot never mixes values from before and after a reset.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicReference<Counters> counters = new AtomicReference<>(new Counters());
+
+    public void record(long elapsedNanos, boolean failed) {
+        Counters c = counters.get();
+        long value = Math.max(0L, elapsedNanos);
+        c.buckets.incrementAndGet(bucketIndex(value));
+        if (failed) {
+            c.errors.increment();
+        }
+        long max = c.max.get();
+        while (value > max && !c.max.compareAndSet(max, value)) {
+            max = c.max.get();
+        }
+    }
+
+    public void reset() {
+        counters.set(new Counters());
+    }
+
+    @Nonnull
+    public Snapshot snapshot() {
+        Counters c = counters.get();
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = c.buckets.get(i);
+            total += counts[i];
+        }
+        long max = c.max.get();
+        long elapsed = System.nanoTime() - c.startNanos;
+        return new Snapshot(total,
+            c.errors.sum(),
+            elapsed > 0 ? total * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0d,
+            percentile(counts, total, max, 0.50d),
+            percentile(counts, total, max, 0.95d),
+            percentile(counts, total, max, 0.99d),
+            max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    private static long percentile(@Nonnull long[] counts, long total, long max, double quantile) {
+        if (total == 0) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static final class Counters {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder errors = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+    }
+
+    /**
+     * Point-in-time view of a {@code LatencyHistogram}. Durations are reported in milliseconds, throughput is the
+     * number of recorded values per second since the histogram was created or last reset.
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final long errorCount;
+        private final double throughput;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+        private final long max;
+
+        private Snapshot(long count, long errorCount, double throughput, long p50, long p95, long p99, long max) {
+            this.count = count;
+            this.errorCount = errorCount;
+            this.throughput = throughput;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        public double getP50Millis() {
+            return toMillis(p50);
+        }
+
+        public double getP95Millis() {
+            return toMillis(p95);
+        }
+
+        public double getP99Millis() {
+            return toMillis(p99);
+        }
+
+        public double getMaxMillis() {
+            return toMillis(max);
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
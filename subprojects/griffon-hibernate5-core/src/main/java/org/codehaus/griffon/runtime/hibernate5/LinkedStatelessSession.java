@@ -0,0 +1,293 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
+import org.hibernate.procedure.ProcedureCall;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
+
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import java.io.Serializable;
+import java.sql.Connection;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class LinkedStatelessSession implements StatelessSession {
+    private final StatelessSession delegate;
+    private final RecordingSessionFactory sessionFactory;
+
+    public LinkedStatelessSession(@Nonnull StatelessSession delegate, @Nonnull RecordingSessionFactory sessionFactory) {
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+        this.sessionFactory = requireNonNull(sessionFactory, "Argument 'sessionFactory' must not be null");
+    }
+
+    @Nonnull
+    public StatelessSession getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        sessionFactory.decreaseSessionCount();
+    }
+
+    @Override
+    public Serializable insert(Object entity) {
+        return delegate.insert(entity);
+    }
+
+    @Override
+    public Serializable insert(String entityName, Object entity) {
+        return delegate.insert(entityName, entity);
+    }
+
+    @Override
+    public void update(Object entity) {
+        delegate.update(entity);
+    }
+
+    @Override
+    public void update(String entityName, Object entity) {
+        delegate.update(entityName, entity);
+    }
+
+    @Override
+    public void delete(Object entity) {
+        delegate.delete(entity);
+    }
+
+    @Override
+    public void delete(String entityName, Object entity) {
+        delegate.delete(entityName, entity);
+    }
+
+    @Override
+    public Object get(String entityName, Serializable id) {
+        return delegate.get(entityName, id);
+    }
+
+    @Override
+    public Object get(Class entityClass, Serializable id) {
+        return delegate.get(entityClass, id);
+    }
+
+    @Override
+    public Object get(String entityName, Serializable id, LockMode lockMode) {
+        return delegate.get(entityName, id, lockMode);
+    }
+
+    @Override
+    public Object get(Class entityClass, Serializable id, LockMode lockMode) {
+        return delegate.get(entityClass, id, lockMode);
+    }
+
+    @Override
+    public void refresh(Object entity) {
+        delegate.refresh(entity);
+    }
+
+    @Override
+    public void refresh(String entityName, Object entity) {
+        delegate.refresh(entityName, entity);
+    }
+
+    @Override
+    public void refresh(Object entity, LockMode lockMode) {
+        delegate.refresh(entity, lockMode);
+    }
+
+    @Override
+    public void refresh(String entityName, Object entity, LockMode lockMode) {
+        delegate.refresh(entityName, entity, lockMode);
+    }
+
+    @Deprecated
+    @Override
+    public Connection connection() {
+        return delegate.connection();
+    }
+
+    @Override
+    public NativeQuery createSQLQuery(String queryString) {
+        return delegate.createSQLQuery(queryString);
+    }
+
+    @Override
+    public String getTenantIdentifier() {
+        return delegate.getTenantIdentifier();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public Transaction beginTransaction() {
+        return delegate.beginTransaction();
+    }
+
+    @Override
+    public Transaction getTransaction() {
+        return delegate.getTransaction();
+    }
+
+    @Override
+    public Query createQuery(String queryString) {
+        return delegate.createQuery(queryString);
+    }
+
+    @Override
+    public <R> Query<R> createQuery(String queryString, Class<R> resultClass) {
+        return delegate.createQuery(queryString, resultClass);
+    }
+
+    @Override
+    public <T> Query<T> createQuery(CriteriaQuery<T> criteriaQuery) {
+        return delegate.createQuery(criteriaQuery);
+    }
+
+    @Override
+    public Query createQuery(CriteriaUpdate updateQuery) {
+        return delegate.createQuery(updateQuery);
+    }
+
+    @Override
+    public Query createQuery(CriteriaDelete deleteQuery) {
+        return delegate.createQuery(deleteQuery);
+    }
+
+    @Override
+    public Query getNamedQuery(String queryName) {
+        return delegate.getNamedQuery(queryName);
+    }
+
+    @Override
+    public Query createNamedQuery(String name) {
+        return delegate.createNamedQuery(name);
+    }
+
+    @Override
+    public <R> Query<R> createNamedQuery(String name, Class<R> resultClass) {
+        return delegate.createNamedQuery(name, resultClass);
+    }
+
+    @Override
+    public NativeQuery createNativeQuery(String sqlString) {
+        return delegate.createNativeQuery(sqlString);
+    }
+
+    @Override
+    public <R> NativeQuery<R> createNativeQuery(String sqlString, Class<R> resultClass) {
+        return delegate.createNativeQuery(sqlString, resultClass);
+    }
+
+    @Override
+    public NativeQuery createNativeQuery(String sqlString, String resultSetMapping) {
+        return delegate.createNativeQuery(sqlString, resultSetMapping);
+    }
+
+    @Override
+    public NativeQuery getNamedNativeQuery(String name) {
+        return delegate.getNamedNativeQuery(name);
+    }
+
+    @Override
+    public ProcedureCall getNamedProcedureCall(String name) {
+        return delegate.getNamedProcedureCall(name);
+    }
+
+    @Override
+    public ProcedureCall createStoredProcedureCall(String procedureName) {
+        return delegate.createStoredProcedureCall(procedureName);
+    }
+
+    @Override
+    public ProcedureCall createStoredProcedureCall(String procedureName, Class... resultClasses) {
+        return delegate.createStoredProcedureCall(procedureName, resultClasses);
+    }
+
+    @Override
+    public ProcedureCall createStoredProcedureCall(String procedureName, String... resultSetMappings) {
+        return delegate.createStoredProcedureCall(procedureName, resultSetMappings);
+    }
+
+    @Deprecated
+    @Override
+    public Criteria createCriteria(Class persistentClass) {
+        return delegate.createCriteria(persistentClass);
+    }
+
+    @Deprecated
+    @Override
+    public Criteria createCriteria(Class persistentClass, String alias) {
+        return delegate.createCriteria(persistentClass, alias);
+    }
+
+    @Deprecated
+    @Override
+    public Criteria createCriteria(String entityName) {
+        return delegate.createCriteria(entityName);
+    }
+
+    @Deprecated
+    @Override
+    public Criteria createCriteria(String entityName, String alias) {
+        return delegate.createCriteria(entityName, alias);
+    }
+
+    @Override
+    public Integer getJdbcBatchSize() {
+        return delegate.getJdbcBatchSize();
+    }
+
+    @Override
+    public void setJdbcBatchSize(Integer jdbcBatchSize) {
+        delegate.setJdbcBatchSize(jdbcBatchSize);
+    }
+
+    @Override
+    public void doWork(Work work) throws HibernateException {
+        delegate.doWork(work);
+    }
+
+    @Override
+    public <T> T doReturningWork(ReturningWork<T> work) throws HibernateException {
+        return delegate.doReturningWork(work);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import griffon.core.event.EventRouter;
+import griffon.plugins.hibernate5.events.Hibernate5NPlusOneQueryEvent;
+import griffon.plugins.hibernate5.exceptions.Hibernate5NPlusOneQueryException;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Counts the queries issued within each session block, grouped by statement shape. A shape executed more often than
+ * the threshold is reported once per block, either as a log warning, as a {@code Hibernate5NPlusOneQueryEvent}, or by
+ * failing the block with a {@code Hibernate5NPlusOneQueryException}. Only {@code SELECT} statements are counted;
+ * repeated inserts and updates are expected when saving collections. The reported call site is the code that issued
+ * the query crossing the threshold, captured as Hibernate prepares it.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class NPlusOneDetector extends DelegatingStatementInspector {
+    public static final String KEY_N_PLUS_ONE_THRESHOLD = "n_plus_one_threshold";
+    public static final String KEY_N_PLUS_ONE_ACTION = "n_plus_one_action";
+
+    private static final Logger LOG = LoggerFactory.getLogger(NPlusOneDetector.class);
+    private static final String RUNTIME_PACKAGE = NPlusOneDetector.class.getPackage().getName() + ".";
+    private static final String[] INFRASTRUCTURE_PACKAGES = {
+        RUNTIME_PACKAGE, "java.", "javax.", "jdk.", "sun.", "groovy.", "org.codehaus.groovy.", "org.hibernate."
+    };
+
+    public enum Action {
+        WARN, FAIL, EVENT;
+
+        @Nonnull
+        public static Action of(@Nullable String value) {
+            return value == null ? WARN : valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private final String sessionFactoryName;
+    private final int threshold;
+    private final Action action;
+    private final EventRouter eventRouter;
+    private final ThreadLocal<Deque<Scope>> scopes = ThreadLocal.withInitial(ArrayDeque::new);
+
+    public NPlusOneDetector(@Nonnull String sessionFactoryName, int threshold, @Nonnull Action action, @Nonnull EventRouter eventRouter, @Nullable StatementInspector delegate) {
+        super(delegate);
+        this.sessionFactoryName = requireNonNull(sessionFactoryName, "Argument 'sessionFactoryName' must not be null");
+        this.threshold = threshold;
+        this.action = requireNonNull(action, "Argument 'action' must not be null");
+        this.eventRouter = requireNonNull(eventRouter, "Argument 'eventRouter' must not be null");
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Nonnull
+    public Action getAction() {
+        return action;
+    }
+
+    @Override
+    protected void onStatement(@Nonnull String sql) {
+        Scope scope = scopes.get().peek();
+        if (scope != null && isQuery(sql)) {
+            scope.count(StatementShapes.shapeOf(sql));
+            if (scope.callSite == null && scope.worstCount > threshold) {
+                // once the callback returns, the stack no longer shows where the repeated query came from
+                scope.callSite = callSite();
+            }
+        }
+    }
+
+    /**
+     * Starts counting the queries of a session block on the current thread. Blocks may nest, the innermost one
+     * receives the counts.
+     */
+    public void begin() {
+        scopes.get().push(new Scope());
+    }
+
+    /**
+     * Reports the current block if one of its queries exceeded the threshold.
+     *
+     * @throws Hibernate5NPlusOneQueryException if the action is {@code FAIL}
+     */
+    public void check() {
+        Scope scope = scopes.get().peek();
+        if (scope == null || scope.reported || scope.worstCount <= threshold) {
+            return;
+        }
+        scope.reported = true;
+
+        String callSite = scope.callSite != null ? scope.callSite : "<unknown>";
+        switch (action) {
+            case FAIL:
+                throw new Hibernate5NPlusOneQueryException(sessionFactoryName, callSite, scope.worstShape, scope.worstCount);
+            case EVENT:
+                eventRouter.publishEvent(Hibernate5NPlusOneQueryEvent.of(sessionFactoryName, callSite, scope.worstShape, scope.worstCount, scope.statementCount));
+                break;
+            default:
+                LOG.warn("Possible N+1 query on '{}' at {}: executed {} times out of {} queries: {}",
+                    sessionFactoryName, callSite, scope.worstCount, scope.statementCount, scope.worstShape);
+        }
+    }
+
+    public void end() {
+        Deque<Scope> stack = scopes.get();
+        stack.poll();
+        if (stack.isEmpty()) {
+            scopes.remove();
+        }
+    }
+
+    private static boolean isQuery(@Nonnull String sql) {
+        int i = 0;
+        while (i < sql.length() && (Character.isWhitespace(sql.charAt(i)) || sql.charAt(i) == '(')) {
+            i++;
+        }
+        return sql.regionMatches(true, i, "select", 0, 6) || sql.regionMatches(true, i, "with", 0, 4);
+    }
+
+    @Nonnull
+    private static String callSite() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (!isInfrastructure(element.getClassName()) && !element.getMethodName().startsWith("withHbm5")) {
+                return element.toString();
+            }
+        }
+        return "<unknown>";
+    }
+
+    private static boolean isInfrastructure(@Nonnull String className) {
+        for (String prefix : INFRASTRUCTURE_PACKAGES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Scope {
+        private final Map<String, int[]> counts = new HashMap<>();
+        private int statementCount;
+        private String worstShape;
+        private int worstCount;
+        private String callSite;
+        private boolean reported;
+
+        private void count(@Nonnull String shape) {
+            statementCount++;
+            int count = ++counts.computeIfAbsent(shape, k -> new int[1])[0];
+            if (count > worstCount) {
+                worstCount = count;
+                worstShape = shape;
+            }
+        }
+    }
+}
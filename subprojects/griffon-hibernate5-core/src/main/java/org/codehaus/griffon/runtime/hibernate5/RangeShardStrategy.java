@@ -0,0 +1,91 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.Hibernate5ShardStrategy;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Assigns contiguous key ranges to the shards. Bound {@code i} is the smallest key held by shard {@code i}; bounds
+ * must be ascending and there must be one per shard. Keys below the first bound are rejected. Numbers are compared by
+ * value regardless of their type; other keys must be {@code Comparable} to the bounds.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class RangeShardStrategy implements Hibernate5ShardStrategy {
+    private final List<Comparable<Object>> bounds = new ArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    public RangeShardStrategy(@Nonnull Collection<?> bounds) {
+        requireNonNull(bounds, "Argument 'bounds' must not be null");
+        for (Object bound : bounds) {
+            if (!(bound instanceof Comparable)) {
+                throw new IllegalArgumentException("Shard range bound " + bound + " is not comparable");
+            }
+            Comparable<Object> normalized = (Comparable<Object>) normalize(bound);
+            if (!this.bounds.isEmpty() && this.bounds.get(this.bounds.size() - 1).compareTo(normalized) >= 0) {
+                throw new IllegalArgumentException("Shard range bounds must be ascending: " + bounds);
+            }
+            this.bounds.add(normalized);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String shardFor(@Nonnull Object shardKey, @Nonnull List<String> shards) {
+        if (bounds.size() != shards.size()) {
+            throw new IllegalStateException("Expected " + shards.size() + " shard range bounds but got " + bounds.size());
+        }
+
+        Object key = normalize(shardKey);
+        int low = 0;
+        int high = bounds.size() - 1;
+        int shard = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (bounds.get(middle).compareTo(key) <= 0) {
+                shard = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (shard < 0) {
+            throw new IllegalArgumentException("Shard key " + shardKey + " is below the first shard range bound " + bounds.get(0));
+        }
+        return shards.get(shard);
+    }
+
+    @Nonnull
+    private static Object normalize(@Nonnull Object value) {
+        if (value instanceof BigDecimal) {
+            return value;
+        } else if (value instanceof Number) {
+            return new BigDecimal(value.toString());
+        }
+        return value;
+    }
+}
@@ -18,21 +18,53 @@
 package org.codehaus.griffon.runtime.hibernate5;
 
 import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegionFactory;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.TenantConnectionProvider;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.SessionBuilder;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.StatelessSessionBuilder;
+import org.hibernate.engine.spi.AbstractDelegatingSessionBuilder;
 import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
 
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Andres Almiray
  */
 public class RecordingSessionFactory extends SessionFactoryDecorator {
     private AtomicInteger sessionCount = new AtomicInteger(0);
+    private final AtomicLong batchRowCount = new AtomicLong(0);
+    private final AtomicLong batchTime = new AtomicLong(0);
+    private volatile double lastBatchRowsPerSecond;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Phase.values().length];
+    private volatile SlowQueryLog slowQueryLog;
+    private volatile NPlusOneDetector nPlusOneDetector;
+    private volatile BoundedRegionFactory regionFactory;
+    private volatile RetryPolicy retryPolicy;
+    private volatile TenantConnectionProvider tenantConnectionProvider;
+    private final AtomicLong retryCount = new AtomicLong(0);
+    private final AtomicLong retriesExhaustedCount = new AtomicLong(0);
+
+    /**
+     * Timed phases of a session block: the whole block, the callback, the commit and the rollback.
+     */
+    public enum Phase {
+        SESSION, CALLBACK, COMMIT, ROLLBACK
+    }
 
     public RecordingSessionFactory(@Nonnull SessionFactory delegate) {
         super(delegate);
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
     }
 
     public int increaseSessionCount() {
@@ -47,9 +79,123 @@ public class RecordingSessionFactory extends SessionFactoryDecorator {
         return sessionCount.get();
     }
 
+    public void recordBatch(long rows, long elapsedNanos) {
+        batchRowCount.addAndGet(rows);
+        batchTime.addAndGet(elapsedNanos);
+        lastBatchRowsPerSecond = rowsPerSecond(rows, elapsedNanos);
+    }
+
+    public long getBatchRowCount() {
+        return batchRowCount.get();
+    }
+
+    public double getBatchRowsPerSecond() {
+        return rowsPerSecond(batchRowCount.get(), batchTime.get());
+    }
+
+    public double getLastBatchRowsPerSecond() {
+        return lastBatchRowsPerSecond;
+    }
+
+    public void recordLatency(@Nonnull Phase phase, long elapsedNanos, boolean failed) {
+        latencies[phase.ordinal()].record(elapsedNanos, failed);
+    }
+
+    @Nonnull
+    public LatencyHistogram.Snapshot getLatency(@Nonnull Phase phase) {
+        return latencies[phase.ordinal()].snapshot();
+    }
+
+    public void resetLatencies() {
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+    }
+
+    @Nullable
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Times the statements of every session, but not stateless sessions, opened from now on with the given log. The log must also be
+     * installed as the {@code StatementInspector} of the wrapped SessionFactory.
+     */
+    public void setSlowQueryLog(@Nullable SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Nullable
+    public NPlusOneDetector getNPlusOneDetector() {
+        return nPlusOneDetector;
+    }
+
+    public void setNPlusOneDetector(@Nullable NPlusOneDetector nPlusOneDetector) {
+        this.nPlusOneDetector = nPlusOneDetector;
+    }
+
+    @Nullable
+    public BoundedRegionFactory getRegionFactory() {
+        return regionFactory;
+    }
+
+    public void setRegionFactory(@Nullable BoundedRegionFactory regionFactory) {
+        this.regionFactory = regionFactory;
+    }
+
+    @Nullable
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(@Nullable RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Nullable
+    public TenantConnectionProvider getTenantConnectionProvider() {
+        return tenantConnectionProvider;
+    }
+
+    public void setTenantConnectionProvider(@Nullable TenantConnectionProvider tenantConnectionProvider) {
+        this.tenantConnectionProvider = tenantConnectionProvider;
+    }
+
+    public void recordRetry() {
+        retryCount.incrementAndGet();
+    }
+
+    public void recordRetriesExhausted() {
+        retriesExhaustedCount.incrementAndGet();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getRetriesExhaustedCount() {
+        return retriesExhaustedCount.get();
+    }
+
+    @Nullable
+    static RecordingSessionFactory find(@Nonnull SessionFactory sessionFactory) {
+        SessionFactory sf = sessionFactory;
+        while (sf instanceof SessionFactoryDecorator) {
+            if (sf instanceof RecordingSessionFactory) {
+                return (RecordingSessionFactory) sf;
+            }
+            sf = ((SessionFactoryDecorator) sf).getDelegate();
+        }
+        return null;
+    }
+
+    private static double rowsPerSecond(long rows, long elapsedNanos) {
+        return elapsedNanos > 0 ? rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0d;
+    }
+
     @Override
     public Session openSession() throws HibernateException {
-        Session session = super.openSession();
+        Session session = listen(super.openSession());
         increaseSessionCount();
         return wrap(session);
     }
@@ -61,8 +207,94 @@ public class RecordingSessionFactory extends SessionFactoryDecorator {
         return wrap(session);
     }
 
+    @Override
+    public SessionBuilder withOptions() {
+        return new RecordingSessionBuilder(super.withOptions());
+    }
+
+    @Override
+    public StatelessSessionBuilder withStatelessOptions() {
+        return new RecordingStatelessSessionBuilder(super.withStatelessOptions());
+    }
+
+    @Override
+    public StatelessSession openStatelessSession() {
+        StatelessSession session = super.openStatelessSession();
+        increaseSessionCount();
+        return wrap(session);
+    }
+
+    @Override
+    public StatelessSession openStatelessSession(Connection connection) {
+        StatelessSession session = super.openStatelessSession(connection);
+        increaseSessionCount();
+        return wrap(session);
+    }
+
+    @Nonnull
+    private Session listen(@Nonnull Session session) {
+        // stateless sessions bypass the StatementInspector, their statements cannot be attributed
+        SlowQueryLog log = slowQueryLog;
+        if (log != null) {
+            ((SharedSessionContractImplementor) session).getEventListenerManager().addListener(log.getSessionEventListener());
+        }
+        return session;
+    }
+
     @Nonnull
     private Session wrap(@Nonnull Session session) {
         return session instanceof LinkedSession ? session : new LinkedSession((SessionImplementor) session, this);
     }
+
+    @Nonnull
+    private StatelessSession wrap(@Nonnull StatelessSession session) {
+        return session instanceof LinkedStatelessSession ? session : new LinkedStatelessSession(session, this);
+    }
+
+    private class RecordingSessionBuilder extends AbstractDelegatingSessionBuilder<RecordingSessionBuilder> {
+        private RecordingSessionBuilder(@Nonnull SessionBuilder delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Session openSession() {
+            Session session = listen(super.openSession());
+            increaseSessionCount();
+            return wrap(session);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private class RecordingStatelessSessionBuilder implements StatelessSessionBuilder<RecordingStatelessSessionBuilder> {
+        private final StatelessSessionBuilder delegate;
+
+        private RecordingStatelessSessionBuilder(@Nonnull StatelessSessionBuilder delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public StatelessSession openStatelessSession() {
+            StatelessSession session = delegate.openStatelessSession();
+            increaseSessionCount();
+            return wrap(session);
+        }
+
+        @Override
+        public RecordingStatelessSessionBuilder connection(Connection connection) {
+            delegate.connection(connection);
+            return this;
+        }
+
+        @Override
+        public RecordingStatelessSessionBuilder tenantIdentifier(String tenantIdentifier) {
+            delegate.tenantIdentifier(tenantIdentifier);
+            return this;
+        }
+
+        @Override
+        public RecordingStatelessSessionBuilder setQueryParameterValidation(boolean enabled) {
+            delegate.setQueryParameterValidation(enabled);
+            return this;
+        }
+    }
 }
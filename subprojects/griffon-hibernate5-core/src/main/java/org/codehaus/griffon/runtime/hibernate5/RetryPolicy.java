@@ -0,0 +1,86 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.Hibernate5RetryClassifier;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * How often and how soon a session block that failed with a transient error is run again. The delay before retry
+ * {@code n} grows as {@code delay * 2^(n - 1)} up to {@code maxDelay}; the actual pause is drawn at random from the
+ * upper half of that value, so that blocks which failed together do not collide again.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class RetryPolicy {
+    public static final String KEY_RETRY_ATTEMPTS = "retry_attempts";
+    public static final String KEY_RETRY_DELAY = "retry_delay";
+    public static final String KEY_RETRY_MAX_DELAY = "retry_max_delay";
+    public static final String KEY_RETRY_CLASSIFIER = "retry_classifier";
+    public static final String KEY_RETRY_SQL_STATES = "retry_sql_states";
+    public static final String KEY_RETRY_TIMEOUTS = "retry_timeouts";
+    public static final long DEFAULT_RETRY_DELAY = 50L;
+    public static final long DEFAULT_RETRY_MAX_DELAY = 2000L;
+
+    private final int maxAttempts;
+    private final long delayMillis;
+    private final long maxDelayMillis;
+    private final Hibernate5RetryClassifier classifier;
+
+    public RetryPolicy(int maxAttempts, long delayMillis, long maxDelayMillis, @Nonnull Hibernate5RetryClassifier classifier) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.delayMillis = Math.max(0L, delayMillis);
+        this.maxDelayMillis = Math.max(this.delayMillis, maxDelayMillis);
+        this.classifier = requireNonNull(classifier, "Argument 'classifier' must not be null");
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    @Nonnull
+    public Hibernate5RetryClassifier getClassifier() {
+        return classifier;
+    }
+
+    public boolean isRetryable(@Nonnull String sessionFactoryName, @Nonnull Throwable failure) {
+        return classifier.isRetryable(sessionFactoryName, failure);
+    }
+
+    /**
+     * Waits before the attempt following the given one.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void backoff(int attempt) throws InterruptedException {
+        long delay = delayMillis;
+        for (int i = 1; i < attempt && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        if (delay > 0) {
+            TimeUnit.MILLISECONDS.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay - delay / 2 + 1));
+        }
+    }
+}
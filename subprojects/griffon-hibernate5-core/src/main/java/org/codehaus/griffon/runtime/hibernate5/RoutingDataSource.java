@@ -0,0 +1,454 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hands out connections of a primary DataSource, or of one of its replicas while the current thread opens a read-only
+ * session. Reads of a thread stay on the primary for a short window after that thread committed a transaction that
+ * wrote through a read-write connection, so that they see those writes even if the replicas lag behind. Statements
+ * other than queries count as writes; statements run in auto-commit mode, such as those of schema generation, do not.
+ * A replica that fails to hand out a connection is skipped for a while; reads fall back to the primary when no replica
+ * is available.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class RoutingDataSource implements DataSource {
+    public static final String KEY_REPLICAS = "replicas";
+    public static final String KEY_REPLICA_BALANCING = "replica_balancing";
+    public static final String KEY_READ_YOUR_WRITES = "read_your_writes";
+    public static final long DEFAULT_READ_YOUR_WRITES = 1000L;
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(RoutingDataSource.class);
+    private static final long REPLICA_DOWN_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final double LATENCY_WEIGHT = 0.2d;
+    private static final ThreadLocal<Boolean> READ_ONLY = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static final Set<String> DML_KEYWORDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("insert", "update", "delete", "merge")));
+
+    public enum Balancing {
+        /**
+         * Take turns.
+         */
+        ROUND_ROBIN,
+        /**
+         * Pick the replica with the lowest average time to hand out a connection, weighted by the number of
+         * connections it has handed out and not yet got back.
+         */
+        LEAST_LATENCY;
+
+        @Nonnull
+        public static Balancing of(@Nonnull String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        }
+    }
+
+    private final String name;
+    private final DataSource primary;
+    private final Replica[] replicas;
+    private final Balancing balancing;
+    private final long readYourWritesNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ThreadLocal<Long> lastWriteNanos = new ThreadLocal<>();
+
+    public RoutingDataSource(@Nonnull String name, @Nonnull DataSource primary, @Nonnull List<DataSource> replicas, @Nonnull Balancing balancing, long readYourWritesMillis) {
+        this.name = requireNonNull(name, "Argument 'name' must not be null");
+        this.primary = requireNonNull(primary, "Argument 'primary' must not be null");
+        this.balancing = requireNonNull(balancing, "Argument 'balancing' must not be null");
+        requireNonNull(replicas, "Argument 'replicas' must not be null");
+        this.replicas = new Replica[replicas.size()];
+        for (int i = 0; i < this.replicas.length; i++) {
+            this.replicas[i] = new Replica(requireNonNull(replicas.get(i), "Argument 'replicas' must not contain null elements"));
+        }
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, readYourWritesMillis));
+    }
+
+    /**
+     * Sets whether connections obtained by the current thread may come from a replica.
+     *
+     * @return the previous setting, to be restored once the connection was obtained
+     */
+    public static boolean routeToReplica(boolean readOnly) {
+        boolean previous = READ_ONLY.get();
+        READ_ONLY.set(readOnly);
+        return previous;
+    }
+
+    @Nonnull
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    @Nonnull
+    public Balancing getBalancing() {
+        return balancing;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(DataSource::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection(dataSource -> dataSource.getConnection(username, password));
+    }
+
+    @Nonnull
+    private Connection getConnection(@Nonnull ConnectionSource source) throws SQLException {
+        if (!READ_ONLY.get()) {
+            Connection connection = source.get(primary);
+            return readYourWritesNanos > 0 && replicas.length > 0 ? trackWrites(connection) : connection;
+        }
+
+        if (replicas.length > 0 && !hasRecentWrite()) {
+            Connection connection = getReplicaConnection(source);
+            if (connection != null) {
+                return connection;
+            }
+        }
+        return source.get(primary);
+    }
+
+    private boolean hasRecentWrite() {
+        Long writeNanos = lastWriteNanos.get();
+        if (writeNanos == null) {
+            return false;
+        }
+        if (System.nanoTime() - writeNanos < readYourWritesNanos) {
+            return true;
+        }
+        lastWriteNanos.remove();
+        return false;
+    }
+
+    @Nullable
+    private Connection getReplicaConnection(@Nonnull ConnectionSource source) {
+        int first = balancing == Balancing.LEAST_LATENCY ? leastLatency() : Math.floorMod(next.getAndIncrement(), replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[(first + i) % replicas.length];
+            if (replica.isDown()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                Connection connection = source.get(replica.dataSource);
+                if (balancing != Balancing.LEAST_LATENCY) {
+                    return connection;
+                }
+                replica.recordLatency(System.nanoTime() - start);
+                replica.inFlight.incrementAndGet();
+                return proxy(connection, replica.inFlight::decrementAndGet);
+            } catch (SQLException | RuntimeException e) {
+                LOG.warn("Replica #{} of '{}' failed to hand out a connection, skipping it for {} seconds", (first + i) % replicas.length, name, TimeUnit.NANOSECONDS.toSeconds(REPLICA_DOWN_NANOS), e);
+                replica.markDown();
+            }
+        }
+        return null;
+    }
+
+    private int leastLatency() {
+        int best = 0;
+        double bestScore = Double.MAX_VALUE;
+        // start at a rotating offset so that replicas with the same score share the load
+        int offset = Math.floorMod(next.getAndIncrement(), replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            int index = (offset + i) % replicas.length;
+            Replica replica = replicas[index];
+            if (replica.isDown()) {
+                continue;
+            }
+            double score = replica.averageNanos * (replica.inFlight.get() + 1);
+            if (score < bestScore) {
+                best = index;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Wraps the connection so that the given action runs the first time it is closed.
+     */
+    @Nonnull
+    private static Connection proxy(@Nonnull Connection connection, @Nonnull Runnable onClose) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        onClose.run();
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return invoke(connection, method, args);
+        });
+    }
+
+    /**
+     * Wraps a read-write connection so that committing a transaction that wrote opens the read-your-writes window of
+     * the committing thread.
+     */
+    @Nonnull
+    private Connection trackWrites(@Nonnull Connection connection) {
+        return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(), new Class<?>[]{Connection.class},
+            new WriteTracker(connection, () -> lastWriteNanos.set(System.nanoTime())));
+    }
+
+    private static Object invoke(@Nonnull Object target, @Nonnull Method method, @Nullable Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return {@code true} unless the statement is a query.
+     */
+    private static boolean isWrite(@Nullable String sql) {
+        if (sql == null) {
+            return false;
+        }
+        int i = skipComments(sql, 0);
+        if (sql.regionMatches(true, i, "with", 0, 4)) {
+            // common table expressions may wrap an insert, update or delete (PostgreSQL, SQL Server)
+            return containsDml(sql, i + 4);
+        }
+        return !(sql.regionMatches(true, i, "select", 0, 6) ||
+            sql.regionMatches(true, i, "values", 0, 6));
+    }
+
+    private static int skipComments(@Nonnull String sql, int i) {
+        int length = sql.length();
+        while (i < length) {
+            if (Character.isWhitespace(sql.charAt(i))) {
+                i++;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i + 2);
+                i = end < 0 ? length : end + 1;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean containsDml(@Nonnull String sql, int i) {
+        int length = sql.length();
+        while (i < length) {
+            i = skipComments(sql, i);
+            if (i >= length) {
+                break;
+            }
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                // literals and quoted identifiers never hold a keyword
+                int end = sql.indexOf(c, i + 1);
+                i = end < 0 ? length : end + 1;
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+                    i++;
+                }
+                if (DML_KEYWORDS.contains(sql.substring(start, i).toLowerCase(Locale.ROOT))) {
+                    return true;
+                }
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSource {
+        Connection get(DataSource dataSource) throws SQLException;
+    }
+
+    /**
+     * Remembers whether the statements run since the last commit or rollback of a connection wrote anything.
+     */
+    private static final class WriteTracker implements InvocationHandler {
+        private final Connection connection;
+        private final Runnable onCommittedWrite;
+        private boolean wrote;
+
+        private WriteTracker(@Nonnull Connection connection, @Nonnull Runnable onCommittedWrite) {
+            this.connection = connection;
+            this.onCommittedWrite = onCommittedWrite;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "prepareStatement":
+                case "prepareCall":
+                    wrote |= isWrite((String) args[0]);
+                    return RoutingDataSource.invoke(connection, method, args);
+                case "createStatement":
+                    Statement statement = (Statement) RoutingDataSource.invoke(connection, method, args);
+                    return Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(), new Class<?>[]{Statement.class}, (p, m, a) -> {
+                        if (a != null && a.length > 0 && a[0] instanceof String && (m.getName().startsWith("execute") || "addBatch".equals(m.getName()))) {
+                            wrote |= isWrite((String) a[0]);
+                        }
+                        return RoutingDataSource.invoke(statement, m, a);
+                    });
+                case "commit":
+                    RoutingDataSource.invoke(connection, method, args);
+                    committed();
+                    return null;
+                case "setAutoCommit":
+                    // switching auto-commit on commits the running transaction
+                    boolean commits = (Boolean) args[0] && !connection.getAutoCommit();
+                    RoutingDataSource.invoke(connection, method, args);
+                    if (commits) {
+                        committed();
+                    } else if (!(Boolean) args[0]) {
+                        // statements run so far were committed on their own
+                        wrote = false;
+                    }
+                    return null;
+                case "rollback":
+                    try {
+                        return RoutingDataSource.invoke(connection, method, args);
+                    } finally {
+                        if (args == null) {
+                            wrote = false;
+                        }
+                    }
+                default:
+                    return RoutingDataSource.invoke(connection, method, args);
+            }
+        }
+
+        private void committed() {
+            if (wrote) {
+                wrote = false;
+                onCommittedWrite.run();
+            }
+        }
+    }
+
+    private static final class Replica {
+        private final DataSource dataSource;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double averageNanos;
+        private volatile long downUntilNanos;
+        private volatile boolean down;
+
+        private Replica(@Nonnull DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        private void recordLatency(long elapsedNanos) {
+            // racy updates only lose a sample
+            double average = averageNanos;
+            averageNanos = average == 0d ? elapsedNanos : average + LATENCY_WEIGHT * (elapsedNanos - average);
+        }
+
+        private void markDown() {
+            downUntilNanos = System.nanoTime() + REPLICA_DOWN_NANOS;
+            down = true;
+        }
+
+        private boolean isDown() {
+            if (down && System.nanoTime() - downUntilNanos >= 0) {
+                down = false;
+            }
+            return down;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception;
+import org.codehaus.griffon.runtime.hibernate5.internal.NamedThreadFactory;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Iterates over forward-only {@code ScrollableResults}, clearing the session after every row so that memory usage
+ * does not grow with the size of the result set. The session and transaction are released when the iterator is
+ * exhausted, when the owning stream is closed, or when the iterator becomes unreachable without being closed. The
+ * iterator is referenced by every stream, spliterator and iterator derived from the returned stream, so it stays
+ * reachable for as long as any of them can still read rows.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+final class ScrollingQueryIterator<E> implements Iterator<E> {
+    private static final Logger LOG = LoggerFactory.getLogger(ScrollingQueryIterator.class);
+
+    private final Cursor cursor;
+    private Boolean hasNext;
+
+    private ScrollingQueryIterator(@Nonnull Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Nonnull
+    static <E> Stream<E> stream(@Nonnull String sessionFactoryName, @Nonnull Session session, @Nonnull Transaction transaction, @Nonnull ScrollableResults results, @Nonnull Runnable sessionCloser) {
+        Cursor cursor = new Cursor(
+            requireNonNull(sessionFactoryName, "Argument 'sessionFactoryName' must not be null"),
+            requireNonNull(session, "Argument 'session' must not be null"),
+            requireNonNull(transaction, "Argument 'transaction' must not be null"),
+            requireNonNull(results, "Argument 'results' must not be null"),
+            requireNonNull(sessionCloser, "Argument 'sessionCloser' must not be null"));
+        ScrollingQueryIterator<E> iterator = new ScrollingQueryIterator<>(cursor);
+        cursor.reference = Reaper.track(iterator, cursor);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+            .onClose(cursor::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (hasNext == null) {
+            if (cursor.closed.get()) {
+                // rows may be left, reporting the end of the data would silently truncate the results
+                throw new RuntimeHibernate5Exception(cursor.sessionFactoryName, new IllegalStateException("Stream was closed before all of its rows were read"));
+            }
+            // rows handed out so far are no longer needed by the persistence context
+            cursor.session.clear();
+            try {
+                hasNext = cursor.results.next();
+            } catch (RuntimeException e) {
+                cursor.failed = true;
+                cursor.close();
+                throw new RuntimeHibernate5Exception(cursor.sessionFactoryName, e);
+            }
+            if (!hasNext) {
+                cursor.close();
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNext = null;
+        try {
+            Object[] row = cursor.results.get();
+            return (E) (row.length == 1 ? row[0] : row);
+        } catch (RuntimeException e) {
+            cursor.failed = true;
+            cursor.close();
+            throw new RuntimeHibernate5Exception(cursor.sessionFactoryName, e);
+        }
+    }
+
+    /**
+     * Resources held on behalf of an iterator. Must not reference the iterator, or the iterator would never
+     * become unreachable.
+     */
+    private static final class Cursor {
+        private final String sessionFactoryName;
+        private final Session session;
+        private final Transaction transaction;
+        private final ScrollableResults results;
+        private final Runnable sessionCloser;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private volatile boolean failed;
+        private IteratorReference reference;
+
+        private Cursor(@Nonnull String sessionFactoryName, @Nonnull Session session, @Nonnull Transaction transaction, @Nonnull ScrollableResults results, @Nonnull Runnable sessionCloser) {
+            this.sessionFactoryName = sessionFactoryName;
+            this.session = session;
+            this.transaction = transaction;
+            this.results = results;
+            this.sessionCloser = sessionCloser;
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            Reaper.untrack(reference);
+
+            try {
+                results.close();
+            } catch (RuntimeException e) {
+                failed = true;
+                LOG.warn("Failed to close scrollable results on session '{}'", sessionFactoryName, e);
+            }
+
+            try {
+                if (transaction.isActive()) {
+                    if (failed) {
+                        transaction.rollback();
+                    } else {
+                        transaction.commit();
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Failed to end transaction on session '{}'", sessionFactoryName, e);
+            } finally {
+                sessionCloser.run();
+            }
+        }
+    }
+
+    private static final class IteratorReference extends PhantomReference<Object> {
+        private final Cursor cursor;
+
+        private IteratorReference(@Nonnull Object iterator, @Nonnull Cursor cursor, @Nonnull ReferenceQueue<Object> queue) {
+            super(iterator, queue);
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * Closes cursors whose iterators were garbage collected without being closed.
+     */
+    private static final class Reaper implements Runnable {
+        private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+        private static final Set<IteratorReference> REFERENCES = ConcurrentHashMap.newKeySet();
+
+        static {
+            new NamedThreadFactory("hibernate5-stream-reaper").newThread(new Reaper()).start();
+        }
+
+        @Nonnull
+        private static IteratorReference track(@Nonnull Object iterator, @Nonnull Cursor cursor) {
+            IteratorReference reference = new IteratorReference(iterator, cursor, QUEUE);
+            REFERENCES.add(reference);
+            return reference;
+        }
+
+        private static void untrack(@Nonnull IteratorReference reference) {
+            REFERENCES.remove(reference);
+            reference.clear();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    IteratorReference reference = (IteratorReference) QUEUE.remove();
+                    if (REFERENCES.contains(reference)) {
+                        LOG.warn("Closing stream on session '{}' that was not closed", reference.cursor.sessionFactoryName);
+                        reference.cursor.close();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to close abandoned stream", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import griffon.core.env.Metadata;
+import griffon.plugins.hibernate5.Hibernate5Factory;
+import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception;
+import griffon.plugins.monitor.MBeanManager;
+import org.codehaus.griffon.runtime.hibernate5.internal.NamedThreadFactory;
+import org.codehaus.griffon.runtime.hibernate5.monitor.SessionFactoryExecutorMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps one bounded executor per SessionFactory for asynchronous session work.
+ * Executors are created on first use and shut down when their SessionFactory is closed. Work runs on a pool of
+ * platform threads unless {@code async_mode = 'virtual'} is configured and the runtime supports virtual threads,
+ * in which case the number of callbacks running at once is bounded by the connections available to them.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SessionFactoryExecutors {
+    public static final String KEY_ASYNC_MODE = "async_mode";
+    public static final String KEY_ASYNC_THREADS = "async_threads";
+    public static final String KEY_ASYNC_QUEUE_SIZE = "async_queue_size";
+    public static final String KEY_ASYNC_CONNECTIONS = "async_connections";
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1000;
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30L;
+    private static final Logger LOG = LoggerFactory.getLogger(SessionFactoryExecutors.class);
+    private static final String ERROR_SESSION_FACTORY_NAME_BLANK = "Argument 'sessionFactoryName' must not be blank";
+    private static final ThreadLocal<Boolean> RUNNING_TASK = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL;
+
+        @Nonnull
+        static Mode of(@Nullable String value) {
+            return value != null && VIRTUAL.name().equalsIgnoreCase(value.trim()) ? VIRTUAL : PLATFORM;
+        }
+    }
+
+    private final Hibernate5Factory hibernate5Factory;
+    private final ConcurrentMap<String, SessionFactoryExecutor> executors = new ConcurrentHashMap<>();
+    private volatile MBeanManager mBeanManager;
+    private volatile Metadata metadata;
+
+    public SessionFactoryExecutors(@Nonnull Hibernate5Factory hibernate5Factory) {
+        this.hibernate5Factory = requireNonNull(hibernate5Factory, "Argument 'hibernate5Factory' must not be null");
+    }
+
+    public void enableJmx(@Nonnull MBeanManager mBeanManager, @Nonnull Metadata metadata) {
+        this.mBeanManager = requireNonNull(mBeanManager, "Argument 'mBeanManager' must not be null");
+        this.metadata = requireNonNull(metadata, "Argument 'metadata' must not be null");
+    }
+
+    /**
+     * @return {@code true} if the current thread is running asynchronous work of any SessionFactory.
+     */
+    public static boolean isRunningTask() {
+        return RUNNING_TASK.get();
+    }
+
+    @Nonnull
+    public SessionFactoryExecutor get(@Nonnull String sessionFactoryName) {
+        requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
+        return executors.computeIfAbsent(sessionFactoryName, this::createExecutor);
+    }
+
+    /**
+     * Resolves {@code Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory())} reflectively,
+     * as this code is compiled for Java 8.
+     *
+     * @return an executor that starts a virtual thread per task, or {@code null} if the runtime does not support them.
+     */
+    @Nullable
+    static ExecutorService newVirtualThreadExecutor(@Nonnull String threadNamePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 1L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // older runtime, or virtual threads still in preview and not enabled
+            LOG.debug("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    public void shutdown(@Nonnull String sessionFactoryName) {
+        requireNonBlank(sessionFactoryName, ERROR_SESSION_FACTORY_NAME_BLANK);
+        SessionFactoryExecutor executor = executors.remove(sessionFactoryName);
+        if (executor != null) {
+            if (executor.objectName != null) {
+                mBeanManager.unregisterMBean(executor.objectName);
+            }
+            // queued work is allowed to finish before the SessionFactory goes away, no new work is accepted
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOG.warn("Pending work on '{}' did not finish within {} seconds", sessionFactoryName, SHUTDOWN_TIMEOUT_SECONDS);
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Nonnull
+    private SessionFactoryExecutor createExecutor(@Nonnull String sessionFactoryName) {
+        Map<String, Object> config = hibernate5Factory.getConfigurationFor(sessionFactoryName);
+        Mode mode = Mode.of(getConfigValueAsString(config, KEY_ASYNC_MODE, Mode.PLATFORM.name()));
+        int threads = Math.max(1, getConfigValueAsInt(config, KEY_ASYNC_THREADS, Runtime.getRuntime().availableProcessors()));
+        int queueSize = Math.max(1, getConfigValueAsInt(config, KEY_ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE));
+
+        SessionFactoryExecutor executor = null;
+        if (mode == Mode.VIRTUAL) {
+            ExecutorService virtualThreads = newVirtualThreadExecutor("hibernate5-" + sessionFactoryName + "-virtual-");
+            if (virtualThreads != null) {
+                LOG.info("Running asynchronous work on '{}' with virtual threads. Carrier threads pinned by synchronized " +
+                    "blocks in JDBC drivers or connection pools can be traced with -Djdk.tracePinnedThreads=short", sessionFactoryName);
+                int connections = Math.max(1, getConfigValueAsInt(config, KEY_ASYNC_CONNECTIONS, getConnectionPoolSize(sessionFactoryName, threads)));
+                executor = new VirtualSessionFactoryExecutor(sessionFactoryName, connections, queueSize, virtualThreads);
+            } else {
+                LOG.warn("Virtual threads are not available on this runtime; '{}' falls back to a pool of {} platform threads", sessionFactoryName, threads);
+            }
+        }
+        if (executor == null) {
+            executor = new PlatformSessionFactoryExecutor(sessionFactoryName, threads, queueSize);
+        }
+
+        if (mBeanManager != null && metadata != null && getConfigValueAsBoolean(config, "jmx", true)) {
+            executor.objectName = mBeanManager.registerMBean(new SessionFactoryExecutorMonitor(metadata, executor, sessionFactoryName), false).getCanonicalName();
+        }
+        return executor;
+    }
+
+    private int getConnectionPoolSize(@Nonnull String sessionFactoryName, int defaultValue) {
+        int poolSize = hibernate5Factory instanceof DefaultHibernate5Factory ? ((DefaultHibernate5Factory) hibernate5Factory).getConnectionPoolSize(sessionFactoryName) : -1;
+        if (poolSize < 1) {
+            LOG.warn("The connection pool size of '{}' is unknown; set {} to bound its virtual threads, using {} until then", sessionFactoryName, KEY_ASYNC_CONNECTIONS, defaultValue);
+            return defaultValue;
+        }
+        return poolSize;
+    }
+
+    /**
+     * Executor backing asynchronous session work of a single SessionFactory.
+     */
+    public abstract static class SessionFactoryExecutor implements Executor {
+        private final String sessionFactoryName;
+        private final int queueCapacity;
+        private final AtomicLong rejectedTaskCount = new AtomicLong(0);
+        private String objectName;
+
+        private SessionFactoryExecutor(@Nonnull String sessionFactoryName, int queueCapacity) {
+            this.sessionFactoryName = sessionFactoryName;
+            this.queueCapacity = queueCapacity;
+        }
+
+        @Nonnull
+        public String getSessionFactoryName() {
+            return sessionFactoryName;
+        }
+
+        @Nonnull
+        public abstract Mode getMode();
+
+        public abstract int getPoolSize();
+
+        public abstract int getMaximumPoolSize();
+
+        public abstract int getActiveCount();
+
+        public abstract int getQueueDepth();
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public abstract long getCompletedTaskCount();
+
+        public long getRejectedTaskCount() {
+            return rejectedTaskCount.get();
+        }
+
+        /**
+         * Runs work asynchronously. The returned future always completes: work dropped because the executor was
+         * shut down before it could run completes it exceptionally with a {@code RuntimeHibernate5Exception}
+         * caused by a {@code RejectedExecutionException}.
+         *
+         * @param supplier the work to run
+         * @return a future with the result of the work
+         * @throws RejectedExecutionException if the work cannot be accepted
+         */
+        @Nonnull
+        public <R> CompletableFuture<R> submit(@Nonnull Supplier<R> supplier) {
+            SessionTask<R> task = new SessionTask<>(this, requireNonNull(supplier, "Argument 'supplier' must not be null"));
+            execute(task);
+            return task.future;
+        }
+
+        public abstract boolean isTerminated();
+
+        protected abstract void shutdown();
+
+        protected abstract void shutdownNow();
+
+        protected abstract boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException;
+
+        protected void drop(@Nonnull Runnable command) {
+            if (command instanceof SessionTask) {
+                ((SessionTask<?>) command).drop();
+            }
+        }
+
+        @Nonnull
+        protected RejectedExecutionException reject(boolean shutdown) {
+            rejectedTaskCount.incrementAndGet();
+            return new RejectedExecutionException("Executor for '" + sessionFactoryName + "' cannot accept more work" +
+                (shutdown ? " (shut down)" : " (queue capacity " + queueCapacity + " reached)"));
+        }
+    }
+
+    private static class PlatformSessionFactoryExecutor extends SessionFactoryExecutor {
+        private final ThreadPoolExecutor delegate;
+
+        private PlatformSessionFactoryExecutor(@Nonnull String sessionFactoryName, int threads, int queueCapacity) {
+            super(sessionFactoryName, queueCapacity);
+            delegate = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueCapacity),
+                new NamedThreadFactory("hibernate5-" + sessionFactoryName), (runnable, executor) -> {
+                throw reject(executor.isShutdown());
+            });
+            delegate.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(@Nonnull Runnable command) {
+            delegate.execute(command);
+        }
+
+        @Nonnull
+        @Override
+        public Mode getMode() {
+            return Mode.PLATFORM;
+        }
+
+        @Override
+        public int getPoolSize() {
+            return delegate.getPoolSize();
+        }
+
+        @Override
+        public int getMaximumPoolSize() {
+            return delegate.getMaximumPoolSize();
+        }
+
+        @Override
+        public int getActiveCount() {
+            return delegate.getActiveCount();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return delegate.getQueue().size();
+        }
+
+        @Override
+        public long getCompletedTaskCount() {
+            return delegate.getCompletedTaskCount();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        protected void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        protected void shutdownNow() {
+            List<Runnable> dropped = delegate.shutdownNow();
+            for (Runnable command : dropped) {
+                drop(command);
+            }
+        }
+
+        @Override
+        protected boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Starts a new virtual thread per task. Callbacks wait on a semaphore before they run so that no more than
+     * {@code concurrency} of them, the number of connections of the pool, compete for connections at once; waiting
+     * there unmounts the virtual thread, whereas waiting inside a connection pool guarded by {@code synchronized}
+     * pins its carrier thread and may exhaust the carrier pool altogether.
+     */
+    private static class VirtualSessionFactoryExecutor extends SessionFactoryExecutor {
+        private final ExecutorService delegate;
+        private final int concurrency;
+        private final Semaphore permits;
+        private final Semaphore running;
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private final AtomicInteger active = new AtomicInteger(0);
+        private final AtomicLong completed = new AtomicLong(0);
+
+        private VirtualSessionFactoryExecutor(@Nonnull String sessionFactoryName, int concurrency, int queueCapacity, @Nonnull ExecutorService delegate) {
+            super(sessionFactoryName, queueCapacity);
+            this.delegate = delegate;
+            this.concurrency = concurrency;
+            this.permits = new Semaphore(concurrency + queueCapacity);
+            this.running = new Semaphore(concurrency, true);
+        }
+
+        @Override
+        public void execute(@Nonnull Runnable command) {
+            requireNonNull(command, "Argument 'command' must not be null");
+            if (delegate.isShutdown() || !permits.tryAcquire()) {
+                throw reject(delegate.isShutdown());
+            }
+            pending.incrementAndGet();
+            try {
+                delegate.execute(() -> run(command));
+            } catch (RejectedExecutionException e) {
+                pending.decrementAndGet();
+                permits.release();
+                throw reject(true);
+            }
+        }
+
+        private void run(@Nonnull Runnable command) {
+            try {
+                running.acquire();
+            } catch (InterruptedException e) {
+                // shutdownNow(), the task is dropped like queued tasks of a thread pool
+                pending.decrementAndGet();
+                permits.release();
+                Thread.currentThread().interrupt();
+                drop(command);
+                return;
+            }
+            pending.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+                running.release();
+                permits.release();
+            }
+        }
+
+        @Nonnull
+        @Override
+        public Mode getMode() {
+            return Mode.VIRTUAL;
+        }
+
+        @Override
+        public int getPoolSize() {
+            return active.get() + pending.get();
+        }
+
+        @Override
+        public int getMaximumPoolSize() {
+            return concurrency;
+        }
+
+        @Override
+        public int getActiveCount() {
+            return active.get();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return pending.get();
+        }
+
+        @Override
+        public long getCompletedTaskCount() {
+            return completed.get();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        protected void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        protected void shutdownNow() {
+            delegate.shutdownNow();
+        }
+
+        @Override
+        protected boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Work submitted through {@link SessionFactoryExecutor#submit(Supplier)}.
+     */
+    private static final class SessionTask<R> implements Runnable {
+        private final SessionFactoryExecutor executor;
+        private final Supplier<R> supplier;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        private SessionTask(@Nonnull SessionFactoryExecutor executor, @Nonnull Supplier<R> supplier) {
+            this.executor = executor;
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            boolean running = RUNNING_TASK.get();
+            RUNNING_TASK.set(Boolean.TRUE);
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                RUNNING_TASK.set(running);
+            }
+        }
+
+        private void drop() {
+            future.completeExceptionally(new RuntimeHibernate5Exception(executor.getSessionFactoryName(),
+                new RejectedExecutionException("Executor for '" + executor.getSessionFactoryName() + "' was shut down before the work could run")));
+        }
+    }
+}
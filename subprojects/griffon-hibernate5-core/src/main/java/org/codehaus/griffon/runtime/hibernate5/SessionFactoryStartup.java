@@ -0,0 +1,126 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import griffon.plugins.hibernate5.Hibernate5Handler;
+import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception;
+import org.codehaus.griffon.runtime.hibernate5.internal.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds SessionFactories in parallel and waits for all of them. Failures are reported by SessionFactory
+ * name; the first one is thrown with the others attached as suppressed exceptions. A build that does not finish in
+ * time may ignore its interruption, so a SessionFactory it completes after startup gave up is closed again.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SessionFactoryStartup {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionFactoryStartup.class);
+
+    private final Hibernate5Handler hibernate5Handler;
+
+    public SessionFactoryStartup(@Nonnull Hibernate5Handler hibernate5Handler) {
+        this.hibernate5Handler = requireNonNull(hibernate5Handler, "Argument 'hibernate5Handler' must not be null");
+    }
+
+    public void connect(@Nonnull List<String> sessionFactoryNames, int threads, long timeout) {
+        requireNonNull(sessionFactoryNames, "Argument 'sessionFactoryNames' must not be null");
+        if (sessionFactoryNames.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sessionFactoryNames.size())), new NamedThreadFactory("hibernate5-startup"));
+        try {
+            Map<String, CompletableFuture<Void>> connections = new LinkedHashMap<>();
+            for (String sessionFactoryName : sessionFactoryNames) {
+                connections.put(sessionFactoryName, CompletableFuture.runAsync(() -> connect(sessionFactoryName), executorService));
+            }
+
+            RuntimeHibernate5Exception failure = null;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            for (Map.Entry<String, CompletableFuture<Void>> connection : connections.entrySet()) {
+                RuntimeHibernate5Exception error = awaitConnection(connection.getKey(), connection.getValue(), deadline);
+                if (error == null) {
+                    continue;
+                }
+                if (failure == null) {
+                    failure = error;
+                } else {
+                    failure.addSuppressed(error);
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void connect(@Nonnull String sessionFactoryName) {
+        hibernate5Handler.withHbm5Session(sessionFactoryName, (name, session) -> null);
+    }
+
+    @Nullable
+    private RuntimeHibernate5Exception awaitConnection(@Nonnull String sessionFactoryName, @Nonnull CompletableFuture<Void> connection, long deadline) {
+        try {
+            connection.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(sessionFactoryName, connection);
+            return new RuntimeHibernate5Exception(sessionFactoryName, e);
+        } catch (TimeoutException e) {
+            abandon(sessionFactoryName, connection);
+            return new RuntimeHibernate5Exception(sessionFactoryName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeHibernate5Exception) {
+                return (RuntimeHibernate5Exception) cause;
+            }
+            return new RuntimeHibernate5Exception(sessionFactoryName, cause instanceof Exception ? (Exception) cause : e);
+        }
+    }
+
+    private void abandon(@Nonnull String sessionFactoryName, @Nonnull CompletableFuture<Void> connection) {
+        // the worker is interrupted when the executor shuts down; a build that finishes anyway must not stay open
+        connection.whenComplete((result, error) -> {
+            if (error == null) {
+                LOG.warn("Closing SessionFactory '{}' built after startup timed out", sessionFactoryName);
+                hibernate5Handler.closeHbm5Session(sessionFactoryName);
+            }
+        });
+    }
+}
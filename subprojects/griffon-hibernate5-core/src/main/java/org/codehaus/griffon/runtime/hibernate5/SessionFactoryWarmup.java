@@ -0,0 +1,152 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.Hibernate5Handler;
+import org.codehaus.griffon.runtime.hibernate5.internal.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds SessionFactories on background threads. Callers that request a SessionFactory while it is
+ * still being built wait for the in-flight build instead of starting a new one. Stopping the warmup waits
+ * for in-flight builds and closes any SessionFactory that completes after the warmup was stopped.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SessionFactoryWarmup {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionFactoryWarmup.class);
+
+    public enum State {
+        PENDING,
+        CONNECTING,
+        CONNECTED,
+        FAILED,
+        CANCELLED
+    }
+
+    private static final long STOP_TIMEOUT = 30_000L;
+
+    private final Hibernate5Handler hibernate5Handler;
+    private final Map<String, State> states = Collections.synchronizedMap(new LinkedHashMap<>());
+    private ExecutorService executorService;
+    private volatile boolean stopped;
+
+    public SessionFactoryWarmup(@Nonnull Hibernate5Handler hibernate5Handler) {
+        this.hibernate5Handler = requireNonNull(hibernate5Handler, "Argument 'hibernate5Handler' must not be null");
+    }
+
+    public synchronized void start(@Nonnull List<String> sessionFactoryNames, int threads) {
+        requireNonNull(sessionFactoryNames, "Argument 'sessionFactoryNames' must not be null");
+        if (sessionFactoryNames.isEmpty() || executorService != null || stopped) {
+            return;
+        }
+
+        for (String sessionFactoryName : sessionFactoryNames) {
+            states.put(sessionFactoryName, State.PENDING);
+        }
+
+        executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sessionFactoryNames.size())), new NamedThreadFactory("hibernate5-warmup"));
+        for (String sessionFactoryName : sessionFactoryNames) {
+            executorService.execute(() -> connect(sessionFactoryName));
+        }
+        executorService.shutdown();
+    }
+
+    public void stop() {
+        stop(STOP_TIMEOUT);
+    }
+
+    public synchronized void stop(long timeout) {
+        stopped = true;
+        if (executorService == null) {
+            return;
+        }
+
+        executorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Background builds of {} did not finish within {} ms", getStates().keySet(), timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (states) {
+            for (Map.Entry<String, State> state : states.entrySet()) {
+                if (state.getValue() == State.PENDING) {
+                    state.setValue(State.CANCELLED);
+                }
+            }
+        }
+    }
+
+    @Nonnull
+    public Map<String, State> getStates() {
+        synchronized (states) {
+            return new LinkedHashMap<>(states);
+        }
+    }
+
+    public boolean isDone() {
+        synchronized (states) {
+            for (State state : states.values()) {
+                if (state == State.PENDING || state == State.CONNECTING) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void connect(@Nonnull String sessionFactoryName) {
+        if (stopped) {
+            states.put(sessionFactoryName, State.CANCELLED);
+            return;
+        }
+
+        states.put(sessionFactoryName, State.CONNECTING);
+        try {
+            hibernate5Handler.withHbm5Session(sessionFactoryName, (name, session) -> null);
+        } catch (RuntimeException e) {
+            states.put(sessionFactoryName, stopped ? State.CANCELLED : State.FAILED);
+            LOG.warn("Could not build SessionFactory '{}' in the background", sessionFactoryName, e);
+            return;
+        }
+
+        if (stopped) {
+            // the application is shutting down and may already have closed its SessionFactories
+            hibernate5Handler.closeHbm5Session(sessionFactoryName);
+            states.put(sessionFactoryName, State.CANCELLED);
+        } else {
+            states.put(sessionFactoryName, State.CONNECTED);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.Hibernate5ShardStrategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Maps shard keys to the SessionFactories listed in the {@code sharding} block of the configuration.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class ShardRouter {
+    public static final String KEY_SHARDING = "sharding";
+    public static final String KEY_SHARDS = "shards";
+    public static final String KEY_STRATEGY = "strategy";
+    public static final String KEY_RANGES = "ranges";
+    public static final String STRATEGY_HASH = "hash";
+    public static final String STRATEGY_RANGE = "range";
+
+    private final List<String> shards;
+    private final Hibernate5ShardStrategy strategy;
+
+    public ShardRouter(@Nonnull List<String> shards, @Nonnull Hibernate5ShardStrategy strategy) {
+        requireNonNull(shards, "Argument 'shards' must not be null");
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Argument 'shards' must not be empty");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.strategy = requireNonNull(strategy, "Argument 'strategy' must not be null");
+    }
+
+    /**
+     * Creates a router from the settings of a {@code sharding} block.
+     *
+     * @throws IllegalStateException    if no shards are configured
+     * @throws IllegalArgumentException if a shard is not a configured SessionFactory or the strategy is invalid
+     */
+    @Nonnull
+    public static ShardRouter create(@Nonnull Map<String, Object> config, @Nonnull Set<String> sessionFactoryNames) {
+        Collection<String> shards = getConfigValue(config, KEY_SHARDS, Collections.<String>emptyList());
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalStateException("No shards are configured in the '" + KEY_SHARDING + "' block");
+        }
+        for (String shard : shards) {
+            if (!sessionFactoryNames.contains(shard)) {
+                throw new IllegalArgumentException("Shard '" + shard + "' is not a configured SessionFactory");
+            }
+        }
+        return new ShardRouter(new ArrayList<>(shards), createStrategy(config));
+    }
+
+    @Nonnull
+    private static Hibernate5ShardStrategy createStrategy(@Nonnull Map<String, Object> config) {
+        Object value = getConfigValue(config, KEY_STRATEGY, STRATEGY_HASH);
+        if (value instanceof Hibernate5ShardStrategy) {
+            return (Hibernate5ShardStrategy) value;
+        } else if (STRATEGY_HASH.equals(value)) {
+            return new HashShardStrategy();
+        } else if (STRATEGY_RANGE.equals(value)) {
+            Collection<?> ranges = getConfigValue(config, KEY_RANGES, Collections.emptyList());
+            return new RangeShardStrategy(ranges != null ? ranges : Collections.emptyList());
+        }
+
+        try {
+            Class<?> strategyClass = value instanceof Class ? (Class<?>) value : Thread.currentThread().getContextClassLoader().loadClass(String.valueOf(value));
+            return (Hibernate5ShardStrategy) strategyClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot instantiate shard strategy " + value, e);
+        }
+    }
+
+    @Nonnull
+    public List<String> getShards() {
+        return shards;
+    }
+
+    @Nonnull
+    public Hibernate5ShardStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return the name of the SessionFactory that holds the data of the given key
+     */
+    @Nonnull
+    public String shardFor(@Nonnull Object shardKey) {
+        requireNonNull(shardKey, "Argument 'shardKey' must not be null");
+        String shard = strategy.shardFor(shardKey, shards);
+        if (!shards.contains(shard)) {
+            throw new IllegalStateException("Shard strategy " + strategy + " picked unknown shard '" + shard + "' for key " + shardKey);
+        }
+        return shard;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.SessionEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Times every JDBC statement executed by the sessions of a SessionFactory. The SQL is captured when Hibernate prepares
+ * the statement, through {@code StatementInspector}; the execution is timed by a {@code SessionEventListener} added to
+ * every session. Stateless sessions bypass the inspector and are not timed. Statements slower than the threshold are
+ * logged, and the slowest statement shapes are kept with their execution count and total time.
+ * <p>
+ * Neither callback identifies the statement, so prepared SQL is matched to executions by order: a plain statement is
+ * executed right after it is prepared, while the statements of a JDBC batch are prepared up front and executed, as
+ * often as the batch fills up, in the order they were prepared.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SlowQueryLog extends DelegatingStatementInspector {
+    public static final String KEY_SLOW_QUERY_LOG = "slow_query_log";
+    public static final String KEY_SLOW_QUERY_THRESHOLD = "slow_query_threshold";
+    public static final String KEY_SLOW_QUERY_TOP = "slow_query_top";
+    public static final long DEFAULT_SLOW_QUERY_THRESHOLD = 500L;
+    public static final int DEFAULT_SLOW_QUERY_TOP = 20;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private final String sessionFactoryName;
+    private final int capacity;
+    private volatile long thresholdNanos;
+    private final ThreadLocal<Execution> executions = ThreadLocal.withInitial(Execution::new);
+    private final Map<String, Shape> slowest = new ConcurrentHashMap<>();
+    private final LongAdder statementCount = new LongAdder();
+    private final LongAdder slowStatementCount = new LongAdder();
+    private final SessionEventListener sessionEventListener = new TimingListener();
+
+    public SlowQueryLog(@Nonnull String sessionFactoryName, long thresholdMillis, int capacity, @Nullable StatementInspector delegate) {
+        super(delegate);
+        this.sessionFactoryName = requireNonNull(sessionFactoryName, "Argument 'sessionFactoryName' must not be null");
+        this.capacity = Math.max(1, capacity);
+        setThresholdMillis(thresholdMillis);
+    }
+
+    @Override
+    protected void onStatement(@Nonnull String sql) {
+        executions.get().prepared.addLast(sql);
+    }
+
+    @Nonnull
+    public SessionEventListener getSessionEventListener() {
+        return sessionEventListener;
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    public void setThresholdMillis(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, thresholdMillis));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getStatementCount() {
+        return statementCount.sum();
+    }
+
+    public long getSlowStatementCount() {
+        return slowStatementCount.sum();
+    }
+
+    /**
+     * Returns the tracked statement shapes, slowest first.
+     */
+    @Nonnull
+    public List<Shape> getSlowestStatements() {
+        List<Shape> list = new ArrayList<>(slowest.values());
+        list.sort((a, b) -> Long.compare(b.maxNanos(), a.maxNanos()));
+        return list;
+    }
+
+    public void reset() {
+        slowest.clear();
+        statementCount.reset();
+        slowStatementCount.reset();
+    }
+
+    void record(@Nullable String sql, long elapsedNanos) {
+        if (sql == null) {
+            return;
+        }
+        statementCount.increment();
+        if (elapsedNanos >= thresholdNanos) {
+            slowStatementCount.increment();
+            LOG.warn("Slow statement on '{}' took {} ms: {}", sessionFactoryName, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), sql);
+        }
+
+        String shape = StatementShapes.shapeOf(sql);
+        Shape stats = slowest.get(shape);
+        if (stats == null) {
+            stats = admit(shape, elapsedNanos);
+            if (stats == null) {
+                return;
+            }
+        }
+        stats.record(elapsedNanos);
+    }
+
+    @Nullable
+    private synchronized Shape admit(@Nonnull String shape, long elapsedNanos) {
+        Shape stats = slowest.get(shape);
+        if (stats != null) {
+            return stats;
+        }
+        if (slowest.size() >= capacity) {
+            // keep the slowest shapes only; a faster newcomer is dropped right away
+            Shape fastest = null;
+            for (Shape candidate : slowest.values()) {
+                if (fastest == null || candidate.maxNanos() < fastest.maxNanos()) {
+                    fastest = candidate;
+                }
+            }
+            if (fastest == null || fastest.maxNanos() >= elapsedNanos) {
+                return null;
+            }
+            slowest.remove(fastest.getSql());
+        }
+        stats = new Shape(shape);
+        slowest.put(shape, stats);
+        return stats;
+    }
+
+    private static final class Execution {
+        private final Deque<String> prepared = new ArrayDeque<>();
+        private final List<String> batch = new ArrayList<>();
+        private int batchIndex;
+        private String sql;
+        private long startNanos;
+
+        private void startStatement() {
+            sql = prepared.pollLast();
+            startNanos = System.nanoTime();
+        }
+
+        private void startBatch() {
+            if (!prepared.isEmpty()) {
+                // statements prepared since the last execution belong to a new batch
+                batch.clear();
+                batch.addAll(prepared);
+                prepared.clear();
+                batchIndex = 0;
+            }
+            sql = batch.isEmpty() ? null : batch.get(batchIndex++ % batch.size());
+            startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Execution count, total and maximum time of a normalized statement.
+     */
+    public static final class Shape {
+        private final String sql;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Shape(@Nonnull String sql) {
+            this.sql = sql;
+        }
+
+        private void record(long elapsedNanos) {
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            long max = maxNanos.get();
+            while (elapsedNanos > max && !maxNanos.compareAndSet(max, elapsedNanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        @Nonnull
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getTotalMillis() {
+            return toMillis(totalNanos.sum());
+        }
+
+        public double getAverageMillis() {
+            long n = count.sum();
+            return n > 0 ? toMillis(totalNanos.sum()) / n : 0d;
+        }
+
+        public double getMaxMillis() {
+            return toMillis(maxNanos.get());
+        }
+
+        private long maxNanos() {
+            return maxNanos.get();
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    private class TimingListener extends BaseSessionEventListener {
+        @Override
+        public void jdbcExecuteStatementStart() {
+            executions.get().startStatement();
+        }
+
+        @Override
+        public void jdbcExecuteStatementEnd() {
+            Execution execution = executions.get();
+            record(execution.sql, System.nanoTime() - execution.startNanos);
+            execution.sql = null;
+        }
+
+        @Override
+        public void jdbcExecuteBatchStart() {
+            executions.get().startBatch();
+        }
+
+        @Override
+        public void jdbcExecuteBatchEnd() {
+            Execution execution = executions.get();
+            record(execution.sql, System.nanoTime() - execution.startNanos);
+            execution.sql = null;
+        }
+
+        @Override
+        public void end() {
+            // statements prepared but never executed must not be attributed to the next session on this thread
+            executions.remove();
+        }
+    }
+}
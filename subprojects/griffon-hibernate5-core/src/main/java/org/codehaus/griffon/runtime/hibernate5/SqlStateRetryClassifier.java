@@ -0,0 +1,123 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.Hibernate5RetryClassifier;
+import org.hibernate.JDBCException;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.exception.LockTimeoutException;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Treats a failure as transient when one of its causes is a {@code SQLTransientException} or a
+ * {@code SQLRecoverableException}, or carries a SQLState starting with one of the configured prefixes.
+ * The default prefixes cover serialization failures and deadlocks ({@code 40001}, {@code 40P01}) and
+ * connection failures ({@code 08}).
+ * <p>
+ * Timeouts are not transient unless enabled: a statement or lock wait that timed out is likely to time out again, and
+ * every retry holds a connection for the full timeout once more. A failure caused by a {@code SQLTimeoutException}, or
+ * by a query or lock timeout of Hibernate or JPA, is then never retried, whatever its SQLState.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SqlStateRetryClassifier implements Hibernate5RetryClassifier {
+    public static final List<String> DEFAULT_SQL_STATES = Collections.unmodifiableList(Arrays.asList("40001", "40P01", "08"));
+
+    private final List<String> sqlStates;
+    private final boolean retryTimeouts;
+
+    public SqlStateRetryClassifier() {
+        this(DEFAULT_SQL_STATES);
+    }
+
+    public SqlStateRetryClassifier(@Nonnull Collection<String> sqlStates) {
+        this(sqlStates, false);
+    }
+
+    public SqlStateRetryClassifier(@Nonnull Collection<String> sqlStates, boolean retryTimeouts) {
+        this.sqlStates = Collections.unmodifiableList(new ArrayList<>(requireNonNull(sqlStates, "Argument 'sqlStates' must not be null")));
+        this.retryTimeouts = retryTimeouts;
+    }
+
+    @Nonnull
+    public List<String> getSqlStates() {
+        return sqlStates;
+    }
+
+    public boolean isRetryTimeouts() {
+        return retryTimeouts;
+    }
+
+    @Override
+    public boolean isRetryable(@Nonnull String sessionFactoryName, @Nonnull Throwable failure) {
+        if (!retryTimeouts && isTimeout(failure)) {
+            return false;
+        }
+
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() != cause ? cause.getCause() : null) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            String sqlState = null;
+            if (cause instanceof JDBCException) {
+                sqlState = ((JDBCException) cause).getSQLState();
+            } else if (cause instanceof SQLException) {
+                sqlState = ((SQLException) cause).getSQLState();
+            }
+            if (sqlState != null && matches(sqlState)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTimeout(@Nonnull Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() != cause ? cause.getCause() : null) {
+            if (cause instanceof SQLTimeoutException ||
+                cause instanceof QueryTimeoutException ||
+                cause instanceof LockTimeoutException ||
+                cause instanceof javax.persistence.QueryTimeoutException ||
+                cause instanceof javax.persistence.LockTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(@Nonnull String sqlState) {
+        for (String prefix : sqlStates) {
+            if (sqlState.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5;
+
+import griffon.annotations.core.Nonnull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Reduces SQL statements to their shape: string and numeric literals become {@code ?}, {@code IN} lists of
+ * parameters collapse to {@code in (?, ...)} and whitespace is normalized. Statements that differ only in their
+ * arguments share the same shape.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+final class StatementShapes {
+    private static final int CACHE_SIZE = 1024;
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMERIC_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // Hibernate generates a limited set of statements, most of them are normalized once
+    private static final Map<String, String> SHAPES = new ConcurrentHashMap<>();
+
+    private StatementShapes() {
+        // prevent instantiation
+    }
+
+    @Nonnull
+    static String shapeOf(@Nonnull String sql) {
+        String shape = SHAPES.get(sql);
+        if (shape == null) {
+            shape = normalize(sql);
+            if (SHAPES.size() < CACHE_SIZE) {
+                SHAPES.put(sql, shape);
+            }
+        }
+        return shape;
+    }
+
+    @Nonnull
+    static String normalize(@Nonnull String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMERIC_LITERAL.matcher(shape).replaceAll("?");
+        shape = IN_LIST.matcher(shape).replaceAll("in (?, ...)");
+        return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.cache;
+
+import griffon.annotations.core.Nonnull;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Storage of a single cache region. Entries are spread over independently locked segments, each one an
+ * access-ordered {@code LinkedHashMap} that drops its least recently used entry once full. Expired entries are
+ * removed when they are read.
+ * <p>
+ * A persistent region restores the entries of its snapshot while it is already in use. Every key written, evicted or
+ * dropped in the meantime is remembered, so that an older value of the snapshot never replaces it.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class BoundedRegion implements DomainDataStorageAccess {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final String name;
+    private final Type type;
+    private final RegionSettings settings;
+    private final long ttlNanos;
+    private final Segment[] segments;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder putCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final Set<Object> keysChangedWhileRestoring = ConcurrentHashMap.newKeySet();
+    private volatile boolean restoring;
+
+    /**
+     * What a region stores: entity and collection data, query results, or the timestamps query results are checked against.
+     */
+    public enum Type {
+        DOMAIN_DATA, QUERY_RESULTS, TIMESTAMPS
+    }
+
+    public BoundedRegion(@Nonnull String name, @Nonnull Type type, @Nonnull RegionSettings settings) {
+        this.name = requireNonNull(name, "Argument 'name' must not be null");
+        this.type = requireNonNull(type, "Argument 'type' must not be null");
+        this.settings = requireNonNull(settings, "Argument 'settings' must not be null");
+        this.ttlNanos = settings.getTtlNanos();
+        this.restoring = settings.isPersistent();
+
+        // small regions use a single segment so that the bound stays exact
+        int segmentCount = settings.getMaxEntries() < MAX_SEGMENTS * 8 ? 1 : MAX_SEGMENTS;
+        int segmentCapacity = (int) Math.min(Integer.MAX_VALUE, ((long) settings.getMaxEntries() + segmentCount - 1) / segmentCount);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    @Nonnull
+    public String getRegionName() {
+        return name;
+    }
+
+    @Nonnull
+    public Type getType() {
+        return type;
+    }
+
+    public int getMaxEntries() {
+        return settings.getMaxEntries();
+    }
+
+    public long getTtlSeconds() {
+        return settings.getTtlSeconds();
+    }
+
+    public boolean isPersistent() {
+        return settings.isPersistent();
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public double getHitRatio() {
+        return hitRatio(getHitCount(), getMissCount());
+    }
+
+    public long getPutCount() {
+        return putCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirationCount.sum();
+    }
+
+    public static double hitRatio(long hits, long misses) {
+        long total = hits + misses;
+        return total > 0 ? hits / (double) total : 0d;
+    }
+
+    @Override
+    public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+        Object value = read(key);
+        if (value != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+        return value;
+    }
+
+    @Override
+    public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+        long expiresAt = ttlNanos > 0 ? System.nanoTime() + ttlNanos : Long.MAX_VALUE;
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            changed(key);
+            segment.put(key, new CachedValue(value, expiresAt));
+        }
+        putCount.increment();
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        return read(key) != null;
+    }
+
+    @Override
+    public void evictData() {
+        finishRestore();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public void evictData(Object key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            changed(key);
+            segment.remove(key);
+        }
+    }
+
+    @Override
+    public void release() {
+        evictData();
+    }
+
+    /**
+     * Copies the entries of this region, least recently used first. Entries locked by a running transaction and expired
+     * entries are left out.
+     */
+    @Nonnull
+    public List<SnapshotEntry> snapshot() {
+        List<SnapshotEntry> entries = new ArrayList<>();
+        long nanoTime = System.nanoTime();
+        long currentTimeMillis = System.currentTimeMillis();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<Object, CachedValue> entry : segment.entrySet()) {
+                    CachedValue cached = entry.getValue();
+                    if (cached.value instanceof SoftLock) {
+                        continue;
+                    }
+                    long remainingNanos = cached.expiresAt - nanoTime;
+                    if (remainingNanos < 0) {
+                        continue;
+                    }
+                    long expiresAtMillis = cached.expiresAt == Long.MAX_VALUE ? Long.MAX_VALUE : currentTimeMillis + TimeUnit.NANOSECONDS.toMillis(remainingNanos);
+                    entries.add(new SnapshotEntry(entry.getKey(), cached.value, expiresAtMillis));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Stores an entry read from a snapshot unless its key has been cached, evicted or dropped since this region was
+     * created. Restoring stops for good once the whole region is evicted or {@link #finishRestore()} is called.
+     *
+     * @return {@code false} if restoring was stopped.
+     */
+    public boolean restore(@Nonnull SnapshotEntry entry) {
+        if (!restoring) {
+            return false;
+        }
+        long remainingMillis = entry.getExpiresAtMillis() - System.currentTimeMillis();
+        if (remainingMillis < 0) {
+            return true;
+        }
+        long expiresAt = entry.getExpiresAtMillis() == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingMillis);
+        Segment segment = segmentFor(entry.getKey());
+        synchronized (segment) {
+            if (!restoring) {
+                return false;
+            }
+            if (!keysChangedWhileRestoring.contains(entry.getKey()) && !segment.containsKey(entry.getKey())) {
+                segment.put(entry.getKey(), new CachedValue(entry.getValue(), expiresAt));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops restoring snapshot entries and forgets the keys changed in the meantime.
+     */
+    public void finishRestore() {
+        restoring = false;
+        keysChangedWhileRestoring.clear();
+    }
+
+    // called with the lock of the key's segment held
+    private void changed(Object key) {
+        if (!restoring) {
+            return;
+        }
+        keysChangedWhileRestoring.add(key);
+        if (keysChangedWhileRestoring.size() > settings.getMaxEntries()) {
+            // the region has been filled anew, whatever is left in the snapshot is not worth tracking
+            finishRestore();
+        }
+    }
+
+    private Object read(Object key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            CachedValue entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt - System.nanoTime() < 0) {
+                changed(key);
+                segment.remove(key);
+                expirationCount.increment();
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    @Nonnull
+    private Segment segmentFor(Object key) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * A cached value together with the wall clock time at which it expires, or {@code Long.MAX_VALUE} if it never does.
+     */
+    public static final class SnapshotEntry {
+        private final Object key;
+        private final Object value;
+        private final long expiresAtMillis;
+
+        public SnapshotEntry(@Nonnull Object key, @Nonnull Object value, long expiresAtMillis) {
+            this.key = requireNonNull(key, "Argument 'key' must not be null");
+            this.value = requireNonNull(value, "Argument 'value' must not be null");
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        @Nonnull
+        public Object getKey() {
+            return key;
+        }
+
+        @Nonnull
+        public Object getValue() {
+            return value;
+        }
+
+        public long getExpiresAtMillis() {
+            return expiresAtMillis;
+        }
+    }
+
+    private static final class CachedValue {
+        private final Object value;
+        private final long expiresAt;
+
+        private CachedValue(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Object, CachedValue> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, CachedValue> eldest) {
+            if (size() > capacity) {
+                changed(eldest.getKey());
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.cache;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.CollectionDataCachingConfig;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.cfg.spi.EntityDataCachingConfig;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * In-process {@code RegionFactory} whose regions are bounded in size and, optionally, in time. Settings may be given
+ * per region, or per entity and collection role for regions that keep their default name. The timestamps region is
+ * never bounded, as losing an entry would let the query cache return stale results.
+ * <p>
+ * Entity and collection regions may be persistent. Their entries are written to a {@link RegionSnapshot} on shutdown and
+ * restored after the next start. Query result regions are never persistent, as the timestamps they are checked against
+ * are not kept.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class BoundedRegionFactory extends RegionFactoryTemplate {
+    public static final String KEY_SECOND_LEVEL_CACHE = "second_level_cache";
+    public static final String KEY_CACHE_MAX_ENTRIES = "cache_max_entries";
+    public static final String KEY_CACHE_TTL = "cache_ttl";
+    public static final String KEY_CACHE_REGIONS = "cache_regions";
+    public static final String KEY_MAX_ENTRIES = "max_entries";
+    public static final String KEY_TTL = "ttl";
+    public static final String KEY_CACHE_PERSISTENT = "cache_persistent";
+    public static final String KEY_PERSISTENT = "persistent";
+    public static final String KEY_CACHE_SNAPSHOT_DIR = "cache_snapshot_dir";
+    public static final String KEY_QUERY_CACHE = "query_cache";
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 10000;
+    private static final long serialVersionUID = 1L;
+
+    private final RegionSettings defaultSettings;
+    private final Map<String, RegionSettings> regionSettings;
+    private final Map<String, BoundedRegion> regions = new ConcurrentHashMap<>();
+    private volatile RegionSnapshot snapshot;
+    private transient volatile Thread restoreThread;
+
+    public BoundedRegionFactory(@Nonnull RegionSettings defaultSettings, @Nonnull Map<String, RegionSettings> regionSettings) {
+        this.defaultSettings = requireNonNull(defaultSettings, "Argument 'defaultSettings' must not be null");
+        this.regionSettings = Collections.unmodifiableMap(new LinkedHashMap<>(requireNonNull(regionSettings, "Argument 'regionSettings' must not be null")));
+    }
+
+    @Nonnull
+    public Collection<BoundedRegion> getRegions() {
+        return new ArrayList<>(regions.values());
+    }
+
+    @Nullable
+    public BoundedRegion getRegion(@Nonnull String regionName) {
+        return regions.get(regionName);
+    }
+
+    @Nullable
+    public RegionSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(@Nullable RegionSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Stops restoring snapshot entries in every region.
+     */
+    public void finishRestore() {
+        for (BoundedRegion region : regions.values()) {
+            region.finishRestore();
+        }
+    }
+
+    /**
+     * Starts restoring the snapshot on the given thread, which is then tracked by this factory.
+     */
+    public void startRestore(@Nonnull Thread thread) {
+        requireNonNull(thread, "Argument 'thread' must not be null");
+        restoreThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Waits for the restore started with {@link #startRestore(Thread)} to finish.
+     *
+     * @return {@code true} if no restore is running anymore.
+     */
+    public boolean awaitRestore(long timeout) throws InterruptedException {
+        Thread thread = restoreThread;
+        if (thread != null) {
+            thread.join(Math.max(1L, timeout));
+            if (thread.isAlive()) {
+                return false;
+            }
+            restoreThread = null;
+        }
+        return true;
+    }
+
+    /**
+     * Stops a running restore and waits for it to leave the regions alone.
+     *
+     * @return {@code true} if no restore is running anymore.
+     */
+    public boolean cancelRestore(long timeout) {
+        finishRestore();
+        Thread thread = restoreThread;
+        if (thread == null) {
+            return true;
+        }
+
+        thread.interrupt();
+        try {
+            return awaitRestore(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return !thread.isAlive();
+        }
+    }
+
+    /**
+     * @return {@code true} if at least one region is persistent.
+     */
+    public boolean hasPersistentRegions() {
+        if (defaultSettings.isPersistent()) {
+            return true;
+        }
+        for (RegionSettings settings : regionSettings.values()) {
+            if (settings.isPersistent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void prepareForUse(SessionFactoryOptions settings, Map configValues) {
+        // regions are created on demand
+    }
+
+    @Override
+    protected void releaseFromUse() {
+        for (BoundedRegion region : regions.values()) {
+            region.release();
+        }
+        regions.clear();
+    }
+
+    @Override
+    protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig, DomainDataRegionBuildingContext buildingContext) {
+        RegionSettings settings = regionSettings.get(regionConfig.getRegionName());
+        for (EntityDataCachingConfig entityConfig : regionConfig.getEntityCaching()) {
+            if (settings == null) {
+                settings = regionSettings.get(entityConfig.getNavigableRole().getFullPath());
+            }
+        }
+        for (CollectionDataCachingConfig collectionConfig : regionConfig.getCollectionCaching()) {
+            if (settings == null) {
+                settings = regionSettings.get(collectionConfig.getNavigableRole().getFullPath());
+            }
+        }
+        return register(regionConfig.getRegionName(), BoundedRegion.Type.DOMAIN_DATA, settings != null ? settings : defaultSettings);
+    }
+
+    @Override
+    protected StorageAccess createQueryResultsRegionStorageAccess(String regionName, SessionFactoryImplementor sessionFactory) {
+        RegionSettings settings = regionSettings.get(regionName);
+        if (settings == null) {
+            settings = defaultSettings;
+        }
+        return register(regionName, BoundedRegion.Type.QUERY_RESULTS, new RegionSettings(settings.getMaxEntries(), settings.getTtlSeconds(), false));
+    }
+
+    @Override
+    protected StorageAccess createTimestampsRegionStorageAccess(String regionName, SessionFactoryImplementor sessionFactory) {
+        return register(regionName, BoundedRegion.Type.TIMESTAMPS, RegionSettings.UNBOUNDED);
+    }
+
+    @Nonnull
+    private BoundedRegion register(@Nonnull String regionName, @Nonnull BoundedRegion.Type type, @Nonnull RegionSettings settings) {
+        BoundedRegion region = new BoundedRegion(regionName, type, settings);
+        regions.put(regionName, region);
+        return region;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.cache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds of a cache region: the maximum number of entries and how long an entry may live after it was stored. Persistent
+ * regions are written to a snapshot when the application shuts down and filled from it on the next launch.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public final class RegionSettings {
+    public static final RegionSettings UNBOUNDED = new RegionSettings(Integer.MAX_VALUE, 0L);
+
+    private final int maxEntries;
+    private final long ttlSeconds;
+    private final boolean persistent;
+
+    public RegionSettings(int maxEntries, long ttlSeconds) {
+        this(maxEntries, ttlSeconds, false);
+    }
+
+    public RegionSettings(int maxEntries, long ttlSeconds, boolean persistent) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlSeconds = Math.max(0L, ttlSeconds);
+        this.persistent = persistent;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return time to live in seconds, zero if entries never expire
+     */
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    long getTtlNanos() {
+        return ttlSeconds > 0 ? TimeUnit.SECONDS.toNanos(ttlSeconds) : 0L;
+    }
+}
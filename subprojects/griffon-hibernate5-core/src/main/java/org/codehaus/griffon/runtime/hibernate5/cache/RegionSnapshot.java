@@ -0,0 +1,292 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.cache;
+
+import griffon.annotations.core.Nonnull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Persists the entries of persistent cache regions to a local file and reads them back on the next launch.
+ * <p>
+ * A snapshot starts with the mapping fingerprint of the SessionFactory that wrote it, followed by the entries of each
+ * region. Every entry is serialized on its own, so that an entry which cannot be written or read is skipped without
+ * losing the rest. A snapshot whose fingerprint differs from the current one is discarded.
+ * <p>
+ * Only the classes a cache entry may hold are read back: Hibernate's cache entries and keys, JDK value types, enums, and
+ * the mapped entity, embeddable and identifier classes. An entry referring to any other class is skipped.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class RegionSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(RegionSnapshot.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final String HIBERNATE_CACHE_PACKAGE = "org.hibernate.cache.";
+    private static final Set<String> VALUE_PACKAGES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "java.lang", "java.math", "java.sql", "java.time", "java.util")));
+
+    private final File file;
+    private final String fingerprint;
+    private final ClassLoader classLoader;
+
+    public RegionSnapshot(@Nonnull File file, @Nonnull String fingerprint, @Nonnull ClassLoader classLoader) {
+        this.file = requireNonNull(file, "Argument 'file' must not be null");
+        this.fingerprint = requireNonBlank(fingerprint, "Argument 'fingerprint' must not be blank");
+        this.classLoader = requireNonNull(classLoader, "Argument 'classLoader' must not be null");
+    }
+
+    @Nonnull
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the persistent regions of the given factory, replacing any previous snapshot.
+     *
+     * @return the number of entries written.
+     */
+    public int store(@Nonnull BoundedRegionFactory regionFactory) throws IOException {
+        Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(directory);
+        Path tmpFile = Files.createTempFile(directory, file.getName(), ".tmp");
+        int count = 0;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(fingerprint);
+                for (BoundedRegion region : regionFactory.getRegions()) {
+                    if (region.isPersistent()) {
+                        count += write(out, region);
+                    }
+                }
+            }
+            Files.move(tmpFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        return count;
+    }
+
+    /**
+     * Removes the snapshot, so that the next start begins with empty regions.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Fills the persistent regions of the given factory from the snapshot. Regions that no longer exist or are no
+     * longer persistent are skipped. Restoring is finished once this method returns; interrupting the calling thread
+     * stops it with an {@code InterruptedIOException}.
+     *
+     * @param mappedTypes the entity, embeddable and identifier classes of the SessionFactory.
+     * @return the number of entries read.
+     */
+    public int load(@Nonnull BoundedRegionFactory regionFactory, @Nonnull Collection<Class<?>> mappedTypes) throws IOException {
+        requireNonNull(mappedTypes, "Argument 'mappedTypes' must not be null");
+        try {
+            return doLoad(regionFactory, mappedTypes);
+        } catch (ClosedByInterruptException e) {
+            // the file channel is closed by the interrupt before the loop gets to check it
+            InterruptedIOException cancelled = new InterruptedIOException("Restoring " + file + " was cancelled");
+            cancelled.initCause(e);
+            throw cancelled;
+        } finally {
+            regionFactory.finishRestore();
+        }
+    }
+
+    private int doLoad(@Nonnull BoundedRegionFactory regionFactory, @Nonnull Collection<Class<?>> mappedTypes) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+
+        Set<String> allowedTypes = new HashSet<>();
+        for (Class<?> mappedType : mappedTypes) {
+            allowedTypes.add(mappedType.getName());
+        }
+
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != FORMAT_VERSION || !fingerprint.equals(in.readUTF())) {
+                LOG.debug("Discarding stale cache snapshot {}", file);
+                Files.deleteIfExists(file.toPath());
+                return 0;
+            }
+
+            while (true) {
+                String regionName;
+                try {
+                    regionName = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                int entries = in.readInt();
+                BoundedRegion region = regionFactory.getRegion(regionName);
+                boolean restoring = region != null && region.isPersistent();
+                for (int i = 0; i < entries; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Restoring " + file + " was cancelled");
+                    }
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    if (!restoring) {
+                        continue;
+                    }
+                    BoundedRegion.SnapshotEntry entry = read(bytes, allowedTypes);
+                    if (entry == null) {
+                        continue;
+                    }
+                    restoring = region.restore(entry);
+                    if (restoring) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private int write(@Nonnull DataOutputStream out, @Nonnull BoundedRegion region) throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entriesOut = new DataOutputStream(entries);
+        int count = 0;
+        for (BoundedRegion.SnapshotEntry entry : region.snapshot()) {
+            byte[] bytes = serialize(entry);
+            if (bytes != null) {
+                entriesOut.writeInt(bytes.length);
+                entriesOut.write(bytes);
+                count++;
+            }
+        }
+        entriesOut.flush();
+
+        out.writeUTF(region.getRegionName());
+        out.writeInt(count);
+        entries.writeTo(out);
+        return count;
+    }
+
+    private static byte[] serialize(@Nonnull BoundedRegion.SnapshotEntry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+            out.writeLong(entry.getExpiresAtMillis());
+        } catch (IOException e) {
+            LOG.debug("Skipping cache entry {} that cannot be serialized", entry.getKey(), e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private BoundedRegion.SnapshotEntry read(@Nonnull byte[] bytes, @Nonnull Set<String> allowedTypes) {
+        try (ObjectInputStream in = new SnapshotObjectInputStream(new ByteArrayInputStream(bytes), classLoader, allowedTypes)) {
+            Object key = in.readObject();
+            Object value = in.readObject();
+            return new BoundedRegion.SnapshotEntry(key, value, in.readLong());
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            LOG.debug("Skipping cache entry that cannot be deserialized", e);
+            return null;
+        }
+    }
+
+    private static boolean isAllowed(@Nonnull String className, @Nonnull Set<String> allowedTypes) {
+        String name = className;
+        while (name.startsWith("[")) {
+            name = name.substring(1);
+        }
+        if (name.length() == 1) {
+            // array of primitives
+            return true;
+        }
+        if (name.startsWith("L") && name.endsWith(";")) {
+            name = name.substring(1, name.length() - 1);
+        }
+
+        if (allowedTypes.contains(name) || name.startsWith(HIBERNATE_CACHE_PACKAGE) || "java.io.Serializable".equals(name)) {
+            return true;
+        }
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && VALUE_PACKAGES.contains(name.substring(0, dot));
+    }
+
+    private static final class SnapshotObjectInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+        private final Set<String> allowedTypes;
+
+        private SnapshotObjectInputStream(@Nonnull InputStream in, @Nonnull ClassLoader classLoader, @Nonnull Set<String> allowedTypes) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+            this.allowedTypes = allowedTypes;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            Class<?> type;
+            try {
+                type = Class.forName(desc.getName(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                type = super.resolveClass(desc);
+            }
+            Class<?> elementType = type;
+            while (elementType.isArray()) {
+                elementType = elementType.getComponentType();
+            }
+            // enum constants are resolved by name, they never run code of their own
+            if (!elementType.isEnum() && !isAllowed(desc.getName(), allowedTypes)) {
+                throw new InvalidClassException(desc.getName(), "not allowed in a cache snapshot");
+            }
+            return type;
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed in a cache snapshot");
+        }
+    }
+}
@@ -17,51 +17,158 @@
  */
 package org.codehaus.griffon.runtime.hibernate5.internal;
 
-import griffon.util.GriffonNameUtils;
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
 import org.codehaus.griffon.runtime.hibernate5.internal.exceptions.DatabaseException;
 import org.hibernate.dialect.Dialect;
 import org.hibernate.engine.jdbc.dialect.internal.StandardDialectResolver;
 import org.hibernate.engine.jdbc.dialect.spi.DatabaseMetaDataDialectResolutionInfoAdapter;
-import org.hibernate.engine.jdbc.dialect.spi.DialectResolutionInfo;
 import org.hibernate.engine.jdbc.dialect.spi.DialectResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
-import java.sql.Connection;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static griffon.util.GriffonNameUtils.isBlank;
 
 /**
+ * Resolves the Hibernate dialect of a {@code DataSource} using a single connection.
+ * <p>
+ * Resolved dialects may be cached by JDBC URL and driver version, in memory and optionally
+ * in a properties file, so that SessionFactories sharing a database (or later launches) do not
+ * need to connect again.
+ *
  * @author Andres Almiray
  */
 public class DialectDetector {
+    private static final Logger LOG = LoggerFactory.getLogger(DialectDetector.class);
+    private static final Map<String, String> DIALECTS = new ConcurrentHashMap<>();
+    private static final Object STORE_LOCK = new Object();
+
     private final DataSource dataSource;
     private final DialectResolver dialectResolver;
+    private final String cacheKey;
+    private final File storeFile;
 
     public DialectDetector(DataSource dataSource) {
+        this(dataSource, null, null);
+    }
+
+    /**
+     * @param dataSource the DataSource to inspect
+     * @param cacheKey   key used to cache the resolved dialect, see {@link #cacheKey(String)}. May be {@code null}.
+     * @param storeFile  properties file where resolved dialects are persisted. May be {@code null}.
+     */
+    public DialectDetector(@Nonnull DataSource dataSource, @Nullable String cacheKey, @Nullable File storeFile) {
         this.dataSource = dataSource;
         this.dialectResolver = new StandardDialectResolver();
+        this.cacheKey = cacheKey;
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * Computes a cache key from a JDBC URL and the version of the driver registered for it.
+     * No connection is opened.
+     *
+     * @param url the JDBC URL
+     * @return a cache key or {@code null} if no registered driver accepts the URL.
+     */
+    @Nullable
+    public static String cacheKey(@Nullable String url) {
+        if (isBlank(url)) {
+            return null;
+        }
+        try {
+            Driver driver = DriverManager.getDriver(url);
+            return url + "|" + driver.getClass().getName() + "|" + driver.getMajorVersion() + "." + driver.getMinorVersion();
+        } catch (SQLException e) {
+            LOG.debug("No registered JDBC driver accepts {}", url);
+            return null;
+        }
     }
 
     public String getDialect() {
-        Connection connection = null;
+        if (cacheKey != null) {
+            String dialect = DIALECTS.get(cacheKey);
+            if (dialect == null && storeFile != null) {
+                dialect = loadStore().getProperty(cacheKey);
+            }
+            if (dialect != null) {
+                LOG.debug("Using cached dialect {} for {}", dialect, cacheKey);
+                DIALECTS.put(cacheKey, dialect);
+                return dialect;
+            }
+        }
 
-        try {
-            String dbName = (String) JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName");
-            connection = dataSource.getConnection();
+        String dialect = detectDialect();
+        if (cacheKey != null) {
+            DIALECTS.put(cacheKey, dialect);
+            if (storeFile != null) {
+                store(dialect);
+            }
+        }
+        return dialect;
+    }
 
-            DialectResolutionInfo dialectResolutionInfo = new DatabaseMetaDataDialectResolutionInfoAdapter(connection.getMetaData());
-            Dialect hibernateDialect = dialectResolver.resolveDialect(dialectResolutionInfo);
-            String hibernateDialectClassName = hibernateDialect.getClass().getName();
+    @Nonnull
+    private String detectDialect() {
+        return (String) JdbcUtils.extractDatabaseMetaData(dataSource, new DatabaseMetaDataCallback() {
+            @Override
+            public Object processMetaData(DatabaseMetaData dbmd) throws SQLException {
+                Dialect hibernateDialect = dialectResolver.resolveDialect(new DatabaseMetaDataDialectResolutionInfoAdapter(dbmd));
+                if (hibernateDialect == null) {
+                    throw new DatabaseException(
+                        "Could not determine Hibernate dialect for database name [" + dbmd.getDatabaseProductName() + "]!");
+                }
+                return hibernateDialect.getClass().getName();
+            }
+        });
+    }
 
-            if (GriffonNameUtils.isBlank(hibernateDialectClassName)) {
-                throw new DatabaseException(
-                    "Could not determine Hibernate dialect for database name [" + dbName + "]!");
+    @Nonnull
+    private Properties loadStore() {
+        Properties properties = new Properties();
+        synchronized (STORE_LOCK) {
+            if (storeFile.isFile()) {
+                try (InputStream in = Files.newInputStream(storeFile.toPath())) {
+                    properties.load(in);
+                } catch (IOException e) {
+                    LOG.warn("Could not read dialect cache {}", storeFile, e);
+                }
             }
+        }
+        return properties;
+    }
 
-            return hibernateDialectClassName;
-        } catch (SQLException e) {
-            throw new DatabaseException(e);
-        } finally {
-            JdbcUtils.closeConnection(connection);
+    private void store(@Nonnull String dialect) {
+        synchronized (STORE_LOCK) {
+            Properties properties = loadStore();
+            properties.setProperty(cacheKey, dialect);
+            try {
+                Path directory = storeFile.getAbsoluteFile().getParentFile().toPath();
+                Files.createDirectories(directory);
+                Path tmpFile = Files.createTempFile(directory, storeFile.getName(), ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                    properties.store(out, "Hibernate dialects by JDBC URL and driver version");
+                }
+                Files.move(tmpFile, storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOG.warn("Could not write dialect cache {}", storeFile, e);
+            }
         }
     }
 }
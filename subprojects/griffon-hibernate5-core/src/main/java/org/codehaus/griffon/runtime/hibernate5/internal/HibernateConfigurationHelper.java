@@ -18,27 +18,54 @@
 package org.codehaus.griffon.runtime.hibernate5.internal;
 
 import griffon.core.GriffonApplication;
-import griffon.plugins.hibernate5.Hibernate5Mapping;
+import griffon.core.env.Metadata;
+import griffon.plugins.datasource.DataSourceFactory;
+import griffon.plugins.hibernate5.Hibernate5TenantDataSourceFactory;
 import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception;
+import org.codehaus.griffon.runtime.hibernate5.NPlusOneDetector;
+import org.codehaus.griffon.runtime.hibernate5.SlowQueryLog;
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegionFactory;
+import org.codehaus.griffon.runtime.hibernate5.cache.RegionSettings;
+import org.codehaus.griffon.runtime.hibernate5.cache.RegionSnapshot;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.DefaultTenantResolver;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.NamedTenantDataSourceFactory;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.TenantConnectionProvider;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.TenantDataSourceCache;
 import org.hibernate.HibernateException;
 import org.hibernate.Interceptor;
+import org.hibernate.MultiTenancyStrategy;
 import org.hibernate.boot.model.naming.ImplicitNamingStrategy;
 import org.hibernate.boot.model.naming.PhysicalNamingStrategy;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.cfg.Environment;
-import org.kordamp.jipsy.util.TypeLoader;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
 import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
 import static griffon.util.ConfigUtils.getConfigValue;
 import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
 import static griffon.util.ConfigUtils.getConfigValueAsString;
 import static griffon.util.GriffonNameUtils.isBlank;
 
@@ -58,6 +85,19 @@ public class HibernateConfigurationHelper {
     public static final String MAP_CLASSES_PATTERN = "mapClassesPattern";
     public static final String CURRENT_SESSION_CONTEXT = "currentSessionContext";
     public static final String PROVIDER_CLASS = "provider_class";
+    public static final String MAPPING_CACHE = "mapping_cache";
+    public static final String MAPPING_CACHE_DIR = "mapping_cache_dir";
+    public static final String DIALECT_CACHE = "dialect_cache";
+    public static final String DIALECT_CACHE_FILE = "dialect_cache_file";
+    public static final String BATCH_SIZE = "batch_size";
+    public static final String BATCH_COMMIT_SIZE = "batch_commit_size";
+    public static final String STREAM_FETCH_SIZE = "stream_fetch_size";
+    public static final String STATISTICS = "statistics";
+    public static final String MULTI_TENANCY = "multi_tenancy";
+    public static final String DEFAULT_TENANT = "default_tenant";
+    public static final String TENANT_RESOLVER = "tenant_resolver";
+    public static final String TENANT_DATA_SOURCE_FACTORY = "tenant_data_source_factory";
+    public static final String TENANT_CACHE_SIZE = "tenant_cache_size";
     private static final Logger LOG = LoggerFactory.getLogger(HibernateConfigurationHelper.class);
     private static final String HBM_XML_SUFFIX = ".hbm.xml";
     private static Map<String, String> groovyToHibernateConfigurationName;
@@ -77,6 +117,12 @@ public class HibernateConfigurationHelper {
     private final GriffonApplication application;
     private final Map<String, String> dataSourceConfiguration;
 
+    @Inject
+    private Metadata metadata;
+
+    @Inject
+    private DataSourceFactory dataSourceFactory;
+
     public HibernateConfigurationHelper(GriffonApplication application, Map<String, Object> sessionConfig, String dataSourceName, DataSource dataSource, Map dataSources) {
         this.application = application;
         this.sessionConfig = sessionConfig;
@@ -100,6 +146,12 @@ public class HibernateConfigurationHelper {
         applyEntityInterceptor(config);
         applyNamingStrategy(config);
         applyProperties(config);
+        applyBatching(config);
+        applyStatistics(config);
+        applySlowQueryLog(config);
+        applyNPlusOneDetector(config);
+        applySecondLevelCache(config);
+        applyMultiTenancy(config);
         applyDialect(config);
         applyMappings(config);
         applySessionContext(config);
@@ -166,6 +218,161 @@ public class HibernateConfigurationHelper {
         }
     }
 
+    private void applyBatching(Configuration config) {
+        int batchSize = getConfigValueAsInt(sessionConfig, BATCH_SIZE, 0);
+        if (batchSize > 0) {
+            // explicit values given via props take precedence
+            setPropertyIfAbsent(config, Environment.STATEMENT_BATCH_SIZE, String.valueOf(batchSize));
+            setPropertyIfAbsent(config, Environment.ORDER_INSERTS, "true");
+            setPropertyIfAbsent(config, Environment.ORDER_UPDATES, "true");
+        }
+    }
+
+    private void applyStatistics(Configuration config) {
+        if (getConfigValueAsBoolean(sessionConfig, STATISTICS, false)) {
+            config.setProperty(Environment.GENERATE_STATISTICS, "true");
+        }
+    }
+
+    private void applySlowQueryLog(Configuration config) {
+        if (getConfigValueAsBoolean(sessionConfig, SlowQueryLog.KEY_SLOW_QUERY_LOG, false)) {
+            config.getProperties().put(Environment.STATEMENT_INSPECTOR, new SlowQueryLog(dataSourceName,
+                getConfigValueAsLong(sessionConfig, SlowQueryLog.KEY_SLOW_QUERY_THRESHOLD, SlowQueryLog.DEFAULT_SLOW_QUERY_THRESHOLD),
+                getConfigValueAsInt(sessionConfig, SlowQueryLog.KEY_SLOW_QUERY_TOP, SlowQueryLog.DEFAULT_SLOW_QUERY_TOP),
+                resolveStatementInspector(config)));
+        }
+    }
+
+    private void applyNPlusOneDetector(Configuration config) {
+        int threshold = getConfigValueAsInt(sessionConfig, NPlusOneDetector.KEY_N_PLUS_ONE_THRESHOLD, 0);
+        if (threshold > 0) {
+            config.getProperties().put(Environment.STATEMENT_INSPECTOR, new NPlusOneDetector(dataSourceName,
+                threshold,
+                NPlusOneDetector.Action.of(getConfigValueAsString(sessionConfig, NPlusOneDetector.KEY_N_PLUS_ONE_ACTION, null)),
+                application.getEventRouter(),
+                resolveStatementInspector(config)));
+        }
+    }
+
+    private void applySecondLevelCache(Configuration config) {
+        if (!getConfigValueAsBoolean(sessionConfig, BoundedRegionFactory.KEY_SECOND_LEVEL_CACHE, false)) {
+            return;
+        }
+
+        RegionSettings defaultSettings = new RegionSettings(
+            getConfigValueAsInt(sessionConfig, BoundedRegionFactory.KEY_CACHE_MAX_ENTRIES, BoundedRegionFactory.DEFAULT_CACHE_MAX_ENTRIES),
+            getConfigValueAsLong(sessionConfig, BoundedRegionFactory.KEY_CACHE_TTL, 0L),
+            getConfigValueAsBoolean(sessionConfig, BoundedRegionFactory.KEY_CACHE_PERSISTENT, false));
+        Map<String, RegionSettings> regionSettings = new LinkedHashMap<>();
+        Map<String, Object> regions = getConfigValue(sessionConfig, BoundedRegionFactory.KEY_CACHE_REGIONS, Collections.<String, Object>emptyMap());
+        for (Map.Entry<String, Object> region : regions.entrySet()) {
+            if (region.getValue() instanceof Map) {
+                Map<String, Object> settings = (Map<String, Object>) region.getValue();
+                regionSettings.put(region.getKey(), new RegionSettings(
+                    getConfigValueAsInt(settings, BoundedRegionFactory.KEY_MAX_ENTRIES, defaultSettings.getMaxEntries()),
+                    getConfigValueAsLong(settings, BoundedRegionFactory.KEY_TTL, defaultSettings.getTtlSeconds()),
+                    getConfigValueAsBoolean(settings, BoundedRegionFactory.KEY_PERSISTENT, defaultSettings.isPersistent())));
+            }
+        }
+
+        // a region factory given via props takes precedence
+        if (config.getProperties().get(Environment.CACHE_REGION_FACTORY) == null) {
+            BoundedRegionFactory regionFactory = new BoundedRegionFactory(defaultSettings, regionSettings);
+            if (regionFactory.hasPersistentRegions()) {
+                regionFactory.setSnapshot(createRegionSnapshot());
+            }
+            config.getProperties().put(Environment.CACHE_REGION_FACTORY, regionFactory);
+        }
+        setPropertyIfAbsent(config, Environment.USE_SECOND_LEVEL_CACHE, "true");
+        // results of cacheable queries are dropped once a table they read from is written
+        if (getConfigValueAsBoolean(sessionConfig, BoundedRegionFactory.KEY_QUERY_CACHE, false)) {
+            setPropertyIfAbsent(config, Environment.USE_QUERY_CACHE, "true");
+        }
+    }
+
+    private void applyMultiTenancy(Configuration config) {
+        String value = getConfigValueAsString(sessionConfig, MULTI_TENANCY, null);
+        if (isBlank(value) || config.getProperties().get(Environment.MULTI_TENANT) != null) {
+            return;
+        }
+
+        MultiTenancyStrategy strategy = MultiTenancyStrategy.fromConfigValue(value);
+        Collection<?> tenants = resolveTenants();
+        TenantDataSourceCache tenantDataSources = null;
+        if (strategy == MultiTenancyStrategy.DATABASE) {
+            tenantDataSources = new TenantDataSourceCache(dataSourceName, resolveTenantDataSourceFactory(tenants),
+                getConfigValueAsInt(sessionConfig, TENANT_CACHE_SIZE, TenantDataSourceCache.DEFAULT_MAX_SIZE));
+        } else if (strategy != MultiTenancyStrategy.SCHEMA) {
+            throw new IllegalArgumentException("Unsupported value for " + MULTI_TENANCY + ": " + value);
+        }
+        config.getProperties().put(Environment.MULTI_TENANT, strategy);
+        config.getProperties().put(Environment.MULTI_TENANT_CONNECTION_PROVIDER, new TenantConnectionProvider(dataSourceName, strategy, dataSource, tenantDataSources, tenants));
+
+        // sessions opened without a tenant, bootstraps included, need a resolver
+        Object resolver = getConfigValue(sessionConfig, TENANT_RESOLVER, null);
+        String defaultTenant = getConfigValueAsString(sessionConfig, DEFAULT_TENANT, null);
+        if (resolver == null && !isBlank(defaultTenant)) {
+            resolver = new DefaultTenantResolver(defaultTenant);
+        }
+        if (resolver != null) {
+            config.getProperties().put(Environment.MULTI_TENANT_IDENTIFIER_RESOLVER, resolver);
+        }
+    }
+
+    private Collection<?> resolveTenants() {
+        Object tenants = getConfigValue(sessionConfig, NamedTenantDataSourceFactory.KEY_TENANTS, null);
+        if (tenants != null && !(tenants instanceof Collection)) {
+            throw new IllegalArgumentException("Invalid value for " + NamedTenantDataSourceFactory.KEY_TENANTS + ", expected a list of tenant ids but got " + tenants);
+        }
+        return tenants != null ? (Collection<?>) tenants : Collections.emptyList();
+    }
+
+    private Hibernate5TenantDataSourceFactory resolveTenantDataSourceFactory(Collection<?> tenants) {
+        Object factory = getConfigValue(sessionConfig, TENANT_DATA_SOURCE_FACTORY, null);
+        if (factory instanceof Class) {
+            factory = newInstanceOf((Class) factory);
+        } else if (factory instanceof String) {
+            factory = newInstanceOf((String) factory);
+        } else if (factory == null) {
+            factory = new NamedTenantDataSourceFactory(dataSourceFactory, tenants,
+                getConfigValueAsString(sessionConfig, NamedTenantDataSourceFactory.KEY_TENANT_DATA_SOURCE_PREFIX, null));
+        }
+        return (Hibernate5TenantDataSourceFactory) factory;
+    }
+
+    private RegionSnapshot createRegionSnapshot() {
+        ClassLoader classLoader = application.getApplicationClassLoader().get();
+        File directory = new File(resolveDirectory(BoundedRegionFactory.KEY_CACHE_SNAPSHOT_DIR), dataSourceName);
+        try {
+            // the snapshot is only valid for the mappings it was taken with
+            Object mapClasses = getConfigValue(sessionConfig, MAP_CLASSES_PATTERN, Pattern.compile(".*"));
+            List<String> mappings = getConfigValue(sessionConfig, "mappings", Collections.<String>emptyList());
+            String fingerprint = new MappingCache(directory.getParentFile(), dataSourceName).fingerprint(classLoader,
+                mapClasses, resolveMappings(classLoader, mapClasses, mappings));
+            return new RegionSnapshot(new File(directory, "cache.snapshot"), fingerprint, classLoader);
+        } catch (IOException e) {
+            LOG.warn("Could not fingerprint the mappings of '{}', cache regions will not be persisted", dataSourceName, e);
+            return null;
+        }
+    }
+
+    private StatementInspector resolveStatementInspector(Configuration config) {
+        // an inspector given via props keeps working, the plugin's inspectors delegate to it
+        Object inspector = config.getProperties().get(Environment.STATEMENT_INSPECTOR);
+        if (inspector instanceof Class) {
+            inspector = newInstanceOf((Class) inspector);
+        } else if (inspector instanceof String) {
+            inspector = newInstanceOf((String) inspector);
+        }
+        return (StatementInspector) inspector;
+    }
+
+    private void setPropertyIfAbsent(Configuration config, String key, String value) {
+        if (config.getProperty(key) == null) {
+            config.setProperty(key, value);
+        }
+    }
+
     private void applyProperties(Configuration config) {
         Object props = getConfigValue(sessionConfig, PROPS, null);
         if (props instanceof Properties) {
@@ -193,17 +400,23 @@ public class HibernateConfigurationHelper {
         } else if (dialect != null) {
             config.setProperty("hibernate.dialect", dialect.toString());
         } else {
-            DialectDetector dialectDetector = new DialectDetector(dataSource);
+            String cacheKey = null;
+            if (getConfigValueAsBoolean(sessionConfig, DIALECT_CACHE, true) && dataSourceConfiguration != null) {
+                Object url = ((Map) dataSourceConfiguration).get("url");
+                cacheKey = DialectDetector.cacheKey(url != null ? String.valueOf(url) : null);
+            }
+            String storeFile = getConfigValueAsString(sessionConfig, DIALECT_CACHE_FILE, null);
+            DialectDetector dialectDetector = new DialectDetector(dataSource, cacheKey, isBlank(storeFile) ? null : new File(storeFile));
             config.setProperty("hibernate.dialect", dialectDetector.getDialect());
         }
     }
 
-    private boolean matchMapClassPattern(Object pattern, String line) {
+    private Pattern toPattern(Object pattern) {
         if (pattern instanceof Pattern)
-            return ((Pattern) pattern).matcher(line).matches();
+            return (Pattern) pattern;
         else if (pattern instanceof String)
-            return Pattern.compile((String) pattern).matcher(line).matches();
-        return false;
+            return Pattern.compile((String) pattern);
+        return null;
     }
 
     private void addAnnotatedClass(final Configuration configuration, ClassLoader classLoader, String className) {
@@ -217,32 +430,104 @@ public class HibernateConfigurationHelper {
     }
 
     private void applyMappings(final Configuration config) {
+        final ClassLoader classLoader = application.getApplicationClassLoader().get();
         final Object mapClasses = getConfigValue(sessionConfig, MAP_CLASSES_PATTERN, Pattern.compile(".*"));
-        TypeLoader.load(application.getApplicationClassLoader().get(), "META-INF/types", Hibernate5Mapping.class, new TypeLoader.LineProcessor() {
-            @Override
-            public void process(ClassLoader classLoader, Class<?> type, String line) {
-                String originalName = line.trim();
-
-                if (isBlank(originalName) || !matchMapClassPattern(mapClasses, originalName)) return;
-                line = originalName.replace('.', '/');
-                LOG.debug("Registering {} as hibernate resource", line + HBM_XML_SUFFIX);
-                if (classLoader.getResource(line + HBM_XML_SUFFIX) != null)
-                    config.addResource(line + HBM_XML_SUFFIX);
-                else {
-                    addAnnotatedClass(config, classLoader, originalName);
+        final List<String> mappings = getConfigValue(sessionConfig, "mappings", Collections.<String>emptyList());
+
+        List<MappingEntry> entries = resolveMappings(classLoader, mapClasses, mappings);
+        if (getConfigValueAsBoolean(sessionConfig, MAPPING_CACHE, false)) {
+            MappingCache mappingCache = new MappingCache(resolveDirectory(MAPPING_CACHE_DIR), dataSourceName);
+            try {
+                String fingerprint = mappingCache.fingerprint(classLoader, mapClasses, entries);
+                if (mappingCache.load(fingerprint) == null) {
+                    mappingCache.store(fingerprint, classLoader, entries);
+                } else {
+                    LOG.debug("Using cached mappings from {}", mappingCache.getDirectory());
                 }
+                applyMappings(config, classLoader, entries, mappingCache);
+                return;
+            } catch (IOException e) {
+                LOG.warn("Could not use mapping cache at {}", mappingCache.getDirectory(), e);
+            }
+        }
 
+        applyMappings(config, classLoader, entries, null);
+    }
+
+    private void applyMappings(Configuration config, ClassLoader classLoader, List<MappingEntry> entries, MappingCache mappingCache) {
+        for (MappingEntry entry : entries) {
+            if (entry.getType() == MappingEntry.Type.ANNOTATED) {
+                addAnnotatedClass(config, classLoader, entry.getName());
+                continue;
             }
-        });
 
-        for (String mapping : getConfigValue(sessionConfig, "mappings", Collections.<String>emptyList())) {
+            LOG.debug("Registering {} as hibernate resource", entry.getName());
+            File hbmFile = mappingCache != null ? mappingCache.getHbmFile(entry.getName()) : null;
+            if (hbmFile != null) {
+                config.addCacheableFile(hbmFile);
+            } else {
+                config.addResource(entry.getName());
+            }
+        }
+    }
+
+    private List<MappingEntry> resolveMappings(ClassLoader applicationClassLoader, Object mapClasses, List<String> mappings) {
+        final List<MappingEntry> entries = new ArrayList<>();
+        final Pattern mapClassesPattern = toPattern(mapClasses);
+        final MappingIndex mappingIndex = MappingIndex.load(applicationClassLoader);
+        // classes indexed at build time need no classloader probing
+        for (MappingIndex.Entry indexed : mappingIndex.getEntries()) {
+            if (indexed.belongsTo(dataSourceName, mapClassesPattern)) {
+                entries.add(indexed.toMappingEntry(applicationClassLoader));
+            }
+        }
+
+        // classes missing from the index (stale, partial or absent) are resolved as before
+        try {
+            Enumeration<URL> types = applicationClassLoader.getResources(MappingIndex.TYPES_RESOURCE);
+            while (types.hasMoreElements()) {
+                resolveMappings(applicationClassLoader, types.nextElement(), mapClassesPattern, mappingIndex, entries);
+            }
+        } catch (IOException e) {
+            throw new RuntimeHibernate5Exception(dataSourceName, e);
+        }
+
+        for (String mapping : mappings) {
             mapping = mapping.replace('.', '/');
             if (!mapping.endsWith(HBM_XML_SUFFIX)) {
                 mapping = mapping + HBM_XML_SUFFIX;
             }
-            LOG.debug("Registering {} as hibernate resource", mapping);
-            config.addResource(mapping);
+            entries.add(MappingEntry.hbm(mapping));
+        }
+        return entries;
+    }
+
+    private void resolveMappings(ClassLoader classLoader, URL types, Pattern mapClassesPattern, MappingIndex mappingIndex, List<MappingEntry> entries) throws IOException {
+        try (InputStream in = types.openStream();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String originalName = line.trim();
+                if (isBlank(originalName) || originalName.startsWith("#")) continue;
+                if (mapClassesPattern == null || !mapClassesPattern.matcher(originalName).matches()) continue;
+                if (mappingIndex.get(originalName) != null) continue;
+
+                String resource = originalName.replace('.', '/') + HBM_XML_SUFFIX;
+                if (classLoader.getResource(resource) != null) {
+                    entries.add(MappingEntry.hbm(resource));
+                } else {
+                    entries.add(MappingEntry.annotated(originalName));
+                }
+            }
+        }
+    }
+
+    private File resolveDirectory(String key) {
+        String directory = getConfigValueAsString(sessionConfig, key, null);
+        if (!isBlank(directory)) {
+            return new File(directory);
         }
+        return new File(System.getProperty("user.home"), ".griffon" + File.separator + "hibernate5" + File.separator + metadata.getApplicationName());
     }
 
     private Object newInstanceOf(String className) {
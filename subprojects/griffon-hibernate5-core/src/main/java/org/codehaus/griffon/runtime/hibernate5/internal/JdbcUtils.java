@@ -188,4 +188,53 @@ public abstract class JdbcUtils {
                 }
             });
     }
+
+    /**
+     * Extract the maximum number of connections of a pooling DataSource. HikariCP, c3p0, DBCP and the Tomcat
+     * JDBC pool are recognized.
+     *
+     * @param dataSource the DataSource to inspect
+     * @return the maximum pool size, or <code>-1</code> if the DataSource does not expose one
+     */
+    public static int getMaximumPoolSize(DataSource dataSource) {
+        for (String methodName : new String[]{"getMaximumPoolSize", "getMaxPoolSize", "getMaxTotal", "getMaxActive"}) {
+            try {
+                Object size = dataSource.getClass().getMethod(methodName).invoke(dataSource);
+                if (size instanceof Number && ((Number) size).intValue() > 0) {
+                    return ((Number) size).intValue();
+                }
+            } catch (NoSuchMethodException ex) {
+                // try the next pool implementation
+            } catch (IllegalAccessException | InvocationTargetException | RuntimeException ex) {
+                LOG.debug("Could not invoke {} on {}", methodName, dataSource, ex);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Close a connection whose state could not be restored, so that its pool does not hand it out again. HikariCP
+     * evicts it; other pools drop a connection whose physical connection was aborted once they get it back.
+     *
+     * @param dataSource the DataSource the connection was obtained from
+     * @param con        the JDBC Connection to discard
+     */
+    public static void discardConnection(DataSource dataSource, Connection con) {
+        try {
+            dataSource.getClass().getMethod("evictConnection", Connection.class).invoke(dataSource, con);
+            return;
+        } catch (NoSuchMethodException ex) {
+            // not a HikariCP DataSource
+        } catch (IllegalAccessException | InvocationTargetException | RuntimeException ex) {
+            LOG.debug("Could not evict JDBC Connection from {}", dataSource, ex);
+        }
+
+        try {
+            con.abort(Runnable::run);
+        } catch (SQLException | RuntimeException | AbstractMethodError ex) {
+            LOG.debug("Could not abort JDBC Connection", ex);
+        } finally {
+            closeConnection(con);
+        }
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.internal;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.hibernate.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Persists the mappings resolved for a SessionFactory. Each {@code hbm.xml} resource is extracted next to
+ * the cache file and registered as a cacheable file, letting later launches reuse the binding serialized by
+ * Hibernate instead of parsing the XML again.
+ * <p>
+ * Cached data is keyed by a fingerprint of the resolved mappings, the contents of every {@code hbm.xml}
+ * resource among them, the {@code META-INF/types} and build time mapping indices, the mapping settings of
+ * the SessionFactory and the Hibernate version.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class MappingCache {
+    private static final Logger LOG = LoggerFactory.getLogger(MappingCache.class);
+    private static final String CACHE_FILE = "mappings.cache";
+    private static final String HBM_DIRECTORY = "hbm";
+    private static final String KEY_FINGERPRINT = "fingerprint=";
+    private static final String FORMAT_VERSION = "2";
+
+    private final File directory;
+
+    public MappingCache(@Nonnull File baseDirectory, @Nonnull String sessionFactoryName) {
+        requireNonNull(baseDirectory, "Argument 'baseDirectory' must not be null");
+        this.directory = new File(baseDirectory, requireNonBlank(sessionFactoryName, "Argument 'sessionFactoryName' must not be blank"));
+    }
+
+    @Nonnull
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Nonnull
+    public String fingerprint(@Nonnull ClassLoader classLoader, @Nullable Object mapClassesPattern, @Nonnull Collection<MappingEntry> entries) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, FORMAT_VERSION);
+        update(digest, Version.getVersionString());
+        update(digest, mapClassesPattern instanceof Pattern ? ((Pattern) mapClassesPattern).pattern() : String.valueOf(mapClassesPattern));
+        for (MappingEntry entry : entries) {
+            update(digest, entry.getType().name());
+            update(digest, entry.getName());
+            if (entry.getType() == MappingEntry.Type.HBM) {
+                // an edited hbm.xml keeps its name, only its contents tell the change apart
+                if (!update(digest, classLoader, entry.getName())) {
+                    throw new IOException("Mapping resource " + entry.getName() + " could not be found");
+                }
+            }
+        }
+
+        update(digest, classLoader, MappingIndex.TYPES_RESOURCE);
+        update(digest, classLoader, MappingIndex.RESOURCE);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Reads cached mappings.
+     *
+     * @param fingerprint the expected fingerprint
+     * @return the cached mappings or {@code null} if there are none or they are stale.
+     */
+    @Nullable
+    public List<MappingEntry> load(@Nonnull String fingerprint) {
+        File cacheFile = new File(directory, CACHE_FILE);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        List<MappingEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(KEY_FINGERPRINT + fingerprint)) {
+                LOG.debug("Discarding stale mapping cache {}", cacheFile);
+                return null;
+            }
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('=');
+                if (separator < 0) {
+                    continue;
+                }
+                MappingEntry.Type type = MappingEntry.Type.valueOf(line.substring(0, separator));
+                String name = line.substring(separator + 1);
+                entries.add(type == MappingEntry.Type.HBM ? MappingEntry.hbm(name) : MappingEntry.annotated(name));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Could not read mapping cache {}", cacheFile, e);
+            return null;
+        }
+        return entries;
+    }
+
+    public void store(@Nonnull String fingerprint, @Nonnull ClassLoader classLoader, @Nonnull List<MappingEntry> entries) throws IOException {
+        Files.createDirectories(directory.toPath());
+        for (MappingEntry entry : entries) {
+            if (entry.getType() == MappingEntry.Type.HBM) {
+                extract(classLoader, entry.getName());
+            }
+        }
+
+        Path cacheFile = new File(directory, CACHE_FILE).toPath();
+        Path tmpFile = Files.createTempFile(directory.toPath(), CACHE_FILE, ".tmp");
+        List<String> lines = new ArrayList<>();
+        lines.add(KEY_FINGERPRINT + fingerprint);
+        for (MappingEntry entry : entries) {
+            lines.add(entry.getType().name() + "=" + entry.getName());
+        }
+        Files.write(tmpFile, lines, StandardCharsets.UTF_8);
+        Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Resolves the extracted copy of a {@code hbm.xml} resource. Files are extracted when mappings are stored.
+     *
+     * @param resource the classpath resource of the mapping
+     * @return the extracted file, or {@code null} if it is missing.
+     */
+    @Nullable
+    public File getHbmFile(@Nonnull String resource) {
+        File file = new File(new File(directory, HBM_DIRECTORY), resource);
+        return file.isFile() ? file : null;
+    }
+
+    private void extract(@Nonnull ClassLoader classLoader, @Nonnull String resource) throws IOException {
+        File file = new File(new File(directory, HBM_DIRECTORY), resource);
+        Files.createDirectories(file.getParentFile().toPath());
+        try (InputStream in = classLoader.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Mapping resource " + resource + " could not be found");
+            }
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // drop the binding serialized by Hibernate for the previous copy
+        Files.deleteIfExists(new File(file.getPath() + ".bin").toPath());
+    }
+
+    private static boolean update(@Nonnull MessageDigest digest, @Nonnull ClassLoader classLoader, @Nonnull String resource) throws IOException {
+        boolean found = false;
+        Enumeration<URL> indices = classLoader.getResources(resource);
+        while (indices.hasMoreElements()) {
+            found = true;
+            URL index = indices.nextElement();
+            URLConnection connection = index.openConnection();
+            connection.setUseCaches(false);
+            update(digest, index.toExternalForm());
+            update(digest, String.valueOf(connection.getLastModified()));
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static void update(@Nonnull MessageDigest digest, @Nonnull String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    @Nonnull
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
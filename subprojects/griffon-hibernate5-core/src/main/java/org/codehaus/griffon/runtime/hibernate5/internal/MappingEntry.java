@@ -0,0 +1,87 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.internal;
+
+import griffon.annotations.core.Nonnull;
+
+import java.util.Objects;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A resolved Hibernate mapping, either a {@code hbm.xml} resource or an annotated class.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public final class MappingEntry {
+    public enum Type {
+        HBM,
+        ANNOTATED
+    }
+
+    private final Type type;
+    private final String name;
+
+    private MappingEntry(@Nonnull Type type, @Nonnull String name) {
+        this.type = requireNonNull(type, "Argument 'type' must not be null");
+        this.name = requireNonBlank(name, "Argument 'name' must not be blank");
+    }
+
+    @Nonnull
+    public static MappingEntry hbm(@Nonnull String resource) {
+        return new MappingEntry(Type.HBM, resource);
+    }
+
+    @Nonnull
+    public static MappingEntry annotated(@Nonnull String className) {
+        return new MappingEntry(Type.ANNOTATED, className);
+    }
+
+    @Nonnull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the resource path of a {@code HBM} mapping or the class name of an {@code ANNOTATED} one.
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MappingEntry that = (MappingEntry) o;
+        return type == that.type && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, name);
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + name;
+    }
+}
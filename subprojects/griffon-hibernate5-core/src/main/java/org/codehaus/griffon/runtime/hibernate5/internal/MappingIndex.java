@@ -0,0 +1,203 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.internal;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import griffon.plugins.hibernate5.Hibernate5Mapping;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static griffon.util.GriffonNameUtils.isBlank;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Mapping metadata computed at build time for classes implementing {@code Hibernate5Mapping}.
+ * <p>
+ * Index files are located at {@value #RESOURCE}. Each line has the form
+ * {@code className=HBM|ANNOTATED|UNRESOLVED[;sessionFactory,...]}. An entry without SessionFactory names is
+ * matched against the {@code mapClassesPattern} setting of every SessionFactory. {@code UNRESOLVED} classes had
+ * neither persistence annotations nor a visible {@code hbm.xml} resource at build time, their mapping is looked up
+ * on the classpath at runtime.
+ * <p>
+ * The index only saves classpath lookups; classes listed by {@value #TYPES_RESOURCE} but missing from the index are
+ * still resolved at runtime.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public final class MappingIndex {
+    public static final String RESOURCE = "META-INF/griffon/hibernate5/mappings";
+    public static final String TYPES_RESOURCE = "META-INF/types/" + Hibernate5Mapping.class.getName();
+    private static final Logger LOG = LoggerFactory.getLogger(MappingIndex.class);
+    public static final String UNRESOLVED = "UNRESOLVED";
+    private static final String HBM_XML_SUFFIX = ".hbm.xml";
+
+    private final Map<String, Entry> entries;
+
+    private MappingIndex(@Nonnull Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    @Nonnull
+    public static MappingIndex load(@Nonnull ClassLoader classLoader) {
+        requireNonNull(classLoader, "Argument 'classLoader' must not be null");
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try {
+            Enumeration<URL> indices = classLoader.getResources(RESOURCE);
+            while (indices.hasMoreElements()) {
+                URL index = indices.nextElement();
+                try (InputStream in = index.openStream();
+                     BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Entry entry = Entry.parse(line);
+                        if (entry != null) {
+                            entries.put(entry.getClassName(), entry);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Could not read mapping index {}", RESOURCE, e);
+            entries.clear();
+        }
+        return new MappingIndex(entries);
+    }
+
+    @Nullable
+    public Entry get(@Nonnull String className) {
+        return entries.get(className);
+    }
+
+    @Nonnull
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public static final class Entry {
+        private final String className;
+        private final MappingEntry.Type type;
+        private final Set<String> sessionFactoryNames;
+
+        /**
+         * @param type the mapping type, {@code null} when it has to be resolved at runtime
+         */
+        public Entry(@Nonnull String className, @Nullable MappingEntry.Type type, @Nonnull Set<String> sessionFactoryNames) {
+            this.className = requireNonBlank(className, "Argument 'className' must not be blank");
+            this.type = type;
+            this.sessionFactoryNames = Collections.unmodifiableSet(new LinkedHashSet<>(requireNonNull(sessionFactoryNames, "Argument 'sessionFactoryNames' must not be null")));
+        }
+
+        @Nullable
+        public static Entry parse(@Nonnull String line) {
+            line = line.trim();
+            if (isBlank(line) || line.startsWith("#")) {
+                return null;
+            }
+
+            int separator = line.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid mapping index entry: " + line);
+            }
+            String className = line.substring(0, separator).trim();
+            String rest = line.substring(separator + 1).trim();
+            Set<String> sessionFactoryNames = new LinkedHashSet<>();
+            int factories = rest.indexOf(';');
+            if (factories > -1) {
+                for (String name : rest.substring(factories + 1).split(",")) {
+                    if (!isBlank(name)) {
+                        sessionFactoryNames.add(name.trim());
+                    }
+                }
+                rest = rest.substring(0, factories).trim();
+            }
+            return new Entry(className, UNRESOLVED.equals(rest) ? null : MappingEntry.Type.valueOf(rest), sessionFactoryNames);
+        }
+
+        @Nonnull
+        public String format() {
+            StringBuilder line = new StringBuilder(className).append('=').append(type != null ? type.name() : UNRESOLVED);
+            if (!sessionFactoryNames.isEmpty()) {
+                line.append(';').append(String.join(",", sessionFactoryNames));
+            }
+            return line.toString();
+        }
+
+        @Nonnull
+        public String getClassName() {
+            return className;
+        }
+
+        @Nullable
+        public MappingEntry.Type getType() {
+            return type;
+        }
+
+        public boolean isResolved() {
+            return type != null;
+        }
+
+        @Nonnull
+        public Set<String> getSessionFactoryNames() {
+            return sessionFactoryNames;
+        }
+
+        public boolean belongsTo(@Nonnull String sessionFactoryName, @Nullable Pattern mapClassesPattern) {
+            if (!sessionFactoryNames.isEmpty()) {
+                return sessionFactoryNames.contains(sessionFactoryName);
+            }
+            return mapClassesPattern != null && mapClassesPattern.matcher(className).matches();
+        }
+
+        @Nonnull
+        public MappingEntry toMappingEntry(@Nonnull ClassLoader classLoader) {
+            String resource = className.replace('.', '/') + HBM_XML_SUFFIX;
+            MappingEntry.Type mappingType = type;
+            if (mappingType == null) {
+                mappingType = classLoader.getResource(resource) != null ? MappingEntry.Type.HBM : MappingEntry.Type.ANNOTATED;
+            }
+            return mappingType == MappingEntry.Type.HBM ? MappingEntry.hbm(resource) : MappingEntry.annotated(className);
+        }
+
+        @Override
+        public String toString() {
+            return format();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.internal;
+
+import griffon.annotations.core.Nonnull;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * Creates daemon threads whose names share a common prefix.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+    private final String prefix;
+
+    public NamedThreadFactory(@Nonnull String prefix) {
+        this.prefix = requireNonBlank(prefix, "Argument 'prefix' must not be blank");
+    }
+
+    @Override
+    public Thread newThread(@Nonnull Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
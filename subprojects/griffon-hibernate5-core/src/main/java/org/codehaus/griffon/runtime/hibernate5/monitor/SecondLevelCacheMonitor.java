@@ -0,0 +1,122 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.monitor;
+
+import griffon.annotations.core.Nonnull;
+import griffon.core.env.Metadata;
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegion;
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegionFactory;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+import org.hibernate.stat.Statistics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Query cache counters are Hibernate's own, so a cached result that is found but stale counts as a miss. They are only
+ * gathered while statistics are enabled.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SecondLevelCacheMonitor extends AbstractMBeanRegistration implements SecondLevelCacheMonitorMXBean {
+    private BoundedRegionFactory delegate;
+    private Statistics statistics;
+    private final String name;
+
+    public SecondLevelCacheMonitor(@Nonnull Metadata metadata, @Nonnull BoundedRegionFactory delegate, @Nonnull Statistics statistics, @Nonnull String name) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+        this.statistics = requireNonNull(statistics, "Argument 'statistics' must not be null");
+        this.name = name;
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.plugins.hibernate5:type=SecondLevelCache,application=" + metadata.getApplicationName() + ",name=" + this.name);
+    }
+
+    @Override
+    public void postDeregister() {
+        delegate = null;
+        statistics = null;
+        super.postDeregister();
+    }
+
+    @Override
+    public long getSize() {
+        long size = 0;
+        for (BoundedRegion region : delegate.getRegions()) {
+            size += region.getSize();
+        }
+        return size;
+    }
+
+    @Override
+    public List<BoundedRegion> getRegions() {
+        List<BoundedRegion> regions = new ArrayList<>(delegate.getRegions());
+        regions.sort(Comparator.comparing(BoundedRegion::getRegionName));
+        return regions;
+    }
+
+    @Override
+    public long getQueryCacheHitCount() {
+        return statistics.getQueryCacheHitCount();
+    }
+
+    @Override
+    public long getQueryCacheMissCount() {
+        return statistics.getQueryCacheMissCount();
+    }
+
+    @Override
+    public double getQueryCacheHitRatio() {
+        return BoundedRegion.hitRatio(getQueryCacheHitCount(), getQueryCacheMissCount());
+    }
+
+    @Override
+    public boolean evictRegion(String regionName) {
+        BoundedRegion region = delegate.getRegion(regionName);
+        if (region == null) {
+            return false;
+        }
+
+        region.evictData();
+        if (region.getType() == BoundedRegion.Type.TIMESTAMPS) {
+            // without timestamps every cached query result would be considered up to date
+            for (BoundedRegion queryResults : delegate.getRegions()) {
+                if (queryResults.getType() == BoundedRegion.Type.QUERY_RESULTS) {
+                    queryResults.evictData();
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void evictAll() {
+        for (BoundedRegion region : delegate.getRegions()) {
+            region.evictData();
+        }
+    }
+}
@@ -18,8 +18,13 @@
 package org.codehaus.griffon.runtime.hibernate5.monitor;
 
 import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
 import griffon.core.env.Metadata;
+import org.codehaus.griffon.runtime.hibernate5.LatencyHistogram;
 import org.codehaus.griffon.runtime.hibernate5.RecordingSessionFactory;
+import org.codehaus.griffon.runtime.hibernate5.RecordingSessionFactory.Phase;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.TenantConnectionProvider;
+import org.codehaus.griffon.runtime.hibernate5.tenancy.TenantDataSourceCache;
 import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
 
 import javax.management.MBeanServer;
@@ -56,4 +61,72 @@ public class SessionFactoryMonitor extends AbstractMBeanRegistration implements
     public int getSessionCount() {
         return delegate.getSessionCount();
     }
+
+    @Override
+    public long getBatchRowCount() {
+        return delegate.getBatchRowCount();
+    }
+
+    @Override
+    public double getBatchRowsPerSecond() {
+        return delegate.getBatchRowsPerSecond();
+    }
+
+    @Override
+    public double getLastBatchRowsPerSecond() {
+        return delegate.getLastBatchRowsPerSecond();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getSessionLatency() {
+        return delegate.getLatency(Phase.SESSION);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCallbackLatency() {
+        return delegate.getLatency(Phase.CALLBACK);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCommitLatency() {
+        return delegate.getLatency(Phase.COMMIT);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRollbackLatency() {
+        return delegate.getLatency(Phase.ROLLBACK);
+    }
+
+    @Override
+    public void resetLatencies() {
+        delegate.resetLatencies();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return delegate.getRetryCount();
+    }
+
+    @Override
+    public long getRetriesExhaustedCount() {
+        return delegate.getRetriesExhaustedCount();
+    }
+
+    @Override
+    public int getTenantDataSourceCount() {
+        TenantDataSourceCache tenantDataSources = getTenantDataSources();
+        return tenantDataSources != null ? tenantDataSources.getSize() : 0;
+    }
+
+    @Override
+    public long getTenantDataSourceEvictionCount() {
+        TenantDataSourceCache tenantDataSources = getTenantDataSources();
+        return tenantDataSources != null ? tenantDataSources.getEvictionCount() : 0L;
+    }
+
+    @Nullable
+    private TenantDataSourceCache getTenantDataSources() {
+        TenantConnectionProvider provider = delegate.getTenantConnectionProvider();
+        return provider != null ? provider.getTenantDataSources() : null;
+    }
 }
@@ -17,10 +17,36 @@
  */
 package org.codehaus.griffon.runtime.hibernate5.monitor;
 
+import org.codehaus.griffon.runtime.hibernate5.LatencyHistogram;
+
 /**
  * @author Andres Almiray
  * @since 1.2.0
  */
 public interface SessionFactoryMonitorMXBean {
     int getSessionCount();
+
+    long getBatchRowCount();
+
+    double getBatchRowsPerSecond();
+
+    double getLastBatchRowsPerSecond();
+
+    LatencyHistogram.Snapshot getSessionLatency();
+
+    LatencyHistogram.Snapshot getCallbackLatency();
+
+    LatencyHistogram.Snapshot getCommitLatency();
+
+    LatencyHistogram.Snapshot getRollbackLatency();
+
+    void resetLatencies();
+
+    long getRetryCount();
+
+    long getRetriesExhaustedCount();
+
+    int getTenantDataSourceCount();
+
+    long getTenantDataSourceEvictionCount();
 }
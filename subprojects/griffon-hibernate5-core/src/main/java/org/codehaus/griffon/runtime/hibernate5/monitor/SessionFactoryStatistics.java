@@ -0,0 +1,281 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.monitor;
+
+import griffon.annotations.core.Nonnull;
+import griffon.core.env.Metadata;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes the {@code Statistics} gathered by a SessionFactory. Values are only collected while statistics are
+ * enabled, either with the {@code statistics} session property or at runtime through this MBean.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SessionFactoryStatistics extends AbstractMBeanRegistration implements SessionFactoryStatisticsMXBean {
+    private Statistics delegate;
+    private final String name;
+
+    public SessionFactoryStatistics(@Nonnull Metadata metadata, @Nonnull Statistics delegate, @Nonnull String name) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+        this.name = name;
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.plugins.hibernate5:type=SessionFactoryStatistics,application=" + metadata.getApplicationName() + ",name=" + this.name);
+    }
+
+    @Override
+    public void postDeregister() {
+        delegate = null;
+        super.postDeregister();
+    }
+
+    @Override
+    public boolean isStatisticsEnabled() {
+        return delegate.isStatisticsEnabled();
+    }
+
+    @Override
+    public void setStatisticsEnabled(boolean enabled) {
+        delegate.setStatisticsEnabled(enabled);
+    }
+
+    @Override
+    public long getStartTime() {
+        return delegate.getStartTime();
+    }
+
+    @Override
+    public long getSessionOpenCount() {
+        return delegate.getSessionOpenCount();
+    }
+
+    @Override
+    public long getSessionCloseCount() {
+        return delegate.getSessionCloseCount();
+    }
+
+    @Override
+    public long getTransactionCount() {
+        return delegate.getTransactionCount();
+    }
+
+    @Override
+    public long getSuccessfulTransactionCount() {
+        return delegate.getSuccessfulTransactionCount();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return delegate.getFlushCount();
+    }
+
+    @Override
+    public long getConnectCount() {
+        return delegate.getConnectCount();
+    }
+
+    @Override
+    public long getPrepareStatementCount() {
+        return delegate.getPrepareStatementCount();
+    }
+
+    @Override
+    public long getCloseStatementCount() {
+        return delegate.getCloseStatementCount();
+    }
+
+    @Override
+    public long getOptimisticFailureCount() {
+        return delegate.getOptimisticFailureCount();
+    }
+
+    @Override
+    public long getEntityLoadCount() {
+        return delegate.getEntityLoadCount();
+    }
+
+    @Override
+    public long getEntityFetchCount() {
+        return delegate.getEntityFetchCount();
+    }
+
+    @Override
+    public long getEntityInsertCount() {
+        return delegate.getEntityInsertCount();
+    }
+
+    @Override
+    public long getEntityUpdateCount() {
+        return delegate.getEntityUpdateCount();
+    }
+
+    @Override
+    public long getEntityDeleteCount() {
+        return delegate.getEntityDeleteCount();
+    }
+
+    @Override
+    public long getCollectionLoadCount() {
+        return delegate.getCollectionLoadCount();
+    }
+
+    @Override
+    public long getCollectionFetchCount() {
+        return delegate.getCollectionFetchCount();
+    }
+
+    @Override
+    public long getCollectionUpdateCount() {
+        return delegate.getCollectionUpdateCount();
+    }
+
+    @Override
+    public long getCollectionRemoveCount() {
+        return delegate.getCollectionRemoveCount();
+    }
+
+    @Override
+    public long getCollectionRecreateCount() {
+        return delegate.getCollectionRecreateCount();
+    }
+
+    @Override
+    public long getQueryExecutionCount() {
+        return delegate.getQueryExecutionCount();
+    }
+
+    @Override
+    public long getQueryExecutionMaxTime() {
+        return delegate.getQueryExecutionMaxTime();
+    }
+
+    @Override
+    public String getQueryExecutionMaxTimeQueryString() {
+        return delegate.getQueryExecutionMaxTimeQueryString();
+    }
+
+    @Override
+    public long getQueryCacheHitCount() {
+        return delegate.getQueryCacheHitCount();
+    }
+
+    @Override
+    public long getQueryCacheMissCount() {
+        return delegate.getQueryCacheMissCount();
+    }
+
+    @Override
+    public long getQueryCachePutCount() {
+        return delegate.getQueryCachePutCount();
+    }
+
+    @Override
+    public double getQueryCacheHitRatio() {
+        long hits = delegate.getQueryCacheHitCount();
+        long total = hits + delegate.getQueryCacheMissCount();
+        return total > 0 ? hits / (double) total : 0d;
+    }
+
+    @Override
+    public long getSecondLevelCacheHitCount() {
+        return delegate.getSecondLevelCacheHitCount();
+    }
+
+    @Override
+    public long getSecondLevelCacheMissCount() {
+        return delegate.getSecondLevelCacheMissCount();
+    }
+
+    @Override
+    public long getSecondLevelCachePutCount() {
+        return delegate.getSecondLevelCachePutCount();
+    }
+
+    @Override
+    public long getQueryPlanCacheHitCount() {
+        return delegate.getQueryPlanCacheHitCount();
+    }
+
+    @Override
+    public long getQueryPlanCacheMissCount() {
+        return delegate.getQueryPlanCacheMissCount();
+    }
+
+    @Override
+    public double getQueryPlanCacheHitRatio() {
+        long hits = delegate.getQueryPlanCacheHitCount();
+        long total = hits + delegate.getQueryPlanCacheMissCount();
+        return total > 0 ? hits / (double) total : 0d;
+    }
+
+    @Override
+    public Map<String, EntityStatistics> getEntityStatistics() {
+        return collect(delegate.getEntityNames(), delegate::getEntityStatistics);
+    }
+
+    @Override
+    public Map<String, CollectionStatistics> getCollectionStatistics() {
+        return collect(delegate.getCollectionRoleNames(), delegate::getCollectionStatistics);
+    }
+
+    @Override
+    public Map<String, QueryStatistics> getQueryStatistics() {
+        return collect(delegate.getQueries(), delegate::getQueryStatistics);
+    }
+
+    @Override
+    public Map<String, CacheRegionStatistics> getCacheRegionStatistics() {
+        return collect(delegate.getSecondLevelCacheRegionNames(), delegate::getCacheRegionStatistics);
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Nonnull
+    private static <S> Map<String, S> collect(@Nonnull String[] names, @Nonnull Function<String, S> statistics) {
+        Map<String, S> map = new TreeMap<>();
+        for (String name : names) {
+            // regions and queries may be evicted between both calls
+            S value = statistics.apply(name);
+            if (value != null) {
+                map.put(name, value);
+            }
+        }
+        return map;
+    }
+}
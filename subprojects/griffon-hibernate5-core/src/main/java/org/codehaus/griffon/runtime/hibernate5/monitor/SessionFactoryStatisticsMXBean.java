@@ -0,0 +1,111 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.monitor;
+
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public interface SessionFactoryStatisticsMXBean {
+    boolean isStatisticsEnabled();
+
+    void setStatisticsEnabled(boolean enabled);
+
+    long getStartTime();
+
+    long getSessionOpenCount();
+
+    long getSessionCloseCount();
+
+    long getTransactionCount();
+
+    long getSuccessfulTransactionCount();
+
+    long getFlushCount();
+
+    long getConnectCount();
+
+    long getPrepareStatementCount();
+
+    long getCloseStatementCount();
+
+    long getOptimisticFailureCount();
+
+    long getEntityLoadCount();
+
+    long getEntityFetchCount();
+
+    long getEntityInsertCount();
+
+    long getEntityUpdateCount();
+
+    long getEntityDeleteCount();
+
+    long getCollectionLoadCount();
+
+    long getCollectionFetchCount();
+
+    long getCollectionUpdateCount();
+
+    long getCollectionRemoveCount();
+
+    long getCollectionRecreateCount();
+
+    long getQueryExecutionCount();
+
+    long getQueryExecutionMaxTime();
+
+    String getQueryExecutionMaxTimeQueryString();
+
+    long getQueryCacheHitCount();
+
+    long getQueryCacheMissCount();
+
+    long getQueryCachePutCount();
+
+    double getQueryCacheHitRatio();
+
+    long getSecondLevelCacheHitCount();
+
+    long getSecondLevelCacheMissCount();
+
+    long getSecondLevelCachePutCount();
+
+    long getQueryPlanCacheHitCount();
+
+    long getQueryPlanCacheMissCount();
+
+    double getQueryPlanCacheHitRatio();
+
+    Map<String, EntityStatistics> getEntityStatistics();
+
+    Map<String, CollectionStatistics> getCollectionStatistics();
+
+    Map<String, QueryStatistics> getQueryStatistics();
+
+    Map<String, CacheRegionStatistics> getCacheRegionStatistics();
+
+    void clear();
+}
@@ -0,0 +1,68 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.monitor;
+
+import griffon.annotations.core.Nonnull;
+import griffon.core.env.Metadata;
+import org.codehaus.griffon.runtime.hibernate5.SessionFactoryWarmup;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class SessionFactoryWarmupMonitor extends AbstractMBeanRegistration implements SessionFactoryWarmupMonitorMXBean {
+    private SessionFactoryWarmup delegate;
+
+    public SessionFactoryWarmupMonitor(@Nonnull Metadata metadata, @Nonnull SessionFactoryWarmup delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.plugins.hibernate5:type=Warmup,application=" + metadata.getApplicationName());
+    }
+
+    @Override
+    public void postDeregister() {
+        delegate = null;
+        super.postDeregister();
+    }
+
+    @Override
+    public Map<String, String> getSessionFactoryStates() {
+        Map<String, String> states = new LinkedHashMap<>();
+        for (Map.Entry<String, SessionFactoryWarmup.State> state : delegate.getStates().entrySet()) {
+            states.put(state.getKey(), state.getValue().name());
+        }
+        return states;
+    }
+
+    @Override
+    public boolean isDone() {
+        return delegate.isDone();
+    }
+}
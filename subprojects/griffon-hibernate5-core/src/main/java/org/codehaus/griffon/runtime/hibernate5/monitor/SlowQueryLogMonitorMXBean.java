@@ -0,0 +1,42 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.monitor;
+
+import org.codehaus.griffon.runtime.hibernate5.SlowQueryLog;
+
+import java.util.List;
+
+/**
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public interface SlowQueryLogMonitorMXBean {
+    long getThresholdMillis();
+
+    void setThresholdMillis(long thresholdMillis);
+
+    int getCapacity();
+
+    long getStatementCount();
+
+    long getSlowStatementCount();
+
+    List<SlowQueryLog.Shape> getSlowestStatements();
+
+    void reset();
+}
@@ -0,0 +1,48 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.tenancy;
+
+import griffon.annotations.core.Nonnull;
+import org.hibernate.context.spi.CurrentTenantIdentifierResolver;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * Resolves the tenant of sessions opened without one, such as those handed to bootstraps.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class DefaultTenantResolver implements CurrentTenantIdentifierResolver {
+    private final String tenantId;
+
+    public DefaultTenantResolver(@Nonnull String tenantId) {
+        requireNonBlank(tenantId, "Argument 'tenantId' must not be blank");
+        this.tenantId = tenantId;
+    }
+
+    @Override
+    public String resolveCurrentTenantIdentifier() {
+        return tenantId;
+    }
+
+    @Override
+    public boolean validateExistingCurrentSessions() {
+        return false;
+    }
+}
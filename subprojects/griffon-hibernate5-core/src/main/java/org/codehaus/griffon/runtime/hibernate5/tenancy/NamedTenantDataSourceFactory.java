@@ -0,0 +1,109 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.tenancy;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import griffon.plugins.datasource.DataSourceFactory;
+import griffon.plugins.hibernate5.Hibernate5TenantDataSourceFactory;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static griffon.util.GriffonNameUtils.isBlank;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uses a data source configured in {@code DataSource.groovy} for every tenant. Only tenants listed in {@code tenants}
+ * are accepted, or any tenant when {@code tenant_data_source_prefix} is set, in which case the name of the data source
+ * is the prefix followed by the tenant id. Without either of them a tenant id could select any data source of the
+ * application, such as the one of another SessionFactory.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class NamedTenantDataSourceFactory implements Hibernate5TenantDataSourceFactory {
+    public static final String KEY_TENANTS = "tenants";
+    public static final String KEY_TENANT_DATA_SOURCE_PREFIX = "tenant_data_source_prefix";
+
+    private final DataSourceFactory dataSourceFactory;
+    private final Set<String> tenants;
+    private final String dataSourcePrefix;
+
+    public NamedTenantDataSourceFactory(@Nonnull DataSourceFactory dataSourceFactory, @Nonnull Collection<?> tenants, @Nullable String dataSourcePrefix) {
+        this.dataSourceFactory = requireNonNull(dataSourceFactory, "Argument 'dataSourceFactory' must not be null");
+        this.tenants = toTenantIds(tenants);
+        this.dataSourcePrefix = isBlank(dataSourcePrefix) ? null : dataSourcePrefix;
+        if (this.tenants.isEmpty() && this.dataSourcePrefix == null) {
+            throw new IllegalArgumentException("Tenants must be listed in '" + KEY_TENANTS + "' or their data sources named with a '" + KEY_TENANT_DATA_SOURCE_PREFIX + "'");
+        }
+    }
+
+    @Nonnull
+    static Set<String> toTenantIds(@Nonnull Collection<?> tenants) {
+        requireNonNull(tenants, "Argument 'tenants' must not be null");
+        Set<String> tenantIds = new LinkedHashSet<>();
+        for (Object tenant : tenants) {
+            if (!(tenant instanceof CharSequence) || isBlank(tenant.toString())) {
+                throw new IllegalArgumentException("Invalid value for " + KEY_TENANTS + ", expected a tenant id but got " + tenant);
+            }
+            tenantIds.add(tenant.toString());
+        }
+        return Collections.unmodifiableSet(tenantIds);
+    }
+
+    @Nonnull
+    public Set<String> getTenants() {
+        return tenants;
+    }
+
+    @Nullable
+    public String getDataSourcePrefix() {
+        return dataSourcePrefix;
+    }
+
+    @Nonnull
+    @Override
+    public DataSource create(@Nonnull String sessionFactoryName, @Nonnull String tenantId) {
+        return dataSourceFactory.create(dataSourceName(sessionFactoryName, tenantId));
+    }
+
+    @Override
+    public void destroy(@Nonnull String sessionFactoryName, @Nonnull String tenantId, @Nonnull DataSource dataSource) {
+        dataSourceFactory.destroy(dataSourceName(sessionFactoryName, tenantId), dataSource);
+    }
+
+    @Nonnull
+    private String dataSourceName(@Nonnull String sessionFactoryName, @Nonnull String tenantId) {
+        requireNonBlank(tenantId, "Argument 'tenantId' must not be blank");
+        if (!tenants.isEmpty() && !tenants.contains(tenantId)) {
+            throw new IllegalArgumentException("'" + tenantId + "' is not a tenant of '" + sessionFactoryName + "'");
+        }
+
+        String dataSourceName = dataSourcePrefix != null ? dataSourcePrefix + tenantId : tenantId;
+        if (!dataSourceFactory.getDataSourceNames().contains(dataSourceName)) {
+            // the databases of the tenants are neither configured nor created on demand
+            throw new IllegalArgumentException("No data source named '" + dataSourceName + "' is configured for tenant '" + tenantId + "' of '" + sessionFactoryName + "'");
+        }
+        return dataSourceName;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.tenancy;
+
+import griffon.annotations.core.Nonnull;
+import griffon.annotations.core.Nullable;
+import org.codehaus.griffon.runtime.hibernate5.internal.JdbcUtils;
+import org.hibernate.MultiTenancyStrategy;
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Stoppable;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hands out the connections of a multi-tenant SessionFactory. With {@code SCHEMA} every tenant shares the DataSource
+ * of the SessionFactory and the schema named after the tenant is selected on the connection until it is released.
+ * With {@code DATABASE} every tenant has a DataSource of its own, kept in a {@link TenantDataSourceCache}.
+ * <p>
+ * Only the listed tenants are served, a list is required with {@code SCHEMA}. As JDBC drivers may silently ignore
+ * {@code setSchema}, the schema reported back by the connection is checked before it is handed out.
+ * <p>
+ * Schema generation only reaches the DataSource of the SessionFactory, so the schemas and databases of the tenants
+ * must exist beforehand. A connection whose schema cannot be set back is discarded instead of going back to the pool.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class TenantConnectionProvider implements MultiTenantConnectionProvider, Stoppable {
+    private final String sessionFactoryName;
+    private final MultiTenancyStrategy strategy;
+    private final DataSource dataSource;
+    private final TenantDataSourceCache tenantDataSources;
+    private final Set<String> tenants;
+    private final Map<Connection, TenantDataSourceCache.Lease> leases = Collections.synchronizedMap(new IdentityHashMap<>());
+    private volatile String defaultSchema;
+
+    /**
+     * @param tenants the tenants to serve, any tenant the DataSource factory accepts when empty with {@code DATABASE}
+     */
+    public TenantConnectionProvider(@Nonnull String sessionFactoryName, @Nonnull MultiTenancyStrategy strategy, @Nonnull DataSource dataSource, @Nullable TenantDataSourceCache tenantDataSources, @Nonnull Collection<?> tenants) {
+        this.sessionFactoryName = requireNonBlank(sessionFactoryName, "Argument 'sessionFactoryName' must not be blank");
+        this.strategy = requireNonNull(strategy, "Argument 'strategy' must not be null");
+        this.dataSource = requireNonNull(dataSource, "Argument 'dataSource' must not be null");
+        this.tenants = NamedTenantDataSourceFactory.toTenantIds(tenants);
+        if (strategy == MultiTenancyStrategy.DATABASE) {
+            requireNonNull(tenantDataSources, "Argument 'tenantDataSources' must not be null");
+        } else if (strategy != MultiTenancyStrategy.SCHEMA) {
+            throw new IllegalArgumentException("Unsupported multi-tenancy strategy " + strategy);
+        } else if (this.tenants.isEmpty()) {
+            // otherwise a tenant id could select any schema the database user can see
+            throw new IllegalArgumentException("Tenants of '" + sessionFactoryName + "' must be listed in '" + NamedTenantDataSourceFactory.KEY_TENANTS + "'");
+        }
+        this.tenantDataSources = tenantDataSources;
+    }
+
+    @Nonnull
+    public Set<String> getTenants() {
+        return tenants;
+    }
+
+    @Nonnull
+    public MultiTenancyStrategy getStrategy() {
+        return strategy;
+    }
+
+    @Nullable
+    public TenantDataSourceCache getTenantDataSources() {
+        return tenantDataSources;
+    }
+
+    @Override
+    public Connection getAnyConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public void releaseAnyConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    @Override
+    public Connection getConnection(String tenantIdentifier) throws SQLException {
+        if (!tenants.isEmpty() && !tenants.contains(tenantIdentifier)) {
+            throw new IllegalArgumentException("'" + tenantIdentifier + "' is not a tenant of '" + sessionFactoryName + "'");
+        }
+
+        if (strategy == MultiTenancyStrategy.SCHEMA) {
+            Connection connection = dataSource.getConnection();
+            try {
+                if (defaultSchema == null) {
+                    defaultSchema = connection.getSchema();
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+
+            String schema;
+            try {
+                connection.setSchema(tenantIdentifier);
+                schema = connection.getSchema();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    resetSchema(connection);
+                } catch (SQLException | RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                if (e instanceof SQLException) {
+                    throw new SQLException("Cannot select the schema of tenant '" + tenantIdentifier + "', it must be created before it is used", ((SQLException) e).getSQLState(), e);
+                }
+                throw e;
+            }
+
+            // drivers without schema support may ignore setSchema, which would leave every tenant in the same schema
+            if (!tenantIdentifier.equalsIgnoreCase(schema)) {
+                SQLException e = new SQLException("The connection reports schema '" + schema + "' after selecting the schema of tenant '" + tenantIdentifier + "'; the JDBC driver does not support schema based multi-tenancy");
+                try {
+                    resetSchema(connection);
+                } catch (SQLException | RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            return connection;
+        }
+
+        TenantDataSourceCache.Lease lease = tenantDataSources.acquire(tenantIdentifier);
+        try {
+            Connection connection = lease.getDataSource().getConnection();
+            leases.put(connection, lease);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            lease.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void releaseConnection(String tenantIdentifier, Connection connection) throws SQLException {
+        if (strategy == MultiTenancyStrategy.SCHEMA) {
+            resetSchema(connection);
+            return;
+        }
+
+        TenantDataSourceCache.Lease lease = leases.remove(connection);
+        try {
+            connection.close();
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
+    }
+
+    /**
+     * Selects the default schema again and closes the connection. A connection still set to the schema of a tenant
+     * must not be handed out to another one, so it is discarded if that fails.
+     */
+    private void resetSchema(@Nonnull Connection connection) throws SQLException {
+        try {
+            connection.setSchema(defaultSchema);
+        } catch (SQLException | RuntimeException e) {
+            JdbcUtils.discardConnection(dataSource, connection);
+            throw e;
+        }
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return unwrapType.isInstance(this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isInstance(this)) {
+            return (T) this;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        if (tenantDataSources != null) {
+            tenantDataSources.close();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.hibernate5.tenancy;
+
+import griffon.annotations.core.Nonnull;
+import griffon.plugins.hibernate5.Hibernate5TenantDataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps the DataSources of the most recently used tenants. When there are more than {@code maxSize}, the least
+ * recently used one is evicted; it is destroyed as soon as none of its connections are in use.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+public class TenantDataSourceCache {
+    public static final int DEFAULT_MAX_SIZE = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TenantDataSourceCache.class);
+
+    private final String sessionFactoryName;
+    private final Hibernate5TenantDataSourceFactory factory;
+    private final int maxSize;
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, Lease> leases = new LinkedHashMap<>(16, 0.75f, true);
+    private long evictionCount;
+    private boolean closed;
+
+    public TenantDataSourceCache(@Nonnull String sessionFactoryName, @Nonnull Hibernate5TenantDataSourceFactory factory, int maxSize) {
+        this.sessionFactoryName = requireNonNull(sessionFactoryName, "Argument 'sessionFactoryName' must not be null");
+        this.factory = requireNonNull(factory, "Argument 'factory' must not be null");
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Reserves the DataSource of a tenant, creating it if needed. Every lease must be released once its connection
+     * was closed.
+     */
+    @Nonnull
+    public Lease acquire(@Nonnull String tenantId) {
+        requireNonNull(tenantId, "Argument 'tenantId' must not be null");
+        Lease lease;
+        List<Lease> idle = new ArrayList<>();
+        synchronized (leases) {
+            if (closed) {
+                throw new IllegalStateException("DataSources of the tenants of '" + sessionFactoryName + "' have been closed");
+            }
+            lease = leases.computeIfAbsent(tenantId, Lease::new);
+            lease.inUse++;
+            Iterator<Lease> eldest = leases.values().iterator();
+            while (leases.size() > maxSize && eldest.hasNext()) {
+                Lease evicted = eldest.next();
+                if (evicted == lease) {
+                    continue;
+                }
+                eldest.remove();
+                evicted.evicted = true;
+                evictionCount++;
+                if (evicted.inUse == 0) {
+                    idle.add(evicted);
+                }
+            }
+        }
+        destroy(idle);
+
+        try {
+            lease.getDataSource();
+        } catch (RuntimeException e) {
+            synchronized (leases) {
+                leases.remove(tenantId, lease);
+                lease.evicted = true;
+                lease.inUse--;
+            }
+            throw e;
+        }
+        return lease;
+    }
+
+    /**
+     * Destroys every idle DataSource, and the others once their connections are released.
+     */
+    public void close() {
+        List<Lease> idle = new ArrayList<>();
+        synchronized (leases) {
+            closed = true;
+            for (Lease lease : leases.values()) {
+                lease.evicted = true;
+                if (lease.inUse == 0) {
+                    idle.add(lease);
+                }
+            }
+            leases.clear();
+        }
+        destroy(idle);
+    }
+
+    public int getSize() {
+        synchronized (leases) {
+            return leases.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getEvictionCount() {
+        synchronized (leases) {
+            return evictionCount;
+        }
+    }
+
+    private static void destroy(@Nonnull List<Lease> idle) {
+        for (Lease lease : idle) {
+            lease.destroy();
+        }
+    }
+
+    public final class Lease {
+        private final String tenantId;
+        // guarded by leases
+        private int inUse;
+        private boolean evicted;
+        // guarded by this
+        private DataSource dataSource;
+
+        private Lease(@Nonnull String tenantId) {
+            this.tenantId = tenantId;
+        }
+
+        @Nonnull
+        public String getTenantId() {
+            return tenantId;
+        }
+
+        @Nonnull
+        public synchronized DataSource getDataSource() {
+            if (dataSource == null) {
+                LOG.debug("Creating DataSource of tenant '{}' of '{}'", tenantId, sessionFactoryName);
+                dataSource = requireNonNull(factory.create(sessionFactoryName, tenantId), "DataSource of tenant '" + tenantId + "' must not be null");
+            }
+            return dataSource;
+        }
+
+        public void release() {
+            boolean idle;
+            synchronized (leases) {
+                inUse--;
+                idle = evicted && inUse == 0;
+            }
+            if (idle) {
+                destroy();
+            }
+        }
+
+        private synchronized void destroy() {
+            if (dataSource != null) {
+                LOG.debug("Destroying DataSource of tenant '{}' of '{}'", tenantId, sessionFactoryName);
+                try {
+                    factory.destroy(sessionFactoryName, tenantId, dataSource);
+                } catch (RuntimeException e) {
+                    LOG.warn("Could not destroy the DataSource of tenant '{}' of '{}'", tenantId, sessionFactoryName, e);
+                }
+                dataSource = null;
+            }
+        }
+    }
+}
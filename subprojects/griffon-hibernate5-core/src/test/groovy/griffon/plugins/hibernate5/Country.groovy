@@ -0,0 +1,46 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5
+
+import griffon.transform.hibernate5.SessionFactories
+import groovy.transform.ToString
+import org.hibernate.annotations.Cache
+import org.hibernate.annotations.CacheConcurrencyStrategy
+import org.hibernate.annotations.QueryHints
+import org.kordamp.jipsy.annotations.TypeProviderFor
+
+import javax.persistence.Cacheable
+import javax.persistence.Column
+import javax.persistence.Entity
+import javax.persistence.Id
+import javax.persistence.NamedQuery
+import javax.persistence.QueryHint
+
+@ToString
+@TypeProviderFor(Hibernate5Mapping)
+@SessionFactories(['cached', 'benchmark_uncached', 'benchmark_cached', 'tenants', 'schemas'])
+@Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedQuery(name = 'Country.all', query = 'from Country order by id', hints = @QueryHint(name = QueryHints.CACHEABLE, value = 'true'))
+class Country implements Hibernate5Mapping {
+    @Id
+    int id
+    @Column
+    String name
+}
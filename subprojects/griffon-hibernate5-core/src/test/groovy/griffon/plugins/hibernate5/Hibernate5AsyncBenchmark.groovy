@@ -0,0 +1,83 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5
+
+import griffon.test.core.GriffonUnitRule
+import org.hibernate.Session
+import org.junit.Rule
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.Requires
+import spock.lang.Specification
+
+import javax.inject.Inject
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the throughput of asynchronous callbacks running on platform and virtual threads.
+ * Each callback issues one short query and then waits for a simulated network round trip.
+ * Run with {@code -Dhibernate5.benchmark=true}; tune with {@code hibernate5.benchmark.calls}
+ * and {@code hibernate5.benchmark.latency} (milliseconds).
+ */
+@Requires({ sys['hibernate5.benchmark'] })
+class Hibernate5AsyncBenchmark extends Specification {
+    private static final Logger LOG = LoggerFactory.getLogger(Hibernate5AsyncBenchmark)
+    private static final int CALLS = Integer.getInteger('hibernate5.benchmark.calls', 5000)
+    private static final long LATENCY = Long.getLong('hibernate5.benchmark.latency', 2L)
+    private static final int ROUNDS = 3
+
+    @Rule
+    public final GriffonUnitRule griffon = new GriffonUnitRule()
+
+    @Inject
+    private Hibernate5Handler hibernate5Handler
+
+    void 'Compare throughput of platform and virtual threads'() {
+        when:
+        double platform = measure('benchmark_platform')
+        double virtual = measure('benchmark_virtual')
+        LOG.info(String.format('platform threads: %.0f calls/s, virtual threads: %.0f calls/s (%d calls, %d ms latency, java %s)',
+            platform, virtual, CALLS, LATENCY, System.getProperty('java.version')))
+
+        then:
+        platform > 0
+        virtual > 0
+    }
+
+    private double measure(String sessionFactoryName) {
+        // first round warms up the SessionFactory, connection pool and JIT
+        double best = 0
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime()
+            List<CompletableFuture<Object>> futures = (1..CALLS).collect {
+                hibernate5Handler.withHbm5SessionAsync(sessionFactoryName) { String name, Session session ->
+                    Object result = session.createNativeQuery('select 1').uniqueResult()
+                    Thread.sleep(LATENCY)
+                    result
+                }
+            }
+            CompletableFuture.allOf(futures as CompletableFuture[]).get(5, TimeUnit.MINUTES)
+            double callsPerSecond = CALLS * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start)
+            if (round > 0) {
+                best = Math.max(best, callsPerSecond)
+            }
+        }
+        best
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5
+
+import griffon.test.core.GriffonUnitRule
+import org.hibernate.Session
+import org.hibernate.stat.Statistics
+import org.junit.Rule
+import spock.lang.Requires
+import spock.lang.Specification
+
+import javax.inject.Inject
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the statements sent to H2 and the throughput of repeated entity lookups with and without the bounded
+ * second-level cache. Run with {@code -Dhibernate5.benchmark=true}; tune with {@code hibernate5.benchmark.calls}
+ * and {@code hibernate5.benchmark.entities}.
+ */
+@Requires({ sys['hibernate5.benchmark'] })
+class Hibernate5CacheBenchmark extends Specification {
+    private static final int CALLS = Integer.getInteger('hibernate5.benchmark.calls', 5000)
+    private static final int ENTITIES = Integer.getInteger('hibernate5.benchmark.entities', 100)
+
+    @Rule
+    public final GriffonUnitRule griffon = new GriffonUnitRule()
+
+    @Inject
+    private Hibernate5Handler hibernate5Handler
+
+    void 'Compare database reads with and without the second-level cache'() {
+        when:
+        Map<String, Number> uncached = measure('benchmark_uncached')
+        Map<String, Number> cached = measure('benchmark_cached')
+        println String.format('uncached: %d statements, %.0f lookups/s; cached: %d statements, %.0f lookups/s (%d lookups over %d entities)',
+            uncached.statements, uncached.throughput, cached.statements, cached.throughput, CALLS, ENTITIES)
+
+        then:
+        cached.statements < uncached.statements
+    }
+
+    private Map<String, Number> measure(String sessionFactoryName) {
+        hibernate5Handler.withHbm5Session(sessionFactoryName) { String name, Session session ->
+            (1..ENTITIES).each { session.save(new Country(id: it, name: "country${it}")) }
+        }
+
+        Statistics statistics = hibernate5Handler.withHbm5Session(sessionFactoryName) { String name, Session session ->
+            session.sessionFactory.statistics
+        }
+        statistics.clear()
+        long start = System.nanoTime()
+        for (int i = 0; i < CALLS; i++) {
+            int id = (i % ENTITIES) + 1
+            hibernate5Handler.withHbm5Session(sessionFactoryName) { String name, Session session ->
+                session.get(Country, id)
+            }
+        }
+        double throughput = CALLS * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start)
+        [statements: statistics.prepareStatementCount, throughput: throughput]
+    }
+}
@@ -19,6 +19,7 @@ package griffon.plugins.hibernate5
 
 import griffon.annotations.inject.BindTo
 import griffon.core.GriffonApplication
+import griffon.plugins.datasource.DataSourceFactory
 import griffon.plugins.datasource.events.DataSourceConnectEndEvent
 import griffon.plugins.datasource.events.DataSourceConnectStartEvent
 import griffon.plugins.datasource.events.DataSourceDisconnectEndEvent
@@ -28,15 +29,74 @@ import griffon.plugins.hibernate5.events.Hibernate5ConnectEndEvent
 import griffon.plugins.hibernate5.events.Hibernate5ConnectStartEvent
 import griffon.plugins.hibernate5.events.Hibernate5DisconnectEndEvent
 import griffon.plugins.hibernate5.events.Hibernate5DisconnectStartEvent
+import griffon.plugins.hibernate5.exceptions.Hibernate5NPlusOneQueryException
 import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception
 import griffon.test.core.GriffonUnitRule
+import org.codehaus.griffon.runtime.hibernate5.DefaultHibernate5Factory
+import org.codehaus.griffon.runtime.hibernate5.DefaultHibernate5Handler
+import org.codehaus.griffon.runtime.hibernate5.DefaultHibernate5Storage
+import org.codehaus.griffon.runtime.hibernate5.HashShardStrategy
+import org.codehaus.griffon.runtime.hibernate5.RoutingDataSource
+import org.codehaus.griffon.runtime.hibernate5.SessionFactoryExecutors
+import org.codehaus.griffon.runtime.hibernate5.SessionFactoryStartup
+import org.codehaus.griffon.runtime.hibernate5.SlowQueryLog
+import org.codehaus.griffon.runtime.hibernate5.SqlStateRetryClassifier
+import org.codehaus.griffon.runtime.hibernate5.SessionFactoryWarmup
+import org.codehaus.griffon.runtime.hibernate5.ShardRouter
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegion
+import org.codehaus.griffon.runtime.hibernate5.cache.BoundedRegionFactory
+import org.codehaus.griffon.runtime.hibernate5.cache.RegionSettings
+import org.codehaus.griffon.runtime.hibernate5.cache.RegionSnapshot
+import org.codehaus.griffon.runtime.hibernate5.internal.DialectDetector
+import org.codehaus.griffon.runtime.hibernate5.internal.MappingCache
+import org.codehaus.griffon.runtime.hibernate5.internal.MappingEntry
+import org.codehaus.griffon.runtime.hibernate5.internal.MappingIndex
+import org.codehaus.griffon.runtime.hibernate5.tenancy.NamedTenantDataSourceFactory
+import org.codehaus.griffon.runtime.hibernate5.tenancy.TenantConnectionProvider
+import org.h2.jdbcx.JdbcDataSource
+import org.hibernate.CacheMode
+import org.hibernate.FlushMode
+import org.hibernate.MultiTenancyStrategy
+import org.hibernate.QueryTimeoutException
 import org.hibernate.Session
+import org.hibernate.SessionEventListener
+import org.hibernate.SessionFactory
+import org.hibernate.StatelessSession
+import org.hibernate.exception.JDBCConnectionException
+import org.hibernate.exception.LockAcquisitionException
+import org.hibernate.exception.LockTimeoutException
 import org.junit.Rule
 import spock.lang.Specification
 import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
 
 import javax.application.event.EventHandler
 import javax.inject.Inject
+import javax.management.MBeanServer
+import javax.management.ObjectName
+import javax.management.openmbean.CompositeData
+import javax.management.openmbean.TabularData
+import javax.sql.DataSource
+import javax.transaction.Synchronization
+import java.lang.management.ManagementFactory
+import java.sql.Connection
+import java.sql.DatabaseMetaData
+import java.sql.DriverManager
+import java.sql.SQLException
+import java.sql.SQLTimeoutException
+import java.sql.SQLTransientConnectionException
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.stream.Collectors
+import java.util.stream.Stream
 
 @Unroll
 class Hibernate5Spec extends Specification {
@@ -84,6 +144,253 @@ class Hibernate5Spec extends Specification {
         }
     }
 
+    void 'Concurrent calls on a cold SessionFactory build it exactly once'() {
+        given:
+        int threads = 64
+        TestEventHandler testEventHandler = new TestEventHandler()
+        application.eventRouter.subscribe(testEventHandler)
+        CountDownLatch start = new CountDownLatch(1)
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+        List<Future<Object>> results = (1..threads).collect {
+            executor.submit({
+                start.await()
+                hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+                    session.sessionFactory
+                }
+            } as Callable<Object>)
+        }
+
+        when:
+        start.countDown()
+        Set<Object> sessionFactories = results*.get(30, TimeUnit.SECONDS) as Set
+
+        then:
+        sessionFactories.size() == 1
+        testEventHandler.events.count('Hibernate5ConnectStartEvent') == 1
+        testEventHandler.events.count('Hibernate5ConnectEndEvent') == 1
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    void 'Session factories are built in parallel on startup'() {
+        given:
+        Hibernate5Storage hibernate5Storage = application.injector.getInstance(Hibernate5Storage)
+
+        when:
+        new SessionFactoryStartup(hibernate5Handler).connect(['default', 'internal', 'people'], 3, 30000L)
+
+        then:
+        ['default', 'internal', 'people'].every { hibernate5Storage.get(it) != null }
+    }
+
+    void 'A DataSource requested concurrently is created once'() {
+        given:
+        int threads = 16
+        Hibernate5Factory hibernate5Factory = application.injector.getInstance(Hibernate5Factory)
+        CountDownLatch start = new CountDownLatch(1)
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+        List<Future<Object>> results = (1..threads).collect {
+            executor.submit({
+                start.await()
+                hibernate5Factory.getDataSource('replica')
+            } as Callable<Object>)
+        }
+
+        when:
+        start.countDown()
+        Set<Object> dataSources = results*.get(30, TimeUnit.SECONDS) as Set
+
+        then:
+        dataSources.size() == 1
+
+        cleanup:
+        executor.shutdownNow()
+        hibernate5Factory.closeDataSource('replica')
+    }
+
+    void 'A failing SessionFactory fails the parallel startup with its name'() {
+        given:
+        Hibernate5Handler handler = Stub(Hibernate5Handler) {
+            withHbm5Session(_ as String, _ as Hibernate5Callback) >> { String sessionFactoryName, Hibernate5Callback callback ->
+                if (sessionFactoryName == 'broken') {
+                    throw new RuntimeHibernate5Exception(sessionFactoryName, new IllegalStateException('boom'))
+                }
+                null
+            }
+        }
+
+        when:
+        new SessionFactoryStartup(handler).connect(['default', 'broken', 'internal'], 3, 30000L)
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        e.hibernate5Name == 'broken'
+        e.cause instanceof IllegalStateException
+        !e.suppressed
+    }
+
+    void 'Parallel startup fails when a SessionFactory is not built in time'() {
+        given:
+        CountDownLatch release = new CountDownLatch(1)
+        Hibernate5Handler handler = Stub(Hibernate5Handler) {
+            withHbm5Session(_ as String, _ as Hibernate5Callback) >> { String sessionFactoryName, Hibernate5Callback callback ->
+                if (sessionFactoryName == 'slow') {
+                    release.await()
+                }
+                null
+            }
+        }
+
+        when:
+        new SessionFactoryStartup(handler).connect(['default', 'slow'], 2, 100L)
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        e.hibernate5Name == 'slow'
+        e.cause instanceof TimeoutException
+
+        cleanup:
+        release.countDown()
+    }
+
+    void 'A SessionFactory built after the parallel startup timed out is closed'() {
+        given:
+        CountDownLatch release = new CountDownLatch(1)
+        CountDownLatch closed = new CountDownLatch(1)
+        List<String> closedNames = [].asSynchronized()
+        Hibernate5Handler handler = Stub(Hibernate5Handler) {
+            withHbm5Session(_ as String, _ as Hibernate5Callback) >> { String sessionFactoryName, Hibernate5Callback callback ->
+                if (sessionFactoryName == 'slow') {
+                    // a metadata build does not react to interruption
+                    boolean released = false
+                    while (!released) {
+                        try {
+                            released = release.await(10, TimeUnit.SECONDS)
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+                null
+            }
+            closeHbm5Session(_ as String) >> { String sessionFactoryName ->
+                closedNames << sessionFactoryName
+                closed.countDown()
+            }
+        }
+
+        when:
+        new SessionFactoryStartup(handler).connect(['default', 'slow'], 2, 100L)
+
+        then:
+        thrown(RuntimeHibernate5Exception)
+        closedNames.empty
+
+        when:
+        release.countDown()
+
+        then:
+        closed.await(10, TimeUnit.SECONDS)
+        closedNames == ['slow']
+    }
+
+    void 'Background builds report the state of every SessionFactory'() {
+        given:
+        CountDownLatch release = new CountDownLatch(1)
+        Hibernate5Handler handler = Stub(Hibernate5Handler) {
+            withHbm5Session(_ as String, _ as Hibernate5Callback) >> { String sessionFactoryName, Hibernate5Callback callback ->
+                release.await()
+                if (sessionFactoryName == 'broken') {
+                    throw new RuntimeHibernate5Exception(sessionFactoryName, new IllegalStateException('boom'))
+                }
+                null
+            }
+        }
+        SessionFactoryWarmup warmup = new SessionFactoryWarmup(handler)
+
+        when:
+        warmup.start(['default', 'broken', 'internal'], 2)
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert warmup.states.values().count(SessionFactoryWarmup.State.CONNECTING) == 2
+        }
+        warmup.states.values().count(SessionFactoryWarmup.State.PENDING) == 1
+        !warmup.done
+
+        when:
+        release.countDown()
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert warmup.done
+        }
+        warmup.states == [default: SessionFactoryWarmup.State.CONNECTED, broken: SessionFactoryWarmup.State.FAILED, internal: SessionFactoryWarmup.State.CONNECTED]
+
+        cleanup:
+        warmup.stop()
+    }
+
+    void 'Stopping the warmup closes a SessionFactory that is still being built'() {
+        given:
+        CountDownLatch building = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        Hibernate5Handler handler = Mock(Hibernate5Handler)
+        SessionFactoryWarmup warmup = new SessionFactoryWarmup(handler)
+
+        when:
+        warmup.start(['default', 'internal'], 1)
+        building.await(10, TimeUnit.SECONDS)
+        Thread stopper = Thread.start { warmup.stop(10000L) }
+        new PollingConditions(timeout: 10).eventually {
+            assert stopper.state == Thread.State.TIMED_WAITING
+        }
+        release.countDown()
+        stopper.join(10000L)
+
+        then:
+        1 * handler.withHbm5Session('default', _ as Hibernate5Callback) >> {
+            building.countDown()
+            // ignore the interrupt of stop(), as a SessionFactory being built does not react to it either
+            while (release.count > 0) {
+                try {
+                    release.await()
+                } catch (InterruptedException ignored) {
+                }
+            }
+            null
+        }
+        1 * handler.closeHbm5Session('default')
+        0 * handler.withHbm5Session('internal', _)
+        warmup.states == [default: SessionFactoryWarmup.State.CANCELLED, internal: SessionFactoryWarmup.State.CANCELLED]
+        warmup.done
+    }
+
+    void 'A SessionFactory closed concurrently is destroyed once'() {
+        given:
+        CountDownLatch destroying = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        SessionFactory sessionFactory = Stub(SessionFactory)
+        Hibernate5Factory factory = Mock(Hibernate5Factory)
+        Hibernate5Storage storage = new DefaultHibernate5Storage()
+        storage.set('default', sessionFactory)
+        DefaultHibernate5Handler handler = new DefaultHibernate5Handler(factory, storage)
+
+        when:
+        Thread warmup = Thread.start { handler.closeHbm5Session('default') }
+        destroying.await(10, TimeUnit.SECONDS)
+        handler.closeHbm5Session('default')
+        release.countDown()
+        warmup.join(10000L)
+
+        then:
+        1 * factory.destroy('default', sessionFactory) >> {
+            destroying.countDown()
+            release.await(10, TimeUnit.SECONDS)
+        }
+        storage.get('default') == null
+    }
+
     void 'Bootstrap init is called'() {
         given:
         assert !bootstrap.initWitness
@@ -161,54 +468,1377 @@ class Hibernate5Spec extends Specification {
         peopleIn == peopleOut
     }
 
-    void 'A runtime exception is thrown within session handling'() {
+    void 'Execute statements on people table with a stateless session'() {
         when:
+        hibernate5Handler.withHbm5StatelessSession { String sessionFactoryName, StatelessSession session ->
+            session.insert(new Person(id: 1, name: 'Danno', lastname: 'Ferrin'))
+            session.insert(new Person(id: 2, name: 'Andres', lastname: 'Almiray'))
+        }
+
+        List people = hibernate5Handler.withHbm5StatelessSession { String sessionFactoryName, StatelessSession session ->
+            session.createQuery('from Person order by id').list()*.asMap()
+        }
+
+        then:
+        people == [[id: 1, name: 'Danno', lastname: 'Ferrin'],
+                   [id: 2, name: 'Andres', lastname: 'Almiray']]
+    }
+
+    void 'A stateless session rolls back when its callback fails'() {
+        when:
+        hibernate5Handler.withHbm5StatelessSession { String sessionFactoryName, StatelessSession session ->
+            session.insert(new Person(id: 1, name: 'Danno', lastname: 'Ferrin'))
+            throw new IllegalStateException('boom')
+        }
+
+        then:
+        thrown(RuntimeHibernate5Exception)
         hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
-            session.save(new Person())
+            session.createQuery('from Person').list()
+        }.isEmpty()
+    }
+
+    void 'Nested session blocks join the session bound to the current thread'() {
+        when:
+        List result = hibernate5Handler.withHbm5Session { String sessionFactoryName, Session outer ->
+            [hibernate5Handler.withHbm5Session { String name, Session inner -> inner.is(outer) },
+             hibernate5Handler.withHbm5Session(Propagation.MANDATORY) { String name, Session inner -> inner.is(outer) },
+             hibernate5Handler.withHbm5Session(Propagation.REQUIRES_NEW) { String name, Session inner -> inner.is(outer) }]
         }
 
+        then:
+        result == [true, true, false]
+    }
+
+    void 'Mandatory propagation fails when no session is bound to the current thread'() {
+        when:
+        hibernate5Handler.withHbm5Session(Propagation.MANDATORY) { String sessionFactoryName, Session session -> null }
+
         then:
         thrown(RuntimeHibernate5Exception)
     }
 
-    void "Exception is thrown when using Person class on 'people' datasource"() {
+    void 'A failed nested session block rolls back the outer transaction'() {
         when:
-        hibernate5Handler.withHbm5Session(name) { String sessionFactoryName, Session session ->
-            session.createQuery("from Person").list()
+        hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.save(new Person(id: 1, name: 'Danno', lastname: 'Ferrin'))
+            try {
+                hibernate5Handler.withHbm5Session { String name, Session inner ->
+                    throw new IllegalStateException('boom')
+                }
+            } catch (RuntimeHibernate5Exception ignored) {
+                // swallowed on purpose, the outer block must not commit
+            }
         }
 
         then:
         thrown(RuntimeHibernate5Exception)
+        hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.createQuery('from Person').list()
+        }.isEmpty()
+    }
+
+    void 'Execute statements asynchronously on a dedicated executor'() {
+        when:
+        CompletableFuture<String> future = hibernate5Handler.withHbm5SessionAsync { String sessionFactoryName, Session session ->
+            session.save(new Person(id: 1, name: 'Danno', lastname: 'Ferrin'))
+            Thread.currentThread().name
+        }
+        String threadName = future.get(10, TimeUnit.SECONDS)
+
+        then:
+        threadName.startsWith('hibernate5-default-')
+        hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.createQuery('from Person').list()*.name
+        } == ['Danno']
+    }
+
+    void 'Failures of asynchronous statements complete the future exceptionally'() {
+        when:
+        hibernate5Handler.withHbm5SessionAsync { String sessionFactoryName, Session session ->
+            throw new IllegalStateException('boom')
+        }.get(10, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown(ExecutionException)
+        e.cause instanceof RuntimeHibernate5Exception
+    }
+
+    void 'Asynchronous work dropped by a #mode executor shutdown completes its future exceptionally'() {
+        given:
+        Hibernate5Factory hibernate5Factory = Stub(Hibernate5Factory) {
+            getConfigurationFor('async') >> [async_mode: mode, async_threads: 1, async_queue_size: 10]
+        }
+        SessionFactoryExecutors.SessionFactoryExecutor executor = new SessionFactoryExecutors(hibernate5Factory).get('async')
+        CountDownLatch running = new CountDownLatch(1)
+        CompletableFuture<Object> blocking = executor.submit {
+            running.countDown()
+            new CountDownLatch(1).await()
+        }
+        CompletableFuture<Object> waiting = executor.submit { 'never' }
+        running.await(10, TimeUnit.SECONDS)
+
+        when:
+        executor.shutdownNow()
+        waiting.get(10, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown(ExecutionException)
+        e.cause instanceof RuntimeHibernate5Exception
+        e.cause.cause instanceof RejectedExecutionException
+        new PollingConditions(timeout: 10).eventually {
+            assert blocking.completedExceptionally
+        }
 
         where:
-        name     | _
-        'people' | _
+        mode << ['platform', 'virtual']
     }
 
-    void "AnotherPerson class can be used on 'people' datasource"() {
+    void 'Virtual threads are bounded by the size of the connection pool'() {
+        given:
+        Hibernate5Factory hibernate5Factory = application.injector.getInstance(Hibernate5Factory)
+
+        expect:
+        hibernate5Factory.getConnectionPoolSize('default') == 8
+        hibernate5Factory.getConnectionPoolSize('benchmark_virtual') == 16
+        // c3p0 hands out the connections of 'internal', not its DataSource
+        hibernate5Factory.getConnectionPoolSize('internal') == -1
+    }
+
+    void 'Session latencies are exposed through JMX'() {
+        given:
+        MBeanServer server = ManagementFactory.platformMBeanServer
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SessionFactory,name=default,*'), null)[0]
+
         when:
-        List peopleIn = hibernate5Handler.withHbm5Session(name) { String sessionFactoryName, Session session ->
-            [[id: 1, name: 'Danno', lastname: 'Ferrin'],
-             [id: 2, name: 'Andres', lastname: 'Almiray'],
-             [id: 3, name: 'James', lastname: 'Williams'],
-             [id: 4, name: 'Guillaume', lastname: 'Laforge'],
-             [id: 5, name: 'Jim', lastname: 'Shingler'],
-             [id: 6, name: 'Alexander', lastname: 'Klein'],
-             [id: 7, name: 'Rene', lastname: 'Groeschke']].each { data ->
-                session.save(new AnotherPerson(data))
+        3.times {
+            hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+                session.save(new Person(id: it + 1, name: 'Danno', lastname: 'Ferrin'))
             }
         }
+        try {
+            hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+                throw new IllegalStateException('boom')
+            }
+        } catch (RuntimeHibernate5Exception ignored) {
+            // expected
+        }
+        CompositeData sessionLatency = (CompositeData) server.getAttribute(objectName, 'SessionLatency')
+        CompositeData commitLatency = (CompositeData) server.getAttribute(objectName, 'CommitLatency')
+        CompositeData rollbackLatency = (CompositeData) server.getAttribute(objectName, 'RollbackLatency')
+        server.invoke(objectName, 'resetLatencies', null, null)
 
-        List peopleOut = hibernate5Handler.withHbm5Session(name) { String sessionFactoryName, Session session ->
-            session.createQuery('from AnotherPerson').list()*.asMap()
+        then:
+        sessionLatency.get('count') >= 4
+        sessionLatency.get('errorCount') >= 1
+        sessionLatency.get('p99Millis') <= sessionLatency.get('maxMillis')
+        commitLatency.get('count') >= 3
+        rollbackLatency.get('count') >= 1
+        ((CompositeData) server.getAttribute(objectName, 'SessionLatency')).get('count') == 0
+    }
+
+    void 'Hibernate statistics are exposed through JMX'() {
+        given:
+        MBeanServer server = ManagementFactory.platformMBeanServer
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SessionFactoryStatistics,name=internal,*'), null)[0]
+
+        when:
+        hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+            session.save(new Person(id: 1, name: 'Danno', lastname: 'Ferrin'))
+        }
+        2.times {
+            hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+                session.createQuery('from Person').list()
+            }
         }
+        TabularData entities = (TabularData) server.getAttribute(objectName, 'EntityStatistics')
+        TabularData queries = (TabularData) server.getAttribute(objectName, 'QueryStatistics')
 
         then:
-        peopleIn == peopleOut
+        server.getAttribute(objectName, 'StatisticsEnabled')
+        server.getAttribute(objectName, 'EntityInsertCount') >= 1
+        entities.get(['griffon.plugins.hibernate5.Person'] as Object[]).get('value').get('insertCount') >= 1
+        queries.get(['from Person'] as Object[]).get('value').get('executionCount') >= 2
+        server.getAttribute(objectName, 'QueryPlanCacheHitRatio') > 0
+    }
 
-        where:
-        name     | _
-        'people' | _
+    void 'Statements are ranked by the slow query log'() {
+        given:
+        MBeanServer server = ManagementFactory.platformMBeanServer
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SlowQueryLog,name=internal,*'), null)[0]
+        server.invoke(objectName, 'reset', null, null)
+
+        when:
+        hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+            session.createQuery("from Person where name = 'Danno'").list()
+            session.createQuery("from Person where name = 'Andres'").list()
+        }
+        CompositeData[] statements = (CompositeData[]) server.getAttribute(objectName, 'SlowestStatements')
+
+        then:
+        server.getAttribute(objectName, 'StatementCount') == 2
+        server.getAttribute(objectName, 'SlowStatementCount') == 2
+        statements.length == 1
+        statements[0].get('count') == 2
+        statements[0].get('sql').endsWith('where person0_.name=?')
+    }
+
+    void 'Batched statements are timed under their own SQL'() {
+        given:
+        SlowQueryLog slowQueryLog = new SlowQueryLog('batched', 0L, 10, null)
+        SessionEventListener listener = slowQueryLog.sessionEventListener
+
+        when:
+        // two statements of one batch are prepared before the batch runs, twice, in preparation order
+        slowQueryLog.inspect('insert into Person (name, id) values (?, ?)')
+        slowQueryLog.inspect('insert into Address (street, id) values (?, ?)')
+        2.times {
+            listener.jdbcExecuteBatchStart()
+            listener.jdbcExecuteBatchEnd()
+            listener.jdbcExecuteBatchStart()
+            listener.jdbcExecuteBatchEnd()
+        }
+        slowQueryLog.inspect('select name from Person where id = ?')
+        listener.jdbcExecuteStatementStart()
+        listener.jdbcExecuteStatementEnd()
+        listener.end()
+        Map<String, Long> counts = slowQueryLog.slowestStatements.collectEntries { [(it.sql): it.count] }
+
+        then:
+        slowQueryLog.statementCount == 5
+        counts == [
+            'insert into Person (name, id) values (?, ?)' : 2L,
+            'insert into Address (street, id) values (?, ?)': 2L,
+            'select name from Person where id = ?'        : 1L
+        ]
+    }
+
+    void 'Repeated queries within a session block fail as N+1 queries'() {
+        given:
+        List ids = hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+            (1..5).collect { session.save(new Person(id: it, name: "name${it}", lastname: 'n+1')) }
+        }
+
+        int line = 0
+
+        when:
+        hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+            ids.each { id ->
+                session.clear()
+                line = currentLine(); session.get(Person, id)
+            }
+        }
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        e.cause instanceof Hibernate5NPlusOneQueryException
+        e.cause.count == 5
+        // the call site is the query that crossed the threshold, not the end of the session block
+        e.cause.callSite.contains(Hibernate5Spec.simpleName)
+        e.cause.callSite.endsWith(":${line})")
+    }
+
+    private static int currentLine() {
+        new Throwable().stackTrace.find { it.className.startsWith(Hibernate5Spec.name) && it.methodName != 'currentLine' }.lineNumber
+    }
+
+    void 'Entities are read from the bounded second-level cache'() {
+        given:
+        MBeanServer server = ManagementFactory.platformMBeanServer
+        hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+            [[id: 1, name: 'Belgium'], [id: 2, name: 'Chile'], [id: 3, name: 'Denmark']].each { data ->
+                session.save(new Country(data))
+            }
+        }
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SecondLevelCache,name=cached,*'), null)[0]
+        server.invoke(objectName, 'evictAll', null, null)
+
+        when:
+        [1, 1, 2, 3].each { id ->
+            hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+                session.get(Country, id)
+            }
+        }
+        CompositeData region = ((CompositeData[]) server.getAttribute(objectName, 'Regions')).find {
+            it.get('regionName') == Country.name
+        }
+        boolean evicted = server.invoke(objectName, 'evictRegion', [Country.name] as Object[], [String.name] as String[])
+
+        then:
+        region.get('maxEntries') == 2
+        region.get('hitCount') >= 1
+        region.get('evictionCount') >= 1
+        region.get('size') == 2
+        evicted
+        server.getAttribute(objectName, 'Size') == 0
+    }
+
+    void 'Persistent cache regions are restored after a restart'() {
+        given:
+        new File('build/hibernate5-cache-snapshot/cached/cache.snapshot').delete()
+        hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+            session.save(new Country(id: 1, name: 'Belgium'))
+        }
+        hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+            session.get(Country, 1)
+        }
+
+        when:
+        application.addonManager.findAddon('hibernate5').onShutdown(application)
+        MBeanServer server = ManagementFactory.platformMBeanServer
+        // the in-memory database is gone, so the entity can only come from the snapshot
+        hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session -> true }
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SecondLevelCache,name=cached,*'), null)[0]
+        new PollingConditions(timeout: 10).eventually {
+            assert server.getAttribute(objectName, 'Size') == 1
+        }
+        Country country = hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+            session.get(Country, 1)
+        }
+
+        then:
+        new File('build/hibernate5-cache-snapshot/cached/cache.snapshot').exists()
+        country.name == 'Belgium'
+    }
+
+    void 'A cache snapshot only restores entries of allowed classes'() {
+        given:
+        File file = File.createTempFile('hibernate5', '.snapshot')
+        file.deleteOnExit()
+        RegionSettings settings = new RegionSettings(10, 0L, true)
+        BoundedRegionFactory source = new BoundedRegionFactory(settings, [:])
+        BoundedRegion region = source.register('countries', BoundedRegion.Type.DOMAIN_DATA, settings)
+        region.putIntoCache(1, 'Belgium', null)
+        region.putIntoCache(2, new URI('country:chile'), null)
+        region.putIntoCache(3, new File('denmark'), null)
+        RegionSnapshot snapshot = new RegionSnapshot(file, 'fingerprint', getClass().classLoader)
+        snapshot.store(source)
+        BoundedRegionFactory target = new BoundedRegionFactory(settings, [:])
+        BoundedRegion restored = target.register('countries', BoundedRegion.Type.DOMAIN_DATA, settings)
+
+        when:
+        int count = snapshot.load(target, [URI])
+
+        then:
+        count == 2
+        restored.getFromCache(1, null) == 'Belgium'
+        restored.getFromCache(2, null) == new URI('country:chile')
+        // java.io.File is neither a JDK value type nor a mapped class
+        restored.getFromCache(3, null) == null
+    }
+
+    void 'Keys changed while a cache region is restored keep their current state'() {
+        given:
+        BoundedRegion region = new BoundedRegion('countries', BoundedRegion.Type.DOMAIN_DATA, new RegionSettings(10, 0L, true))
+        long expiresAt = Long.MAX_VALUE
+
+        when:
+        region.putIntoCache(1, 'Belgium', null)
+        region.evictData(1)
+        region.putIntoCache(2, 'Chile', null)
+        boolean restoring = [
+            region.restore(new BoundedRegion.SnapshotEntry(1, 'Belgium (stale)', expiresAt)),
+            region.restore(new BoundedRegion.SnapshotEntry(2, 'Chile (stale)', expiresAt)),
+            region.restore(new BoundedRegion.SnapshotEntry(3, 'Denmark', expiresAt))
+        ].every()
+        region.finishRestore()
+        boolean restoredAfterFinish = region.restore(new BoundedRegion.SnapshotEntry(4, 'Estonia', expiresAt))
+
+        then:
+        restoring
+        region.getFromCache(1, null) == null
+        region.getFromCache(2, null) == 'Chile'
+        region.getFromCache(3, null) == 'Denmark'
+        !restoredAfterFinish
+        region.getFromCache(4, null) == null
+    }
+
+    void 'Cancelling a cache restore stops its thread and the restoring of its regions'() {
+        given:
+        RegionSettings settings = new RegionSettings(10, 0L, true)
+        BoundedRegionFactory factory = new BoundedRegionFactory(settings, [:])
+        BoundedRegion region = factory.register('countries', BoundedRegion.Type.DOMAIN_DATA, settings)
+        CountDownLatch started = new CountDownLatch(1)
+        Thread restore = new Thread({
+            started.countDown()
+            try {
+                Thread.sleep(60000L)
+            } catch (InterruptedException ignored) {
+            }
+        })
+
+        when:
+        factory.startRestore(restore)
+        started.await(10, TimeUnit.SECONDS)
+        boolean finished = factory.awaitRestore(50L)
+        boolean cancelled = factory.cancelRestore(10000L)
+
+        then:
+        !finished
+        cancelled
+        !restore.alive
+        !region.restore(new BoundedRegion.SnapshotEntry(1, 'Belgium', Long.MAX_VALUE))
+    }
+
+    void 'An interrupted cache restore stops reading the snapshot'() {
+        given:
+        File file = File.createTempFile('hibernate5', '.snapshot')
+        file.deleteOnExit()
+        RegionSettings settings = new RegionSettings(10, 0L, true)
+        BoundedRegionFactory source = new BoundedRegionFactory(settings, [:])
+        source.register('countries', BoundedRegion.Type.DOMAIN_DATA, settings).putIntoCache(1, 'Belgium', null)
+        RegionSnapshot snapshot = new RegionSnapshot(file, 'fingerprint', getClass().classLoader)
+        snapshot.store(source)
+        BoundedRegionFactory target = new BoundedRegionFactory(settings, [:])
+        BoundedRegion restored = target.register('countries', BoundedRegion.Type.DOMAIN_DATA, settings)
+        Throwable failure = null
+
+        when:
+        Thread restore = Thread.start {
+            Thread.currentThread().interrupt()
+            try {
+                snapshot.load(target, [])
+            } catch (Throwable e) {
+                failure = e
+            }
+        }
+        restore.join(10000L)
+
+        then:
+        failure instanceof InterruptedIOException
+        restored.getFromCache(1, null) == null
+    }
+
+    void 'Cached query results are dropped when a queried entity is written'() {
+        given:
+        hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+            session.save(new Country(id: 1, name: 'Belgium'))
+        }
+        MBeanServer server = ManagementFactory.platformMBeanServer
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SecondLevelCache,name=cached,*'), null)[0]
+        server.invoke(objectName, 'evictAll', null, null)
+
+        when:
+        Closure<List> countries = {
+            hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+                session.getNamedQuery('Country.all').list()*.name
+            }
+        }
+        List first = countries()
+        List second = countries()
+        hibernate5Handler.withHbm5Session('cached') { String sessionFactoryName, Session session ->
+            session.save(new Country(id: 2, name: 'Chile'))
+        }
+        List third = countries()
+
+        then:
+        first == ['Belgium']
+        second == ['Belgium']
+        third == ['Belgium', 'Chile']
+        // the stale result found by the third query is a miss
+        server.getAttribute(objectName, 'QueryCacheHitCount') == 1
+        server.getAttribute(objectName, 'QueryCacheMissCount') == 2
+        server.getAttribute(objectName, 'QueryCacheHitRatio') == 1 / 3d
+    }
+
+    void 'Session blocks failing with a transient error are retried in a new session'() {
+        given:
+        List sessions = []
+        MBeanServer server = ManagementFactory.platformMBeanServer
+
+        when:
+        String result = hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+            sessions << session
+            if (sessions.size() < 3) {
+                throw new LockAcquisitionException('deadlock', new SQLException('deadlock', '40001'))
+            }
+            'done'
+        }
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SessionFactory,name=internal,*'), null)[0]
+
+        then:
+        result == 'done'
+        sessions.size() == 3
+        sessions.unique(false) { System.identityHashCode(it) }.size() == 3
+        server.getAttribute(objectName, 'RetryCount') == 2
+        server.getAttribute(objectName, 'RetriesExhaustedCount') == 0
+    }
+
+    void 'Session blocks are not retried after a permanent error'() {
+        given:
+        int attempts = 0
+
+        when:
+        hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+            attempts++
+            throw new IllegalStateException('boom')
+        }
+
+        then:
+        thrown(RuntimeHibernate5Exception)
+        attempts == 1
+    }
+
+    void 'Session blocks whose commit fails are not retried'() {
+        given:
+        int attempts = 0
+
+        when:
+        hibernate5Handler.withHbm5Session('internal') { String sessionFactoryName, Session session ->
+            attempts++
+            session.transaction.registerSynchronization(new Synchronization() {
+                @Override
+                void beforeCompletion() {
+                    throw new JDBCConnectionException('connection lost', new SQLException('connection lost', '08006'))
+                }
+
+                @Override
+                void afterCompletion(int status) {
+                }
+            })
+        }
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        causes(e).any { it instanceof SQLException && it.SQLState == '08006' }
+        attempts == 1
+    }
+
+    @Unroll
+    void 'A #failure.class.simpleName is retried when retry_timeouts is #retryTimeouts'() {
+        given:
+        SqlStateRetryClassifier classifier = new SqlStateRetryClassifier(['HYT00'], retryTimeouts)
+
+        expect:
+        classifier.isRetryable('internal', failure) == retryTimeouts
+
+        where:
+        failure                                                                                      | retryTimeouts
+        new SQLTimeoutException('timeout', 'HYT00')                                                  | false
+        new SQLTimeoutException('timeout', 'HYT00')                                                  | true
+        new QueryTimeoutException('timeout', new SQLException('timeout', 'HYT00'), 'select 1')       | false
+        new QueryTimeoutException('timeout', new SQLException('timeout', 'HYT00'), 'select 1')       | true
+        new LockTimeoutException('timeout', new SQLException('timeout', 'HYT00'))                    | false
+        new LockTimeoutException('timeout', new SQLException('timeout', 'HYT00'))                    | true
+        new javax.persistence.QueryTimeoutException(new SQLTimeoutException('timeout', 'HYT00'))     | false
+    }
+
+    void 'Transient errors other than timeouts are retried'() {
+        given:
+        SqlStateRetryClassifier classifier = new SqlStateRetryClassifier()
+
+        expect:
+        classifier.isRetryable('internal', new SQLTransientConnectionException('gone', '08006'))
+        classifier.isRetryable('internal', new LockAcquisitionException('deadlock', new SQLException('deadlock', '40P01')))
+        !classifier.isRetryable('internal', new SQLException('syntax', '42000'))
+    }
+
+    void 'SQLState prefixes to retry must be strings'() {
+        when:
+        DefaultHibernate5Factory.getRetrySqlStates([retry_sql_states: ['40001', "${4}0P01", 8]])
+
+        then:
+        IllegalArgumentException e = thrown(IllegalArgumentException)
+        e.message.contains('retry_sql_states')
+        e.message.endsWith('8')
+    }
+
+    void 'Read-only session blocks are routed to a replica'() {
+        when:
+        String writeUrl = hibernate5Handler.withHbm5Session('replicated') { String sessionFactoryName, Session session ->
+            session.doReturningWork { Connection connection -> connection.metaData.URL }
+        }
+        String readUrl = hibernate5Handler.withHbm5ReadOnlySession('replicated') { String sessionFactoryName, Session session ->
+            session.doReturningWork { Connection connection -> connection.metaData.URL }
+        }
+
+        then:
+        writeUrl.endsWith('-replicated')
+        // a read-write session that wrote nothing keeps reads on the replica
+        readUrl.endsWith('-replica')
+    }
+
+    void 'Read-only sessions of a thread that committed a write stay on the primary'() {
+        given:
+        Closure<String> readOnlyUrl = {
+            hibernate5Handler.withHbm5ReadOnlySession('replicated') { String sessionFactoryName, Session session ->
+                session.doReturningWork { Connection connection -> connection.metaData.URL }
+            }
+        }
+
+        when:
+        hibernate5Handler.withHbm5Session('replicated') { String sessionFactoryName, Session session ->
+            session.doWork { Connection connection ->
+                connection.createStatement().execute('create table if not exists notes(id int)')
+                connection.prepareStatement('insert into notes values (1)').executeUpdate()
+            }
+        }
+        String ownReadUrl = readOnlyUrl()
+        String otherReadUrl = null
+        Thread.start { otherReadUrl = readOnlyUrl() }.join()
+
+        then:
+        ownReadUrl.endsWith('-replicated')
+        otherReadUrl.endsWith('-replica')
+    }
+
+    void 'The read-your-writes window opens on committed writes and closes after read_your_writes milliseconds'() {
+        given:
+        DataSource primary = new JdbcDataSource(url: 'jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1', user: 'sa')
+        DataSource replica = new JdbcDataSource(url: 'jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1', user: 'sa')
+        RoutingDataSource dataSource = new RoutingDataSource('routing', primary, [replica], RoutingDataSource.Balancing.ROUND_ROBIN, 200L)
+        Closure<Void> write = { boolean commit ->
+            dataSource.connection.withCloseable { Connection connection ->
+                connection.autoCommit = false
+                connection.prepareStatement('/* note */ insert into notes values (1)').executeUpdate()
+                commit ? connection.commit() : connection.rollback()
+            }
+        }
+
+        when:
+        dataSource.connection.withCloseable { Connection connection ->
+            connection.createStatement().execute('create table if not exists notes(id int)')
+        }
+        String afterAutoCommit = readUrl(dataSource)
+        dataSource.connection.withCloseable { Connection connection ->
+            connection.autoCommit = false
+            connection.prepareStatement('select count(*) from notes').executeQuery()
+            connection.commit()
+        }
+        String afterRead = readUrl(dataSource)
+        write(false)
+        String afterRollback = readUrl(dataSource)
+        write(true)
+        String afterWrite = readUrl(dataSource)
+        String otherThread = null
+        Thread.start { otherThread = readUrl(dataSource) }.join()
+        Thread.sleep(300L)
+        String afterWindow = readUrl(dataSource)
+
+        then:
+        afterAutoCommit.startsWith('jdbc:h2:mem:routing-replica')
+        afterRead.startsWith('jdbc:h2:mem:routing-replica')
+        afterRollback.startsWith('jdbc:h2:mem:routing-replica')
+        afterWrite.startsWith('jdbc:h2:mem:routing-primary')
+        otherThread.startsWith('jdbc:h2:mem:routing-replica')
+        afterWindow.startsWith('jdbc:h2:mem:routing-replica')
+    }
+
+    @Unroll
+    void "'#sql' is a write: #write"() {
+        expect:
+        RoutingDataSource.isWrite(sql) == write
+
+        where:
+        sql                                                                                             | write
+        'select * from COUNTRY'                                                                         | false
+        '/* comment */ values (1)'                                                                      | false
+        'update COUNTRY set NAME = ?'                                                                   | true
+        'with c as (select * from COUNTRY) select * from c'                                             | false
+        "with c as (select 'update' as NAME, \"delete\" from COUNTRY) select * from c"                  | false
+        'with moved as (delete from COUNTRY returning *) insert into ARCHIVE select * from moved'       | true
+        'WITH c AS (SELECT ID FROM COUNTRY) UPDATE COUNTRY SET NAME = ? WHERE ID IN (SELECT ID FROM c)' | true
+        '-- note\nwith c as (select 1) merge into COUNTRY using c on (1 = 1)'                           | true
+    }
+
+    void 'Least latency balancing prefers the replica that hands out connections fastest'() {
+        given:
+        DataSource slow = stubDataSource('slow') { Thread.sleep(20L) }
+        DataSource fast = stubDataSource('fast') {}
+        RoutingDataSource dataSource = new RoutingDataSource('routing', stubDataSource('primary') {}, [slow, fast], RoutingDataSource.Balancing.LEAST_LATENCY, 0L)
+
+        when:
+        // until both replicas handed out a connection their latency is unknown
+        List<String> warmup = (1..2).collect { readUrl(dataSource) }
+        List<String> reads = (1..10).collect { readUrl(dataSource) }
+
+        then:
+        warmup as Set == ['slow', 'fast'] as Set
+        reads.every { it == 'fast' }
+    }
+
+    void 'Reads fail over to the next replica and then to the primary'() {
+        given:
+        int brokenAttempts = 0
+        DataSource broken = stubDataSource('broken') {
+            brokenAttempts++
+            throw new SQLException('connection refused', '08001')
+        }
+        boolean flakyUp = true
+        DataSource flaky = stubDataSource('flaky') {
+            if (!flakyUp) {
+                throw new SQLException('connection refused', '08001')
+            }
+        }
+        RoutingDataSource dataSource = new RoutingDataSource('routing', stubDataSource('primary') {}, [broken, flaky], RoutingDataSource.Balancing.ROUND_ROBIN, 0L)
+
+        when:
+        List<String> reads = (1..4).collect { readUrl(dataSource) }
+        flakyUp = false
+        String lastRead = readUrl(dataSource)
+
+        then:
+        reads.every { it == 'flaky' }
+        // a failed replica is skipped for a while instead of being asked again on every read
+        brokenAttempts == 1
+        lastRead == 'primary'
+    }
+
+    private static String readUrl(RoutingDataSource dataSource) {
+        boolean previous = RoutingDataSource.routeToReplica(true)
+        try {
+            dataSource.connection.withCloseable { Connection connection -> connection.metaData.URL }
+        } finally {
+            RoutingDataSource.routeToReplica(previous)
+        }
+    }
+
+    private DataSource stubDataSource(String url, Closure<?> onConnect) {
+        Stub(DataSource) {
+            getConnection() >> {
+                onConnect()
+                Stub(Connection) {
+                    getMetaData() >> Stub(DatabaseMetaData) {
+                        getURL() >> url
+                    }
+                }
+            }
+        }
+    }
+
+    void 'Session blocks are routed to the shard of their key'() {
+        when:
+        hibernate5Handler.withHbm5Shard(5) { String sessionFactoryName, Session session ->
+            session.save(new Person(id: 1, name: 'Danno', lastname: 'Ferrin'))
+        }
+        hibernate5Handler.withHbm5Shard(150L) { String sessionFactoryName, Session session ->
+            session.save(new Person(id: 2, name: 'Andres', lastname: 'Almiray'))
+        }
+        List counts = hibernate5Handler.withHbm5AllShards { String sessionFactoryName, Session session ->
+            [sessionFactoryName, session.createQuery('select count(p) from Person p').uniqueResult()]
+        }
+
+        then:
+        counts == [['default', 1L], ['internal', 1L]]
+    }
+
+    void 'Hash sharding spreads keys evenly and only moves keys to an added shard'() {
+        given:
+        HashShardStrategy strategy = new HashShardStrategy()
+        List<String> shards = ['a', 'b', 'c']
+        List<Integer> keys = (1..3000).toList()
+
+        when:
+        Map<Integer, String> before = keys.collectEntries { [it, strategy.shardFor(it, shards)] }
+        Map<Integer, String> after = keys.collectEntries { [it, strategy.shardFor(it, shards + 'd')] }
+        Map<String, Integer> counts = before.values().countBy { it }
+        List<String> moved = keys.findAll { before[it] != after[it] }.collect { after[it] }
+
+        then:
+        counts.keySet() == shards as Set
+        counts.values().every { it > 800 && it < 1200 }
+        moved.every { it == 'd' }
+        moved.size() > 600 && moved.size() < 900
+        strategy.shardFor(42, shards) == strategy.shardFor(42L, shards)
+    }
+
+    void 'A custom shard strategy routes keys'() {
+        given:
+        Hibernate5ShardStrategy strategy = { Object shardKey, List<String> shards -> shards[(shardKey as int) % shards.size()] } as Hibernate5ShardStrategy
+        Set<String> names = ['default', 'internal', 'people'] as Set
+
+        when:
+        ShardRouter byInstance = ShardRouter.create([shards: ['default', 'internal'], strategy: strategy], names)
+        ShardRouter byClass = ShardRouter.create([shards: ['default', 'internal'], strategy: LastShardStrategy], names)
+        ShardRouter byName = ShardRouter.create([shards: ['default', 'internal'], strategy: LastShardStrategy.name], names)
+
+        then:
+        byInstance.shardFor(4) == 'default'
+        byInstance.shardFor(5) == 'internal'
+        byClass.shardFor('any') == 'internal'
+        byName.shardFor('any') == 'internal'
+    }
+
+    void 'A shard strategy must pick one of the shards'() {
+        given:
+        Hibernate5ShardStrategy strategy = { Object shardKey, List<String> shards -> 'people' } as Hibernate5ShardStrategy
+        ShardRouter router = ShardRouter.create([shards: ['default', 'internal'], strategy: strategy], ['default', 'internal', 'people'] as Set)
+
+        when:
+        router.shardFor(1)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    void 'Asynchronous work visits all shards inline'() {
+        when:
+        List<Boolean> sameThread = hibernate5Handler.withHbm5SessionAsync('default') { String sessionFactoryName, Session session ->
+            Thread outer = Thread.currentThread()
+            hibernate5Handler.withHbm5AllShards { String shard, Session shardSession ->
+                Thread.currentThread() == outer && shardSession != session
+            }
+        }.get(30, TimeUnit.SECONDS)
+
+        then:
+        sameThread == [true, true]
+    }
+
+    static class LastShardStrategy implements Hibernate5ShardStrategy {
+        @Override
+        String shardFor(Object shardKey, List<String> shards) {
+            shards[-1]
+        }
+    }
+
+    void 'Tenant sessions use the database of their tenant'() {
+        given:
+        MBeanServer server = ManagementFactory.platformMBeanServer
+
+        when:
+        List urls = ['tenant_a', 'tenant_b', 'tenant_a'].collect { String tenant ->
+            hibernate5Handler.withHbm5TenantSession('tenants', tenant) { String sessionFactoryName, Session session ->
+                session.doReturningWork { Connection connection -> connection.metaData.URL }
+            }
+        }
+        ObjectName objectName = server.queryNames(new ObjectName('griffon.plugins.hibernate5:type=SessionFactory,name=tenants,*'), null)[0]
+
+        then:
+        urls.collect { it.find(/tenant_[ab]/) } == ['tenant_a', 'tenant_b', 'tenant_a']
+        server.getAttribute(objectName, 'TenantDataSourceCount') == 1
+        server.getAttribute(objectName, 'TenantDataSourceEvictionCount') == 2
+    }
+
+    void 'Tenant sessions use the schema of their tenant'() {
+        when:
+        List schemas = ['TENANT_A', 'TENANT_B'].collect { String tenant ->
+            hibernate5Handler.withHbm5TenantSession('schemas', tenant) { String sessionFactoryName, Session session ->
+                session.doReturningWork { Connection connection -> connection.schema }
+            }
+        }
+        String defaultSchema = hibernate5Handler.withHbm5Session('schemas') { String sessionFactoryName, Session session ->
+            session.doReturningWork { Connection connection -> connection.schema }
+        }
+
+        then:
+        schemas == ['TENANT_A', 'TENANT_B']
+        defaultSchema == 'PUBLIC'
+    }
+
+    void 'Entities saved for one tenant database are not visible to another'() {
+        given:
+        Closure<List> names = { String tenant ->
+            hibernate5Handler.withHbm5TenantSession('tenants', tenant) { String sessionFactoryName, Session session ->
+                session.createQuery('from Country order by id', Country).list()*.name
+            }
+        }
+
+        when:
+        hibernate5Handler.withHbm5TenantSession('tenants', 'tenant_a') { String sessionFactoryName, Session session ->
+            session.save(new Country(id: 1, name: 'Belgium'))
+        }
+        List seenByB = names('tenant_b')
+        hibernate5Handler.withHbm5TenantSession('tenants', 'tenant_b') { String sessionFactoryName, Session session ->
+            session.save(new Country(id: 1, name: 'Chile'))
+        }
+
+        then:
+        seenByB == []
+        names('tenant_b') == ['Chile']
+    }
+
+    void 'Entities saved for one tenant schema are not visible to another'() {
+        given:
+        Closure<List> names = { String tenant ->
+            hibernate5Handler.withHbm5TenantSession('schemas', tenant) { String sessionFactoryName, Session session ->
+                session.createQuery('from Country order by id', Country).list()*.name
+            }
+        }
+
+        when:
+        hibernate5Handler.withHbm5TenantSession('schemas', 'TENANT_A') { String sessionFactoryName, Session session ->
+            session.save(new Country(id: 1, name: 'Belgium'))
+        }
+
+        then:
+        names('TENANT_B') == []
+        names('TENANT_A') == ['Belgium']
+        names('PUBLIC') == []
+    }
+
+    void 'A tenant whose schema does not exist fails with a clear error'() {
+        when:
+        hibernate5Handler.withHbm5TenantSession('schemas', 'TENANT_C') { String sessionFactoryName, Session session ->
+            session.createQuery('from Country', Country).list()
+        }
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        causes(e).any { it.message?.contains("schema of tenant 'TENANT_C'") }
+        // the connection went back to the pool with its schema reset
+        hibernate5Handler.withHbm5Session('schemas') { String sessionFactoryName, Session session ->
+            session.doReturningWork { Connection connection -> connection.schema }
+        } == 'PUBLIC'
+    }
+
+    void 'Only configured tenants get a data source'() {
+        when:
+        hibernate5Handler.withHbm5TenantSession('tenants', 'default') { String sessionFactoryName, Session session ->
+            session.createQuery('from Country', Country).list()
+        }
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        causes(e).any { it instanceof IllegalArgumentException && it.message == "'default' is not a tenant of 'tenants'" }
+    }
+
+    void 'Tenant data sources may be named with a prefix'() {
+        given:
+        DataSourceFactory dataSourceFactory = Mock(DataSourceFactory)
+        DataSource dataSource = Stub(DataSource)
+        NamedTenantDataSourceFactory factory = new NamedTenantDataSourceFactory(dataSourceFactory, [], 'tenant_')
+
+        when:
+        DataSource created = factory.create('customers', 'acme')
+        factory.create('customers', 'default')
+
+        then:
+        2 * dataSourceFactory.getDataSourceNames() >> (['default', 'tenant_acme'] as Set)
+        1 * dataSourceFactory.create('tenant_acme') >> dataSource
+        0 * dataSourceFactory.create('default')
+        created.is(dataSource)
+        IllegalArgumentException e = thrown(IllegalArgumentException)
+        e.message.contains("'tenant_default'")
+    }
+
+    void 'Tenant data sources must be restricted'() {
+        when:
+        new NamedTenantDataSourceFactory(Stub(DataSourceFactory), [], null)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    void 'A tenant connection whose schema cannot be reset is discarded'() {
+        given:
+        Connection connection = Mock(Connection)
+        DataSource dataSource = Stub(DataSource) {
+            getConnection() >> connection
+        }
+        TenantConnectionProvider provider = new TenantConnectionProvider('schemas', MultiTenancyStrategy.SCHEMA, dataSource, null, ['PUBLIC', 'TENANT_A', 'TENANT_C'])
+
+        when:
+        provider.getConnection('TENANT_A')
+        provider.releaseConnection('TENANT_A', connection)
+
+        then:
+        2 * connection.getSchema() >>> ['PUBLIC', 'TENANT_A']
+        1 * connection.setSchema('TENANT_A')
+        1 * connection.setSchema('PUBLIC') >> { throw new SQLException('connection broken', '08006') }
+        1 * connection.abort(_)
+        1 * connection.close()
+        thrown(SQLException)
+    }
+
+    void 'A tenant connection is reset when its schema cannot be selected'() {
+        given:
+        Connection connection = Mock(Connection)
+        DataSource dataSource = Stub(DataSource) {
+            getConnection() >> connection
+        }
+        TenantConnectionProvider provider = new TenantConnectionProvider('schemas', MultiTenancyStrategy.SCHEMA, dataSource, null, ['PUBLIC', 'TENANT_A', 'TENANT_C'])
+
+        when:
+        provider.getConnection('TENANT_C')
+
+        then:
+        1 * connection.getSchema() >> 'PUBLIC'
+        1 * connection.setSchema('TENANT_C') >> { throw new SQLException('Schema "TENANT_C" not found', '90079') }
+        1 * connection.setSchema('PUBLIC')
+        1 * connection.close()
+        0 * connection.abort(_)
+        SQLException e = thrown(SQLException)
+        e.message == "Cannot select the schema of tenant 'TENANT_C', it must be created before it is used"
+        e.SQLState == '90079'
+    }
+
+    void 'A tenant connection fails when the driver ignores the schema of the tenant'() {
+        given:
+        Connection connection = Mock(Connection)
+        DataSource dataSource = Stub(DataSource) {
+            getConnection() >> connection
+        }
+        TenantConnectionProvider provider = new TenantConnectionProvider('schemas', MultiTenancyStrategy.SCHEMA, dataSource, null, ['PUBLIC', 'TENANT_A'])
+
+        when:
+        provider.getConnection('TENANT_A')
+
+        then:
+        // as MySQL Connector/J does by default
+        2 * connection.getSchema() >> 'PUBLIC'
+        1 * connection.setSchema('TENANT_A')
+        1 * connection.setSchema('PUBLIC')
+        1 * connection.close()
+        SQLException e = thrown(SQLException)
+        e.message.startsWith("The connection reports schema 'PUBLIC' after selecting the schema of tenant 'TENANT_A'")
+    }
+
+    void 'Only listed tenants get a schema'() {
+        when:
+        hibernate5Handler.withHbm5TenantSession('schemas', 'INFORMATION_SCHEMA') { String sessionFactoryName, Session session ->
+            session.createQuery('from Country', Country).list()
+        }
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        causes(e).any { it instanceof IllegalArgumentException && it.message == "'INFORMATION_SCHEMA' is not a tenant of 'schemas'" }
+    }
+
+    void 'Schema based tenants must be listed'() {
+        when:
+        new TenantConnectionProvider('schemas', MultiTenancyStrategy.SCHEMA, Stub(DataSource), null, [])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    private static List<Throwable> causes(Throwable throwable) {
+        List<Throwable> causes = []
+        for (Throwable cause = throwable; cause != null && !causes.contains(cause); cause = cause.cause) {
+            causes << cause
+        }
+        causes
+    }
+
+    void 'Save entities in batches'() {
+        when:
+        long saved = hibernate5Handler.saveHbm5Batch((1..120).collect { new Person(name: "name${it}", lastname: 'batch') })
+        saved += hibernate5Handler.saveHbm5Batch((1..30).stream().map { new Person(name: "name${it}", lastname: 'stream') })
+        long count = hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.createQuery('select count(*) from Person').uniqueResult()
+        }
+
+        then:
+        saved == 150
+        count == 150
+    }
+
+    void 'Stream query results and release the session when the stream is closed'() {
+        given:
+        hibernate5Handler.saveHbm5Batch((1..20).collect { new Person(name: "name${it}", lastname: 'stream') })
+        Session streamingSession = null
+
+        when:
+        Stream<Person> stream = hibernate5Handler.streamHbm5Query { String sessionFactoryName, Session session ->
+            streamingSession = session
+            session.createQuery('from Person order by id', Person)
+        }
+        List<String> names = stream.limit(5).map { Person person -> person.name }.collect(Collectors.toList())
+        boolean openWhileStreaming = streamingSession.open
+        stream.close()
+
+        then:
+        names == (1..5).collect { "name${it}" }
+        openWhileStreaming
+        !streamingSession.open
+    }
+
+    void 'Stream query results until exhausted'() {
+        given:
+        hibernate5Handler.saveHbm5Batch((1..20).collect { new Person(name: "name${it}", lastname: 'stream') })
+        Session streamingSession = null
+
+        when:
+        long count = hibernate5Handler.streamHbm5Query { String sessionFactoryName, Session session ->
+            streamingSession = session
+            session.createQuery('select p.name, p.lastname from Person p')
+        }.count()
+
+        then:
+        count == 20
+        !streamingSession.open
+    }
+
+    void 'Reading a stream after it was closed fails instead of ending early'() {
+        given:
+        hibernate5Handler.saveHbm5Batch((1..20).collect { new Person(name: "name${it}", lastname: 'stream') })
+        Stream<Person> stream = hibernate5Handler.streamHbm5Query { String sessionFactoryName, Session session ->
+            session.createQuery('from Person order by id', Person)
+        }
+        Iterator<Person> iterator = stream.iterator()
+
+        when:
+        iterator.next()
+        stream.close()
+        iterator.hasNext()
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        e.cause instanceof IllegalStateException
+    }
+
+    void 'A derived stream keeps its session open after the source stream is unreachable'() {
+        given:
+        hibernate5Handler.saveHbm5Batch((1..20).collect { new Person(name: "name${it}", lastname: 'stream') })
+        Session streamingSession = null
+
+        when:
+        // only the derived stream is kept, the stream returned by the handler becomes unreachable
+        Stream<String> names = hibernate5Handler.streamHbm5Query { String sessionFactoryName, Session session ->
+            streamingSession = session
+            session.createQuery('from Person order by id', Person)
+        }.map { Person person -> person.name }
+        3.times {
+            System.gc()
+            Thread.sleep(50)
+        }
+        boolean openBeforeReading = streamingSession.open
+        long count = names.count()
+
+        then:
+        openBeforeReading
+        count == 20
+        !streamingSession.open
+    }
+
+    void 'The session of an unreachable stream is released'() {
+        given:
+        hibernate5Handler.saveHbm5Batch((1..20).collect { new Person(name: "name${it}", lastname: 'stream') })
+        Session streamingSession = null
+
+        when:
+        hibernate5Handler.streamHbm5Query { String sessionFactoryName, Session session ->
+            streamingSession = session
+            session.createQuery('from Person order by id', Person)
+        }.iterator().next()
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            System.gc()
+            assert !streamingSession.open
+        }
+    }
+
+    void 'Changes made within a read-only session are not flushed'() {
+        given:
+        hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.save(new Person(id: 1, name: 'Danno', lastname: 'Ferrin'))
+        }
+
+        when:
+        List settings = hibernate5Handler.withHbm5ReadOnlySession { String sessionFactoryName, Session session ->
+            Person person = session.createQuery('from Person').list()[0]
+            person.name = 'Changed'
+            [session.defaultReadOnly, session.hibernateFlushMode, session.isReadOnly(person)]
+        }
+        String name = hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.createQuery('from Person').list()[0].name
+        }
+
+        then:
+        settings == [true, FlushMode.MANUAL, true]
+        name == 'Danno'
+    }
+
+    void 'Transaction options are applied to the session block and undone afterwards'() {
+        given:
+        TransactionOptions options = TransactionOptions.builder()
+            .isolation(TransactionOptions.Isolation.SERIALIZABLE)
+            .timeout(5)
+            .flushMode(FlushMode.COMMIT)
+            .cacheMode(CacheMode.IGNORE)
+            .build()
+
+        when:
+        List settings = hibernate5Handler.withHbm5Session(options) { String sessionFactoryName, Session session ->
+            int isolation = session.doReturningWork { Connection connection -> connection.transactionIsolation }
+            [isolation, session.transaction.timeout, session.hibernateFlushMode, session.cacheMode]
+        }
+        int isolation = hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.doReturningWork { Connection connection -> connection.transactionIsolation }
+        }
+
+        then:
+        settings == [Connection.TRANSACTION_SERIALIZABLE, 5, FlushMode.COMMIT, CacheMode.IGNORE]
+        isolation == Connection.TRANSACTION_READ_COMMITTED
+    }
+
+    void 'A nested block cannot join a session opened with other transaction options'() {
+        given:
+        TransactionOptions outer = TransactionOptions.builder().timeout(5).build()
+
+        when:
+        hibernate5Handler.withHbm5Session(outer) { String sessionFactoryName, Session session ->
+            hibernate5Handler.withHbm5Session(TransactionOptions.builder().timeout(5).build()) { String name, Session joined -> }
+            hibernate5Handler.withHbm5Session(TransactionOptions.builder().cacheMode(CacheMode.IGNORE).build()) { String name, Session joined -> }
+        }
+
+        then:
+        RuntimeHibernate5Exception e = thrown(RuntimeHibernate5Exception)
+        causes(e).any { it instanceof IllegalStateException && it.message.startsWith('Cannot apply cacheMode IGNORE') }
+    }
+
+    void 'A runtime exception is thrown within session handling'() {
+        when:
+        hibernate5Handler.withHbm5Session { String sessionFactoryName, Session session ->
+            session.save(new Person())
+        }
+
+        then:
+        thrown(RuntimeHibernate5Exception)
+    }
+
+    void "Exception is thrown when using Person class on 'people' datasource"() {
+        when:
+        hibernate5Handler.withHbm5Session(name) { String sessionFactoryName, Session session ->
+            session.createQuery("from Person").list()
+        }
+
+        then:
+        thrown(RuntimeHibernate5Exception)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void "AnotherPerson class can be used on 'people' datasource"() {
+        when:
+        List peopleIn = hibernate5Handler.withHbm5Session(name) { String sessionFactoryName, Session session ->
+            [[id: 1, name: 'Danno', lastname: 'Ferrin'],
+             [id: 2, name: 'Andres', lastname: 'Almiray'],
+             [id: 3, name: 'James', lastname: 'Williams'],
+             [id: 4, name: 'Guillaume', lastname: 'Laforge'],
+             [id: 5, name: 'Jim', lastname: 'Shingler'],
+             [id: 6, name: 'Alexander', lastname: 'Klein'],
+             [id: 7, name: 'Rene', lastname: 'Groeschke']].each { data ->
+                session.save(new AnotherPerson(data))
+            }
+        }
+
+        List peopleOut = hibernate5Handler.withHbm5Session(name) { String sessionFactoryName, Session session ->
+            session.createQuery('from AnotherPerson').list()*.asMap()
+        }
+
+        then:
+        peopleIn == peopleOut
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Unresolved mapping index entries are resolved on the classpath'() {
+        given:
+        ClassLoader classLoader = getClass().classLoader
+
+        when:
+        MappingIndex.Entry hbm = MappingIndex.Entry.parse('griffon.plugins.hibernate5.AnotherPerson=UNRESOLVED;people')
+        MappingIndex.Entry annotated = MappingIndex.Entry.parse('griffon.plugins.hibernate5.Country=UNRESOLVED')
+
+        then:
+        !hbm.resolved
+        hbm.sessionFactoryNames == ['people'] as Set
+        hbm.format() == 'griffon.plugins.hibernate5.AnotherPerson=UNRESOLVED;people'
+        hbm.toMappingEntry(classLoader).type == MappingEntry.Type.HBM
+        hbm.toMappingEntry(classLoader).name == 'griffon/plugins/hibernate5/AnotherPerson.hbm.xml'
+        annotated.toMappingEntry(classLoader).type == MappingEntry.Type.ANNOTATED
+        annotated.toMappingEntry(classLoader).name == 'griffon.plugins.hibernate5.Country'
+    }
+
+    void "Mappings of 'people' are cached and reused"() {
+        given:
+        File cacheFile = new File('build/hibernate5-mapping-cache/people/mappings.cache')
+        cacheFile.delete()
+
+        when:
+        hibernate5Handler.withHbm5Session('people') { String sessionFactoryName, Session session ->
+            session.save(new AnotherPerson(id: 1, name: 'Danno', lastname: 'Ferrin'))
+        }
+        hibernate5Handler.closeHbm5Session('people')
+        List peopleOut = hibernate5Handler.withHbm5Session('people') { String sessionFactoryName, Session session ->
+            session.createQuery('from AnotherPerson').list()
+        }
+
+        then:
+        cacheFile.exists()
+        cacheFile.readLines().contains('HBM=griffon/plugins/hibernate5/AnotherPerson.hbm.xml')
+        new File('build/hibernate5-mapping-cache/people/hbm/griffon/plugins/hibernate5/AnotherPerson.hbm.xml.bin').exists()
+        peopleOut.isEmpty()
+    }
+
+    void 'Editing a mapped hbm.xml file changes the mapping fingerprint'() {
+        given:
+        File root = File.createTempDir()
+        File hbmFile = new File(root, 'com/acme/Book.hbm.xml')
+        hbmFile.parentFile.mkdirs()
+        hbmFile.text = '<hibernate-mapping package="com.acme"/>'
+        ClassLoader classLoader = new URLClassLoader([root.toURI().toURL()] as URL[], (ClassLoader) null)
+        MappingCache mappingCache = new MappingCache(root, 'books')
+        List<MappingEntry> entries = [MappingEntry.hbm('com/acme/Book.hbm.xml')]
+
+        when:
+        String before = mappingCache.fingerprint(classLoader, '.*', entries)
+        String unchanged = mappingCache.fingerprint(classLoader, '.*', entries)
+        hbmFile.text = '<hibernate-mapping package="com.acme" default-lazy="false"/>'
+        String after = mappingCache.fingerprint(classLoader, '.*', entries)
+
+        then:
+        before == unchanged
+        before != after
+
+        cleanup:
+        classLoader?.close()
+        root?.deleteDir()
+    }
+
+    void 'A second start reuses the dialect detected by the first one'() {
+        given:
+        File storeFile = File.createTempFile('dialects', '.properties')
+        storeFile.delete()
+        String url = 'jdbc:h2:mem:dialect-restart'
+        int connections = 0
+        DataSource dataSource = [getConnection: { -> connections++; DriverManager.getConnection(url, 'sa', '') }] as DataSource
+
+        when:
+        String detected = new DialectDetector(dataSource, DialectDetector.cacheKey(url), storeFile).dialect
+        // a new launch starts without the dialects cached in memory
+        DialectDetector.DIALECTS.clear()
+        String restored = new DialectDetector(dataSource, DialectDetector.cacheKey(url), storeFile).dialect
+
+        then:
+        detected == 'org.hibernate.dialect.H2Dialect'
+        restored == detected
+        connections == 1
+
+        cleanup:
+        storeFile?.delete()
+    }
+
+    void 'A changed JDBC URL does not reuse the cached dialect'() {
+        given:
+        File storeFile = File.createTempFile('dialects', '.properties')
+        storeFile.delete()
+        String url = 'jdbc:h2:mem:dialect-before'
+        String changedUrl = 'jdbc:h2:mem:dialect-after'
+        int connections = 0
+        DataSource dataSource = [getConnection: { -> connections++; DriverManager.getConnection(url, 'sa', '') }] as DataSource
+        DataSource changedDataSource = [getConnection: { -> connections++; DriverManager.getConnection(changedUrl, 'sa', '') }] as DataSource
+
+        when:
+        new DialectDetector(dataSource, DialectDetector.cacheKey(url), storeFile).dialect
+        DialectDetector.DIALECTS.clear()
+        new DialectDetector(changedDataSource, DialectDetector.cacheKey(changedUrl), storeFile).dialect
+        Properties store = new Properties()
+        storeFile.withInputStream { store.load(it) }
+
+        then:
+        DialectDetector.cacheKey(url) != DialectDetector.cacheKey(changedUrl)
+        connections == 2
+        store.stringPropertyNames() == [DialectDetector.cacheKey(url), DialectDetector.cacheKey(changedUrl)] as Set
+
+        cleanup:
+        storeFile?.delete()
     }
 
     void 'Execute statements on annotated class'() {
@@ -247,7 +1877,7 @@ class Hibernate5Spec extends Specification {
     private TestHibernate5Bootstrap bootstrap = new TestHibernate5Bootstrap()
 
     private class TestEventHandler {
-        List<String> events = []
+        List<String> events = Collections.synchronizedList([])
 
         @EventHandler
         void handleDataSourceConnectStartEvent(DataSourceConnectStartEvent event) {
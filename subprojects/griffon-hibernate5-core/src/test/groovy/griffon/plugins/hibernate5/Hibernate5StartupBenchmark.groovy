@@ -0,0 +1,77 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.hibernate5
+
+import griffon.test.core.GriffonUnitRule
+import org.hibernate.Session
+import org.junit.Rule
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import spock.lang.Requires
+import spock.lang.Specification
+
+import javax.inject.Inject
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the time it takes to build the 'people' SessionFactory with a cold and a warm mapping cache.
+ * Run with {@code -Dhibernate5.benchmark=true}; tune with {@code hibernate5.benchmark.rounds}.
+ */
+@Requires({ sys['hibernate5.benchmark'] })
+class Hibernate5StartupBenchmark extends Specification {
+    private static final Logger LOG = LoggerFactory.getLogger(Hibernate5StartupBenchmark)
+    private static final int ROUNDS = Integer.getInteger('hibernate5.benchmark.rounds', 10)
+    private static final File CACHE_DIR = new File('build/hibernate5-mapping-cache', 'people')
+
+    @Rule
+    public final GriffonUnitRule griffon = new GriffonUnitRule()
+
+    @Inject
+    private Hibernate5Handler hibernate5Handler
+
+    void 'Compare SessionFactory startup with a cold and a warm mapping cache'() {
+        when:
+        // the first build pays for class loading, leave it out of both measurements
+        connect()
+        double cold = measure(true)
+        double warm = measure(false)
+        LOG.info(String.format('people: cold mapping cache %.1f ms, warm mapping cache %.1f ms (average of %d builds)', cold, warm, ROUNDS))
+
+        then:
+        cold > 0
+        warm > 0
+    }
+
+    private double measure(boolean cold) {
+        long elapsed = 0
+        for (int i = 0; i < ROUNDS; i++) {
+            if (cold) {
+                CACHE_DIR.deleteDir()
+            }
+            long start = System.nanoTime()
+            connect()
+            elapsed += System.nanoTime() - start
+        }
+        elapsed / ROUNDS / TimeUnit.MILLISECONDS.toNanos(1)
+    }
+
+    private void connect() {
+        hibernate5Handler.withHbm5Session('people') { String name, Session session -> null }
+        hibernate5Handler.closeHbm5Session('people')
+    }
+}
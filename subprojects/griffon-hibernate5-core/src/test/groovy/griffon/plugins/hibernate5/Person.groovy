@@ -17,11 +17,13 @@
  */
 package griffon.plugins.hibernate5
 
+import griffon.transform.hibernate5.SessionFactories
 import org.kordamp.jipsy.annotations.TypeProviderFor
 import groovy.transform.ToString
 
 @ToString
 @TypeProviderFor(Hibernate5Mapping)
+@SessionFactories(['default', 'internal'])
 class Person implements Serializable, Hibernate5Mapping {
     int id
     String name
@@ -63,4 +63,87 @@ dataSources {
         dbCreate = 'skip'
         url = 'jdbc:h2:mem:${application_name}-people'
     }
+    cached {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-cached'
+    }
+    replicated {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-replicated'
+    }
+    replica {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-replica'
+    }
+    tenants {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-tenants'
+    }
+    tenant_a {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-tenant_a;INIT=CREATE TABLE IF NOT EXISTS COUNTRY(ID INT PRIMARY KEY, NAME VARCHAR(255))'
+    }
+    tenant_b {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-tenant_b;INIT=CREATE TABLE IF NOT EXISTS COUNTRY(ID INT PRIMARY KEY, NAME VARCHAR(255))'
+    }
+    schemas {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-schemas;INIT=CREATE SCHEMA IF NOT EXISTS TENANT_A\\;CREATE SCHEMA IF NOT EXISTS TENANT_B\\;CREATE TABLE IF NOT EXISTS TENANT_A.COUNTRY(ID INT PRIMARY KEY, NAME VARCHAR(255))\\;CREATE TABLE IF NOT EXISTS TENANT_B.COUNTRY(ID INT PRIMARY KEY, NAME VARCHAR(255))'
+    }
+    benchmark_platform {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-benchmark-platform'
+        pool {
+            maximumPoolSize = 16
+        }
+    }
+    benchmark_virtual {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-benchmark-virtual'
+        pool {
+            maximumPoolSize = 16
+        }
+    }
+    benchmark_uncached {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-benchmark-uncached'
+    }
+    benchmark_cached {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'skip'
+        url = 'jdbc:h2:mem:${application_name}-benchmark-cached'
+    }
 }
\ No newline at end of file
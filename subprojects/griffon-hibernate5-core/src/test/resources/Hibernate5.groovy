@@ -34,13 +34,80 @@ environments {
     }
 }
 
+sharding {
+    strategy = 'range'
+    shards = ['default', 'internal']
+    ranges = [0, 100]
+}
+
 sessionFactories {
     internal {
         schema = 'create-drop'
         provider_class = "org.hibernate.c3p0.internal.C3P0ConnectionProvider"
+        statistics = true
+        slow_query_log = true
+        slow_query_threshold = 0
+        n_plus_one_threshold = 3
+        n_plus_one_action = 'fail'
+        retry_attempts = 3
+        retry_delay = 1
     }
     people {
         schema = 'create-drop'
         mapClassesPattern = /.*AnotherPerson.*/ //Will map only classes matching this value
+        mapping_cache = true
+        mapping_cache_dir = 'build/hibernate5-mapping-cache'
+    }
+    cached {
+        schema = 'create-drop'
+        statistics = true
+        second_level_cache = true
+        query_cache = true
+        cache_max_entries = 100
+        cache_snapshot_dir = 'build/hibernate5-cache-snapshot'
+        cache_regions {
+            'griffon.plugins.hibernate5.Country' {
+                max_entries = 2
+                persistent = true
+            }
+        }
+    }
+    replicated {
+        schema = 'create-drop'
+        replicas = ['replica']
+    }
+    tenants {
+        schema = 'create-drop'
+        multi_tenancy = 'database'
+        tenants = ['tenant_a', 'tenant_b']
+        tenant_cache_size = 1
+    }
+    schemas {
+        schema = 'create-drop'
+        multi_tenancy = 'schema'
+        // TENANT_C is never created
+        tenants = ['PUBLIC', 'TENANT_A', 'TENANT_B', 'TENANT_C']
+        default_tenant = 'PUBLIC'
+    }
+    benchmark_platform {
+        schema = 'create-drop'
+        async_mode = 'platform'
+        async_threads = 16
+        async_queue_size = 10000
+    }
+    benchmark_virtual {
+        schema = 'create-drop'
+        async_mode = 'virtual'
+        async_threads = 16
+        async_queue_size = 10000
+    }
+    benchmark_uncached {
+        schema = 'create-drop'
+        statistics = true
+    }
+    benchmark_cached {
+        schema = 'create-drop'
+        statistics = true
+        second_level_cache = true
     }
 }
\ No newline at end of file
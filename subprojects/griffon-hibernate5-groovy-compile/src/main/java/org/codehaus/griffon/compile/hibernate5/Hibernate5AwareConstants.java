@@ -35,13 +35,32 @@ import static org.codehaus.griffon.compile.core.MethodDescriptor.types;
  */
 public interface Hibernate5AwareConstants extends BaseConstants {
     String SESSION_TYPE = "org.hibernate.Session";
+    String QUERY_TYPE = "org.hibernate.query.Query";
     String Hibernate5_HANDLER_TYPE = "griffon.plugins.hibernate5.Hibernate5Handler";
     String Hibernate5_CALLBACK_TYPE = "griffon.plugins.hibernate5.Hibernate5Callback";
+    String Hibernate5_PROPAGATION_TYPE = "griffon.plugins.hibernate5.Propagation";
+    String Hibernate5_TRANSACTION_OPTIONS_TYPE = "griffon.plugins.hibernate5.TransactionOptions";
+    String Hibernate5_STATELESS_CALLBACK_TYPE = "griffon.plugins.hibernate5.Hibernate5StatelessCallback";
     String RUNTIME_Hibernate5_EXCEPTION_TYPE = "griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception";
+    String JAVA_LANG_ITERABLE = "java.lang.Iterable";
+    String JAVA_LANG_OBJECT = "java.lang.Object";
+    String JAVA_UTIL_LIST = "java.util.List";
+    String JAVA_UTIL_STREAM_STREAM = "java.util.stream.Stream";
+    String JAVA_UTIL_CONCURRENT_COMPLETABLE_FUTURE = "java.util.concurrent.CompletableFuture";
+    String E = "E";
+    String LONG = "long";
     String Hibernate5_HANDLER_PROPERTY = "hibernate5Handler";
     String Hibernate5_HANDLER_FIELD_NAME = "this$" + Hibernate5_HANDLER_PROPERTY;
 
     String METHOD_WITH_SESSION = "withHbm5Session";
+    String METHOD_WITH_SESSION_ASYNC = "withHbm5SessionAsync";
+    String METHOD_WITH_READ_ONLY_SESSION = "withHbm5ReadOnlySession";
+    String METHOD_WITH_TENANT_SESSION = "withHbm5TenantSession";
+    String METHOD_WITH_SHARD = "withHbm5Shard";
+    String METHOD_WITH_ALL_SHARDS = "withHbm5AllShards";
+    String METHOD_WITH_STATELESS_SESSION = "withHbm5StatelessSession";
+    String METHOD_SAVE_BATCH = "saveHbm5Batch";
+    String METHOD_STREAM_QUERY = "streamHbm5Query";
     String METHOD_CLOSE_SESSION = "closeHbm5Session";
     String SESSION_FACTORY_NAME = "sessionFactoryName";
     String CALLBACK = "callback";
@@ -74,6 +93,198 @@ public interface Hibernate5AwareConstants extends BaseConstants {
                 annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
                 annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
             throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_PROPAGATION_TYPE),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_PROPAGATION_TYPE),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_TRANSACTION_OPTIONS_TYPE),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_TRANSACTION_OPTIONS_TYPE),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(JAVA_UTIL_CONCURRENT_COMPLETABLE_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_SESSION_ASYNC,
+            args(annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(JAVA_UTIL_CONCURRENT_COMPLETABLE_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_SESSION_ASYNC,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_READ_ONLY_SESSION,
+            args(annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            types(type(ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_READ_ONLY_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_TENANT_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_TENANT_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_SHARD,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_OBJECT),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(JAVA_UTIL_LIST, R),
+            typeParams(R),
+            METHOD_WITH_ALL_SHARDS,
+            args(annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_STATELESS_SESSION,
+            args(annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_STATELESS_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            types(type(ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_STATELESS_SESSION,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_STATELESS_CALLBACK_TYPE, R)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+
+        method(
+            type(LONG),
+            typeParams(E),
+            METHOD_SAVE_BATCH,
+            args(annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_ITERABLE, E)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        method(
+            type(LONG),
+            typeParams(E),
+            METHOD_SAVE_BATCH,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_ITERABLE, E)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        method(
+            type(LONG),
+            typeParams(E),
+            METHOD_SAVE_BATCH,
+            args(annotatedType(annotations(ANNOTATION_NONNULL), JAVA_UTIL_STREAM_STREAM, E)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        method(
+            type(LONG),
+            typeParams(E),
+            METHOD_SAVE_BATCH,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_UTIL_STREAM_STREAM, E)),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(JAVA_UTIL_STREAM_STREAM, E),
+            typeParams(E),
+            METHOD_STREAM_QUERY,
+            args(annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, type(QUERY_TYPE, E))),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
+        ),
+        annotatedMethod(
+            annotations(ANNOTATION_NONNULL),
+            type(JAVA_UTIL_STREAM_STREAM, E),
+            typeParams(E),
+            METHOD_STREAM_QUERY,
+            args(
+                annotatedType(annotations(ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(ANNOTATION_NONNULL), Hibernate5_CALLBACK_TYPE, type(QUERY_TYPE, E))),
+            throwing(type(RUNTIME_Hibernate5_EXCEPTION_TYPE))
         )
     };
 }
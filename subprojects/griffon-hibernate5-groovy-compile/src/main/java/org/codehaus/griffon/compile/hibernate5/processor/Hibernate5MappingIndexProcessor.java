@@ -0,0 +1,185 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.compile.hibernate5.processor;
+
+import griffon.transform.hibernate5.SessionFactories;
+import org.codehaus.griffon.runtime.hibernate5.internal.MappingEntry;
+import org.codehaus.griffon.runtime.hibernate5.internal.MappingIndex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Generates the mapping index read by {@code HibernateConfigurationHelper}, recording for every class that implements
+ * {@code Hibernate5Mapping} whether it is mapped by a {@code hbm.xml} resource or by JPA annotations, and which
+ * SessionFactories it belongs to (see {@link SessionFactories}).
+ * <p>
+ * A class is only indexed as {@code HBM} when its {@code hbm.xml} resource can be found on the source path, the class
+ * output, the class path or in one of the directories given by the {@value #OPTION_RESOURCES} option (separated by
+ * the platform path separator). Classes with neither are indexed as {@code UNRESOLVED} and looked up on the classpath
+ * at runtime, as their {@code hbm.xml} resource may come from somewhere the processor cannot see.
+ *
+ * @author Andres Almiray
+ * @since 3.0.0
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(Hibernate5MappingIndexProcessor.OPTION_RESOURCES)
+public class Hibernate5MappingIndexProcessor extends AbstractProcessor {
+    public static final String OPTION_RESOURCES = "griffon.hibernate5.resources";
+    private static final String HIBERNATE5_MAPPING_TYPE = "griffon.plugins.hibernate5.Hibernate5Mapping";
+    private static final String HBM_XML_SUFFIX = ".hbm.xml";
+    private static final StandardLocation[] HBM_LOCATIONS = {
+        StandardLocation.SOURCE_PATH,
+        StandardLocation.CLASS_OUTPUT,
+        StandardLocation.CLASS_PATH
+    };
+    private static final Set<String> PERSISTENCE_ANNOTATION_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "javax.persistence.Entity",
+        "javax.persistence.Embeddable",
+        "javax.persistence.MappedSuperclass"
+    )));
+
+    private final Map<String, MappingIndex.Entry> entries = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        TypeElement mappingType = processingEnv.getElementUtils().getTypeElement(HIBERNATE5_MAPPING_TYPE);
+        if (mappingType == null) {
+            return false;
+        }
+
+        TypeMirror mapping = processingEnv.getTypeUtils().erasure(mappingType.asType());
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            index(type, mapping);
+        }
+        return false;
+    }
+
+    private void index(TypeElement type, TypeMirror mapping) {
+        if (type.getKind() == ElementKind.CLASS && processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()), mapping)) {
+            String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+            MappingEntry.Type mappingType = MappingEntry.Type.ANNOTATED;
+            if (!isPersistenceAnnotated(type)) {
+                if (hasHbmResource(className)) {
+                    mappingType = MappingEntry.Type.HBM;
+                } else {
+                    mappingType = null;
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        className + " has no persistence annotation nor a visible " + HBM_XML_SUFFIX + " resource, its mapping is resolved at runtime", type);
+                }
+            }
+            Set<String> sessionFactoryNames = new LinkedHashSet<>();
+            SessionFactories sessionFactories = type.getAnnotation(SessionFactories.class);
+            if (sessionFactories != null) {
+                sessionFactoryNames.addAll(Arrays.asList(sessionFactories.value()));
+            }
+            entries.put(className, new MappingIndex.Entry(className, mappingType, sessionFactoryNames));
+        }
+
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            index(nested, mapping);
+        }
+    }
+
+    private boolean isPersistenceAnnotated(Element element) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            if (PERSISTENCE_ANNOTATION_TYPES.contains(annotationType.getQualifiedName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasHbmResource(String className) {
+        String resource = className.replace('.', '/') + HBM_XML_SUFFIX;
+        for (StandardLocation location : HBM_LOCATIONS) {
+            try {
+                FileObject file = processingEnv.getFiler().getResource(location, "", resource);
+                try (InputStream in = file.openInputStream()) {
+                    return true;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // not available at this location
+            }
+        }
+
+        String directories = processingEnv.getOptions().get(OPTION_RESOURCES);
+        if (directories != null) {
+            for (String directory : directories.split(File.pathSeparator)) {
+                if (!directory.trim().isEmpty() && new File(directory.trim(), resource).isFile()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", MappingIndex.RESOURCE);
+            try (Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (MappingIndex.Entry entry : entries.values()) {
+                    writer.write(entry.format());
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + MappingIndex.RESOURCE + ": " + e.getMessage());
+        }
+    }
+}
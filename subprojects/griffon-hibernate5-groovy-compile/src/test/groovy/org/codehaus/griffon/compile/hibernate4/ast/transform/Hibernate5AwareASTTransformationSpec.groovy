@@ -56,10 +56,16 @@ class Hibernate5AwareASTTransformationSpec extends Specification {
         when:
         def bean = shell.evaluate('''
         import griffon.plugins.hibernate5.Hibernate5Callback
+        import griffon.plugins.hibernate5.Hibernate5StatelessCallback
+        import griffon.plugins.hibernate5.Propagation
+        import griffon.plugins.hibernate5.TransactionOptions
         import griffon.plugins.hibernate5.exceptions.RuntimeHibernate5Exception
         import griffon.plugins.hibernate5.Hibernate5Handler
 
         import griffon.annotations.core.Nonnull
+        import org.hibernate.query.Query
+        import java.util.concurrent.CompletableFuture
+        import java.util.stream.Stream
 
         @griffon.transform.hibernate5.Hibernate5Aware
         class Hibernate5HandlerBean implements Hibernate5Handler {
@@ -71,6 +77,86 @@ class Hibernate5AwareASTTransformationSpec extends Specification {
              <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
                 return null
             }
+            @Override
+             <R> R withHbm5Session(@Nonnull Propagation propagation, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull Propagation propagation, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5Session(@Nonnull TransactionOptions options, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5Session(@Nonnull String sessionFactoryName, @Nonnull TransactionOptions options, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5TenantSession(@Nonnull String tenantId, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5TenantSession(@Nonnull String sessionFactoryName, @Nonnull String tenantId, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> CompletableFuture<R> withHbm5SessionAsync(@Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> CompletableFuture<R> withHbm5SessionAsync(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5ReadOnlySession(@Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5ReadOnlySession(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5Shard(@Nonnull Object shardKey, @Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> List<R> withHbm5AllShards(@Nonnull Hibernate5Callback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5StatelessSession(@Nonnull Hibernate5StatelessCallback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <R> R withHbm5StatelessSession(@Nonnull String sessionFactoryName, @Nonnull Hibernate5StatelessCallback<R> callback) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <E> long saveHbm5Batch(@Nonnull Iterable<E> entities) throws RuntimeHibernate5Exception {
+                return 0L
+            }
+            @Override
+             <E> long saveHbm5Batch(@Nonnull String sessionFactoryName, @Nonnull Iterable<E> entities) throws RuntimeHibernate5Exception {
+                return 0L
+            }
+            @Override
+             <E> long saveHbm5Batch(@Nonnull Stream<E> entities) throws RuntimeHibernate5Exception {
+                return 0L
+            }
+            @Override
+             <E> long saveHbm5Batch(@Nonnull String sessionFactoryName, @Nonnull Stream<E> entities) throws RuntimeHibernate5Exception {
+                return 0L
+            }
+            @Override
+             <E> Stream<E> streamHbm5Query(@Nonnull Hibernate5Callback<Query<E>> queryFactory) throws RuntimeHibernate5Exception {
+                return null
+            }
+            @Override
+             <E> Stream<E> streamHbm5Query(@Nonnull String sessionFactoryName, @Nonnull Hibernate5Callback<Query<E>> queryFactory) throws RuntimeHibernate5Exception {
+                return null
+            }
             @Override
             void closeHbm5Session(){}
             @Override
@@ -0,0 +1,91 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2014-2021 The author and/or original authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.compile.hibernate5.processor
+
+import spock.lang.Specification
+
+import javax.tools.JavaCompiler
+import javax.tools.JavaFileObject
+import javax.tools.SimpleJavaFileObject
+import javax.tools.ToolProvider
+import java.nio.file.Files
+
+/**
+ * @author Andres Almiray
+ */
+class Hibernate5MappingIndexProcessorSpec extends Specification {
+    def 'Hibernate5MappingIndexProcessor indexes Hibernate5Mapping classes'() {
+        given:
+        File output = Files.createTempDirectory('hibernate5-index').toFile()
+        File resources = Files.createTempDirectory('hibernate5-resources').toFile()
+        new File(resources, 'com/acme').mkdirs()
+        new File(resources, 'com/acme/Author.hbm.xml').text = '<hibernate-mapping package="com.acme"/>'
+        JavaCompiler compiler = ToolProvider.systemJavaCompiler
+        List<JavaFileObject> sources = [
+            source('com.acme.Book', '''
+            package com.acme;
+            @javax.persistence.Entity
+            @griffon.transform.hibernate5.SessionFactories({"default", "people"})
+            public class Book implements griffon.plugins.hibernate5.Hibernate5Mapping {
+                @javax.persistence.Id
+                private int id;
+            }
+            '''),
+            source('com.acme.Author', '''
+            package com.acme;
+            public class Author implements griffon.plugins.hibernate5.Hibernate5Mapping { }
+            '''),
+            source('com.acme.Publisher', '''
+            package com.acme;
+            public class Publisher implements griffon.plugins.hibernate5.Hibernate5Mapping { }
+            '''),
+            source('com.acme.Unrelated', '''
+            package com.acme;
+            public class Unrelated { }
+            ''')
+        ]
+
+        when:
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+            ['-d', output.absolutePath, '-classpath', System.getProperty('java.class.path'), '-proc:only',
+             "-A${Hibernate5MappingIndexProcessor.OPTION_RESOURCES}=${resources.absolutePath}".toString()], null, sources)
+        task.processors = [new Hibernate5MappingIndexProcessor()]
+        boolean compiled = task.call()
+
+        then:
+        compiled
+        new File(output, 'META-INF/griffon/hibernate5/mappings').readLines() == [
+            'com.acme.Author=HBM',
+            'com.acme.Book=ANNOTATED;default,people',
+            'com.acme.Publisher=UNRESOLVED'
+        ]
+
+        cleanup:
+        output?.deleteDir()
+        resources?.deleteDir()
+    }
+
+    private static JavaFileObject source(String className, String code) {
+        new SimpleJavaFileObject(URI.create("string:///${className.replace('.', '/')}.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                code
+            }
+        }
+    }
+}